@@ -0,0 +1,89 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time of a JVM launch until the agent premain is completed.
+ * The launched application halts as soon as main starts, so shutdown and report saving are not measured.
+ * <p>
+ * Agent jar is passed with <code>coverage.agent.jar</code> property, and the CDS archive with the agent jar copy
+ * are expected next to it, see <code>:instrumentation:agentCdsArchive</code> task.
+ */
+@SuppressWarnings({"unused", "used in jmh"})
+@State(Scope.Benchmark)
+public class AgentStartupBenchmark {
+  @Param({"NO_AGENT", "AGENT", "AGENT_CDS"})
+  public String mode;
+
+  private List<String> myCommand;
+  private File myReport;
+
+  @Setup
+  public void setup() throws Exception {
+    final String agentJar = System.getProperty("coverage.agent.jar");
+    if (agentJar == null) throw new IllegalStateException("coverage.agent.jar property is not set");
+    myReport = File.createTempFile("startup", ".ic");
+    myCommand = new ArrayList<String>();
+    myCommand.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    String agent = agentJar;
+    if ("AGENT_CDS".equals(mode)) {
+      final String baseName = agentJar.substring(0, agentJar.length() - ".jar".length());
+      final File archive = new File(baseName + ".jsa");
+      final File cdsJar = new File(baseName + "-cds.jar");
+      if (!archive.isFile() || !cdsJar.isFile()) throw new IllegalStateException("CDS archive not found: " + archive);
+      myCommand.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+      agent = cdsJar.getAbsolutePath();
+    }
+    if (!"NO_AGENT".equals(mode)) {
+      myCommand.add("-javaagent:" + agent + "=" + myReport.getAbsolutePath() + " false false false false org\\.joda\\..*");
+    }
+    myCommand.add("-cp");
+    myCommand.add(System.getProperty("java.class.path"));
+    myCommand.add(HaltingMain.class.getName());
+  }
+
+  @TearDown
+  public void tearDown() {
+    myReport.delete();
+  }
+
+  @Benchmark
+  public int launch() throws Exception {
+    final Process process = new ProcessBuilder(myCommand).redirectErrorStream(true).start();
+    while (process.getInputStream().read() >= 0) ;
+    final int exitCode = process.waitFor();
+    if (exitCode != 0) throw new IllegalStateException("Process exited with code " + exitCode);
+    return exitCode;
+  }
+
+  public static class HaltingMain {
+    public static void main(String[] args) {
+      Runtime.getRuntime().halt(0);
+    }
+  }
+}
@@ -286,6 +286,16 @@ public class CoverageIOUtil {
     return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
   }
 
+  public static byte[] readBytes(InputStream is) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    int read;
+    while ((read = is.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
   public static void close(Closeable out) {
     if (out != null) {
       try {
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events of the coverage engine.
+ * <p>
+ * Events are defined with <code>jdk.jfr.EventFactory</code> API, which is accessed via reflection
+ * to keep compatibility with Java 5-8. When this API is not available (before Java 12) or events are disabled,
+ * all the methods are no-op.
+ * <p>
+ * Usage:
+ * <pre>
+ * final Object event = JfrEvents.SNAPSHOT_DUMP.begin();
+ * ...
+ * JfrEvents.SNAPSHOT_DUMP.commit(event, fileName, fileSize, classes, probes);
+ * </pre>
+ */
+public class JfrEvents {
+  private static final String CATEGORY = "IntelliJ Coverage";
+  private static final boolean ENABLED = "true".equals(System.getProperty("coverage.jfr.enable", "false"));
+
+  public static final EventType CLASS_TRANSFORMATION = new EventType(
+      "com.intellij.rt.coverage.ClassTransformation", "Class Transformation",
+      "Instrumentation of a class by coverage agent",
+      new Field(String.class, "className", "Class Name", null),
+      new Field(long.class, "originalSize", "Original Size", "BYTES"),
+      new Field(long.class, "transformedSize", "Transformed Size", "BYTES"),
+      new Field(int.class, "probes", "Probes", null));
+
+  public static final EventType SNAPSHOT_DUMP = new EventType(
+      "com.intellij.rt.coverage.SnapshotDump", "Coverage Snapshot Dump",
+      "Finalization and saving of coverage report",
+      new Field(String.class, "file", "Report File", null),
+      new Field(long.class, "fileSize", "Report Size", "BYTES"),
+      new Field(int.class, "classes", "Classes", null),
+      new Field(long.class, "probes", "Probes", null));
+
+  public static final EventType UNLOADED_CLASSES_ANALYSIS = new EventType(
+      "com.intellij.rt.coverage.UnloadedClassesAnalysis", "Unloaded Classes Analysis",
+      "Analysis of classes that have not been loaded during application execution",
+      new Field(int.class, "classes", "Analysed Classes", null),
+      new Field(long.class, "bytes", "Bytes Read", "BYTES"),
+      new Field(long.class, "probes", "Probes", null));
+
+  public static final EventType REPORT_LOAD = new EventType(
+      "com.intellij.rt.coverage.ReportLoad", "Coverage Report Load",
+      "Loading of coverage report from file",
+      new Field(String.class, "file", "Report File", null),
+      new Field(long.class, "fileSize", "Report Size", "BYTES"),
+      new Field(int.class, "classes", "Classes", null),
+      new Field(long.class, "lines", "Lines", null));
+
+  public static class EventType {
+    private Object myFactory;
+    private Method myNewEvent;
+    private Method myIsEnabled;
+    private Method myBegin;
+    private Method mySet;
+    private Method myCommit;
+
+    private EventType(String name, String label, String description, Field... fields) {
+      if (!ENABLED) return;
+      try {
+        final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+        final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+        final List<Object> annotations = new ArrayList<Object>();
+        annotations.add(annotation("jdk.jfr.Name", name));
+        annotations.add(annotation("jdk.jfr.Label", label));
+        annotations.add(annotation("jdk.jfr.Description", description));
+        annotations.add(annotation("jdk.jfr.Category", new String[]{CATEGORY}));
+        // stack trace would consist of reflection frames only
+        annotations.add(annotation("jdk.jfr.StackTrace", false));
+
+        final Constructor<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+        final List<Object> values = new ArrayList<Object>();
+        for (Field field : fields) {
+          final List<Object> fieldAnnotations = new ArrayList<Object>();
+          fieldAnnotations.add(annotation("jdk.jfr.Label", field.myLabel));
+          if (field.myDataAmount != null) {
+            fieldAnnotations.add(annotation("jdk.jfr.DataAmount", field.myDataAmount));
+          }
+          values.add(descriptor.newInstance(field.myType, field.myName, fieldAnnotations));
+        }
+
+        myFactory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, values);
+        myNewEvent = factoryClass.getMethod("newEvent");
+        myIsEnabled = eventClass.getMethod("isEnabled");
+        myBegin = eventClass.getMethod("begin");
+        mySet = eventClass.getMethod("set", int.class, Object.class);
+        myCommit = eventClass.getMethod("commit");
+      } catch (ClassNotFoundException e) {
+        myFactory = null;
+      } catch (Throwable e) {
+        myFactory = null;
+        ErrorReporter.logInfo("JFR event " + name + " registration failed: " + e.getMessage());
+      }
+    }
+
+    /**
+     * Start a new event.
+     *
+     * @return started event or null if the event is not recorded
+     */
+    public Object begin() {
+      if (myFactory == null) return null;
+      try {
+        final Object event = myNewEvent.invoke(myFactory);
+        if (!((Boolean) myIsEnabled.invoke(event))) return null;
+        myBegin.invoke(event);
+        return event;
+      } catch (Throwable e) {
+        return null;
+      }
+    }
+
+    /**
+     * Set event fields in the order of declaration and commit the event.
+     * Event duration ends on commit.
+     *
+     * @param event started event, no-op if null
+     */
+    public void commit(Object event, Object... values) {
+      if (event == null) return;
+      try {
+        for (int i = 0; i < values.length; i++) {
+          mySet.invoke(event, i, values[i]);
+        }
+        myCommit.invoke(event);
+      } catch (Throwable ignored) {
+      }
+    }
+  }
+
+  private static class Field {
+    private final Class<?> myType;
+    private final String myName;
+    private final String myLabel;
+    private final String myDataAmount;
+
+    private Field(Class<?> type, String name, String label, String dataAmount) {
+      myType = type;
+      myName = name;
+      myLabel = label;
+      myDataAmount = dataAmount;
+    }
+  }
+
+  private static Object annotation(String annotationClass, Object value) throws Exception {
+    final Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+    final Constructor<?> constructor = elementClass.getConstructor(Class.class, Object.class);
+    return constructor.newInstance(Class.forName(annotationClass), value);
+  }
+}
@@ -61,13 +61,16 @@ public class BranchesInstrumenter extends Instrumenter {
    * Create instrumenter that will insert coverage hits increments into bytecode.
    */
   public MethodVisitor createInstrumentingVisitor(MethodVisitor mv, BranchesEnumerator enumerator,
-                                                  int access, String name, String desc) {
+                                                  int access, final String name, final String desc) {
     if (enumerator.hasNoLines()) {
       return myDataAccess.createMethodVisitor(mv, name, false);
     }
     final MethodVisitor visitor = new HitsVisitor(mv, access, desc) {
       public void visitCode() {
         myDataAccess.onMethodStart(mv, getLVIndex());
+        if (myProjectData.isFirstHitsEnabled()) {
+          insertFirstHitProbe(mv, getLVIndex(), myBranchData.allocateId(), name, desc);
+        }
         super.visitCode();
       }
     };
@@ -16,17 +16,23 @@
 
 package com.intellij.rt.coverage.instrumentation;
 
+import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.intellij.rt.coverage.instrumentation.dataAccess.*;
 import com.intellij.rt.coverage.instrumentation.filters.FilterUtils;
 import com.intellij.rt.coverage.instrumentation.filters.classFilter.ClassFilter;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ChangedClassesFilter;
 import com.intellij.rt.coverage.instrumentation.filters.classes.ClassSignatureFilter;
+import com.intellij.rt.coverage.instrumentation.lazy.LazyInstrumentation;
+import com.intellij.rt.coverage.instrumentation.lazy.LazyInstrumenter;
 import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingMode;
 import com.intellij.rt.coverage.util.ClassNameUtil;
 import com.intellij.rt.coverage.util.OptionsUtil;
+import com.intellij.rt.coverage.util.StringsPool;
 import com.intellij.rt.coverage.util.classFinder.ClassFinder;
 import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
 import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
 import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
 
 import java.util.List;
@@ -41,24 +47,121 @@ public class CoverageTransformer extends AbstractIntellijClassfileTransformer {
   private final List<Pattern> includePatterns;
   private final ClassFinder cf;
   private final TestTrackingMode testTrackingMode;
+  private final LazyInstrumentation lazyInstrumentation;
+  private final TransformedClassCache classCache = new TransformedClassCache();
+  private ChangedClassesFilter changedClassesFilter;
+  private OverheadGuard overheadGuard;
 
   public CoverageTransformer(ProjectData data, boolean shouldSaveSource, List<Pattern> excludePatterns, List<Pattern> includePatterns) {
     this(data, shouldSaveSource, excludePatterns, includePatterns, null, null);
   }
 
   public CoverageTransformer(ProjectData data, boolean shouldSaveSource, List<Pattern> excludePatterns, List<Pattern> includePatterns, ClassFinder cf, TestTrackingMode testTrackingMode) {
+    this(data, shouldSaveSource, excludePatterns, includePatterns, cf, testTrackingMode, null);
+  }
+
+  public CoverageTransformer(ProjectData data, boolean shouldSaveSource, List<Pattern> excludePatterns, List<Pattern> includePatterns, ClassFinder cf, TestTrackingMode testTrackingMode, LazyInstrumentation lazyInstrumentation) {
     this.data = data;
     this.shouldSaveSource = shouldSaveSource;
     this.excludePatterns = excludePatterns;
     this.includePatterns = includePatterns;
     this.cf = cf;
     this.testTrackingMode = testTrackingMode;
+    this.lazyInstrumentation = lazyInstrumentation;
+  }
+
+  /**
+   * Instrument only the classes affected by a change, other classes are left intact.
+   */
+  public void setChangedClassesFilter(ChangedClassesFilter changedClassesFilter) {
+    this.changedClassesFilter = changedClassesFilter;
+  }
+
+  /**
+   * Instrument classes with line coverage instead of branch coverage when the overhead budget is exceeded.
+   */
+  public void setOverheadGuard(OverheadGuard overheadGuard) {
+    this.overheadGuard = overheadGuard;
+  }
+
+  @Override
+  public byte[] instrument(byte[] classfileBuffer, String className, ClassLoader loader, boolean computeFrames) {
+    if (overheadGuard == null) return instrumentInner(classfileBuffer, className, loader, computeFrames);
+    final long start = System.nanoTime();
+    final byte[] result = instrumentInner(classfileBuffer, className, loader, computeFrames);
+    overheadGuard.classTransformed(className, System.nanoTime() - start, result == null ? 0 : countProbes(className));
+    return result;
+  }
+
+  /**
+   * Identical class bytes defined by several class loaders are instrumented only once,
+   * the following definitions reuse the cached result.
+   * In lazy mode classes are instrumented with method entry stubs until the first execution.
+   */
+  private byte[] instrumentInner(byte[] classfileBuffer, String className, ClassLoader loader, boolean computeFrames) {
+    if (lazyInstrumentation != null) {
+      final ClassReader cr = new ClassReader(classfileBuffer);
+      if (lazyInstrumentation.shouldStub(className, cr)) {
+        return instrumentStub(cr, classfileBuffer, className, loader);
+      }
+      final byte[] result = instrumentFully(classfileBuffer, className, loader, computeFrames);
+      lazyInstrumentation.onUpgraded(className);
+      return result;
+    }
+    return instrumentFully(classfileBuffer, className, loader, computeFrames);
+  }
+
+  private byte[] instrumentFully(byte[] classfileBuffer, String className, ClassLoader loader, boolean computeFrames) {
+    final TransformedClassCache.Entry entry = !isClassCacheEnabled() ? null
+        : computeFrames ? classCache.getEntry(className, classfileBuffer, loader)
+        : classCache.getEntry(className, classfileBuffer);
+    if (entry == null) {
+      return super.instrument(classfileBuffer, className, loader, computeFrames);
+    }
+    synchronized (entry) {
+      if (entry.isNotTransformed()) return null;
+      final byte[] cached = entry.getResult();
+      if (cached != null) return cached;
+      final byte[] result = super.instrument(classfileBuffer, className, loader, computeFrames);
+      entry.setResult(result);
+      return result == null ? null : result.clone();
+    }
+  }
+
+  /**
+   * Stub contains no new branches, so there is no need to compute frames.
+   */
+  private byte[] instrumentStub(ClassReader cr, byte[] classfileBuffer, String className, ClassLoader loader) {
+    if (isFilteredAsUnchanged(cr)) return null;
+    for (ClassSignatureFilter filter : ourFilters) {
+      if (filter.shouldFilter(cr)) return null;
+    }
+    final ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS);
+    final LazyInstrumenter stub = new LazyInstrumenter(cw, className, createDataAccess(className, cr, data.isBranchCoverage()));
+    cr.accept(stub, 0);
+    lazyInstrumentation.registerStub(className, loader, classfileBuffer, stub.getMethods());
+    return cw.toByteArray();
+  }
+
+  protected boolean isClassCacheEnabled() {
+    return OptionsUtil.CLASS_CACHE_ENABLED;
   }
 
   @Override
   protected ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw) {
-    return createInstrumenter(data, className, cr, cw, testTrackingMode, data.isBranchCoverage(),
+    if (isFilteredAsUnchanged(cr)) return null;
+    final boolean degrade = data.isBranchCoverage() && overheadGuard != null && overheadGuard.isExceeded();
+    // data access is chosen for the original mode, as the class may have been already loaded with lazy instrumentation stub
+    final ClassVisitor visitor = createInstrumenter(data, className, cr, cw, testTrackingMode, data.isBranchCoverage() && !degrade,
         shouldSaveSource, createDataAccess(className, cr, data.isBranchCoverage()));
+    if (degrade && visitor != null) {
+      data.getOrCreateClassData(StringsPool.getFromPool(className)).setDegraded(true);
+    }
+    return visitor;
+  }
+
+  private boolean isFilteredAsUnchanged(ClassReader cr) {
+    return changedClassesFilter != null && changedClassesFilter.shouldFilter(cr);
   }
 
   /**
@@ -140,4 +243,12 @@ public class CoverageTransformer extends AbstractIntellijClassfileTransformer {
   protected boolean isStopped() {
     return data.isStopped();
   }
+
+  @Override
+  protected int countProbes(String className) {
+    final ClassData classData = data.getClassData(className);
+    if (classData == null) return 0;
+    final int[] hits = classData.getHitsMask();
+    return hits == null ? 0 : hits.length;
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.FinalizationExecutor;
+import com.intellij.rt.coverage.util.StringsPool;
+import com.intellij.rt.coverage.util.classFinder.ClassEntry;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes instruction counters of the classes that have been instrumented without them.
+ * <p>
+ * Instructions counting at runtime requires an additional pass over each method and keeps the counters
+ * of every loaded class until the JVM exit. When it is deferred, the classes are instrumented as in the branch coverage mode,
+ * and the counters are computed from the class files during the report finalization.
+ * The analysis produces the same lines and branches structure as the instrumentation, so the counters match the collected data.
+ */
+public class DeferredInstructions {
+
+  /**
+   * Compute instructions of the classes with lines but without instructions.
+   * Classes that are not found by the class finder (e.g. generated at runtime) are left without instructions.
+   *
+   * @param executor executes the analysis of classes in parallel, may be null
+   */
+  public static void appendInstructions(final ProjectData projectData, ClassFinder classFinder, FinalizationExecutor executor) {
+    final Map<String, ClassInstructions> instructions = projectData.getInstructions();
+    final FinalizationExecutor tasks = executor != null ? executor : new FinalizationExecutor(1, 0);
+    final Set<String> submitted = new HashSet<String>();
+    // each worker analyses classes one by one, so it reuses a single storage for the analysis results
+    final ThreadLocal<ScratchProjectData> scratches = new ThreadLocal<ScratchProjectData>() {
+      @Override
+      protected ScratchProjectData initialValue() {
+        return new ScratchProjectData(projectData, true);
+      }
+    };
+    classFinder.iterateMatchedClasses(new ClassEntry.Consumer() {
+      public void consume(ClassEntry classEntry) {
+        final String className = classEntry.getClassName();
+        if (!requiresInstructions(projectData, className) || !submitted.add(className)) return;
+        final ClassReader reader;
+        try {
+          final InputStream is = classEntry.getClassInputStream();
+          if (is == null) return;
+          reader = new ClassReader(is);
+        } catch (Throwable e) {
+          ErrorReporter.reportError("Failed to read class " + className + ", error: " + e.getMessage(), e);
+          return;
+        }
+        tasks.submit(new Runnable() {
+          public void run() {
+            final ScratchProjectData scratch = scratches.get();
+            try {
+              UnloadedUtil.appendUnloadedClass(scratch, className, reader, true, false, false);
+              final ClassInstructions classInstructions = scratch.getInstructions().get(className);
+              if (classInstructions != null) {
+                instructions.put(StringsPool.getFromPool(className), classInstructions);
+              }
+            } catch (Throwable e) {
+              ErrorReporter.reportError("Failed to compute instructions of class " + className + ", error: " + e.getMessage(), e);
+            } finally {
+              scratch.clear();
+            }
+          }
+        });
+      }
+    });
+    tasks.awaitCompletion("instructions computation");
+
+    int missing = 0;
+    for (ClassData classData : projectData.getClassesCollection()) {
+      if (requiresInstructions(projectData, classData.getName())) missing++;
+    }
+    if (missing > 0) {
+      ErrorReporter.logInfo("Class files of " + missing + " classes are not found, their instructions are not computed.");
+    }
+  }
+
+  private static boolean requiresInstructions(ProjectData projectData, String className) {
+    final ClassData classData = projectData.getClassData(StringsPool.getFromPool(className));
+    return classData != null && classData.getLines() != null && !classData.isDegraded()
+        && !projectData.getInstructions().containsKey(classData.getName());
+  }
+}
@@ -17,8 +17,12 @@
 package com.intellij.rt.coverage.instrumentation;
 
 import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ChangedClassesFilter;
+import com.intellij.rt.coverage.instrumentation.lazy.LazyInstrumentation;
 import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingArrayMode;
 import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingClassDataMode;
+import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingClassMode;
+import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingHitsDiffMode;
 import com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingMode;
 import com.intellij.rt.coverage.util.CoverageReport;
 import com.intellij.rt.coverage.util.ErrorReporter;
@@ -126,14 +130,31 @@ public class Instrumentator {
 
     final CoverageReport report = new CoverageReport(dataFile, calcUnloaded, cf, mergeData);
     report.setSourceMapFile(sourceMapFile);
+    if (OptionsUtil.CLASSPATH_USAGE_FILE != null) {
+      report.setClassPathUsageFile(new File(OptionsUtil.CLASSPATH_USAGE_FILE));
+    }
+    final ChangedClassesFilter changedClassesFilter = createChangedClassesFilter();
+    report.setChangedClassesFilter(changedClassesFilter);
+    report.setDeferredInstructions(OptionsUtil.INSTRUCTIONS_COVERAGE_ENABLED && OptionsUtil.INSTRUCTIONS_DEFERRED);
+    if (calcUnloaded && OptionsUtil.SPECULATIVE_UNLOADED_ENABLED) {
+      final SpeculativeUnloadedAnalysis speculativeAnalysis = new SpeculativeUnloadedAnalysis(
+          data, cf, sourceMapFile != null, changedClassesFilter, OptionsUtil.SPECULATIVE_UNLOADED_DELAY_MS);
+      report.setSpeculativeAnalysis(speculativeAnalysis);
+      speculativeAnalysis.start();
+    }
     Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
       public void run() {
         report.save(data);
       }
     }));
 
+    final LazyInstrumentation lazyInstrumentation = createLazyInstrumentation(instrumentation, data, testTracking);
+    data.setLazyInstrumentationCallback(lazyInstrumentation);
+
     final boolean shouldSaveSource = sourceMapFile != null;
-    final CoverageTransformer transformer = new CoverageTransformer(data, shouldSaveSource, excludePatterns, includePatterns, cf, testTrackingMode);
+    final CoverageTransformer transformer = new CoverageTransformer(data, shouldSaveSource, excludePatterns, includePatterns, cf, testTrackingMode, lazyInstrumentation);
+    transformer.setChangedClassesFilter(changedClassesFilter);
+    transformer.setOverheadGuard(createOverheadGuard(branchCoverage, testTracking));
     addTransformer(instrumentation, transformer);
   }
 
@@ -177,14 +198,65 @@ public class Instrumentator {
     }
   }
 
+  /**
+   * Array mode stores traces in a class field shared by all the tests, so it cannot separate tests running in parallel.
+   */
   private TestTrackingMode createTestTrackingMode(boolean traceLines) {
     if (!traceLines) return null;
-    if (OptionsUtil.NEW_BRANCH_COVERAGE_ENABLED && OptionsUtil.NEW_TEST_TRACKING_ENABLED) {
+    if (OptionsUtil.CLASS_TEST_TRACKING) {
+      return new TestTrackingClassMode();
+    }
+    if (OptionsUtil.HITS_DIFF_TEST_TRACKING) {
+      return new TestTrackingHitsDiffMode();
+    }
+    if (!OptionsUtil.PARALLEL_TEST_TRACKING && OptionsUtil.NEW_BRANCH_COVERAGE_ENABLED && OptionsUtil.NEW_TEST_TRACKING_ENABLED) {
       return new TestTrackingArrayMode();
     }
     return new TestTrackingClassDataMode();
   }
 
+  /**
+   * Lazy instrumentation is not compatible with test tracking, as the first test execution is lost.
+   */
+  private LazyInstrumentation createLazyInstrumentation(Instrumentation instrumentation, ProjectData data, boolean testTracking) {
+    if (!OptionsUtil.LAZY_INSTRUMENTATION_ENABLED || testTracking) return null;
+    final LazyInstrumentation lazyInstrumentation = LazyInstrumentation.create(instrumentation, data);
+    if (lazyInstrumentation == null) {
+      ErrorReporter.logInfo("Lazy instrumentation is not supported in this VM, full instrumentation is used.");
+    } else {
+      ErrorReporter.logInfo("Lazy instrumentation is enabled.");
+    }
+    return lazyInstrumentation;
+  }
+
+  /**
+   * Line coverage instrumentation does not support test tracking, so the budget is not applied in this case.
+   */
+  private OverheadGuard createOverheadGuard(boolean branchCoverage, boolean testTracking) {
+    if (!branchCoverage) return null;
+    final OverheadGuard guard = OverheadGuard.create();
+    if (guard != null && testTracking) {
+      ErrorReporter.logInfo("Coverage overhead budget is ignored as test tracking is enabled.");
+      return null;
+    }
+    return guard;
+  }
+
+  /**
+   * In case of an error the filter is not applied, so that all the classes are instrumented.
+   */
+  private ChangedClassesFilter createChangedClassesFilter() {
+    if (OptionsUtil.CHANGED_CLASSES_FILE == null) return null;
+    try {
+      final ChangedClassesFilter filter = ChangedClassesFilter.load(new File(OptionsUtil.CHANGED_CLASSES_FILE));
+      ErrorReporter.logInfo("Coverage is limited to " + filter.size() + " changed classes and source files.");
+      return filter;
+    } catch (IOException e) {
+      ErrorReporter.reportError("Failed to read changed classes from " + OptionsUtil.CHANGED_CLASSES_FILE + ", all the classes are instrumented", e);
+      return null;
+    }
+  }
+
   private String[] readArgsFromFile(String arg) throws IOException {
     final List<String> result = new ArrayList<String>();
     final File file = new File(arg);
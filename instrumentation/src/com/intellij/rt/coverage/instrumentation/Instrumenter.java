@@ -189,6 +189,29 @@ public abstract class Instrumenter extends MethodFilteringVisitor {
     }
   }
 
+  /**
+   * Insert a call of {@link ProjectData#methodFirstHit} guarded by a dedicated slot in the hits array,
+   * so that only the first execution of the method leaves the fast path.
+   *
+   * @param hitsLocal local variable index of the hits array
+   * @param slotId    index of the slot in the hits array, which is not used by any line or branch
+   */
+  protected void insertFirstHitProbe(MethodVisitor mv, int hitsLocal, int slotId, String name, String desc) {
+    final Label skip = new Label();
+    mv.visitVarInsn(Opcodes.ALOAD, hitsLocal);
+    InstrumentationUtils.pushInt(mv, slotId);
+    mv.visitInsn(Opcodes.IALOAD);
+    mv.visitJumpInsn(Opcodes.IFNE, skip);
+    mv.visitVarInsn(Opcodes.ALOAD, hitsLocal);
+    InstrumentationUtils.pushInt(mv, slotId);
+    mv.visitInsn(Opcodes.ICONST_1);
+    mv.visitInsn(Opcodes.IASTORE);
+    mv.visitLdcInsn(getClassName());
+    mv.visitLdcInsn(name + desc);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, ProjectData.PROJECT_DATA_OWNER, "methodFirstHit", "(Ljava/lang/String;Ljava/lang/String;)V", false);
+    mv.visitLabel(skip);
+  }
+
   public ProjectData getProjectData() {
     return myProjectData;
   }
@@ -62,6 +62,9 @@ public class LineInstrumenter extends Instrumenter {
 
       public void visitCode() {
         myDataAccess.onMethodStart(mv, getLVIndex());
+        if (myProjectData.isFirstHitsEnabled()) {
+          insertFirstHitProbe(mv, getLVIndex(), myLastId++, name, desc);
+        }
         super.visitCode();
       }
     };
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation;
+
+import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.OptionsUtil;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the agent overhead against the configured budgets: total class transformation time and total number of probes.
+ * When a budget is exceeded, the following classes are instrumented in a cheaper mode,
+ * see {@link CoverageTransformer#createClassVisitor}.
+ */
+public class OverheadGuard {
+  private final long myTimeBudgetNs;
+  private final long myProbesBudget;
+  private final AtomicLong myTimeNs = new AtomicLong();
+  private final AtomicLong myProbes = new AtomicLong();
+  private final AtomicBoolean myExceeded = new AtomicBoolean();
+
+  /**
+   * @param timeBudgetMs total class transformation time budget in milliseconds, non-positive value means no limit
+   * @param probesBudget total number of coverage probes, non-positive value means no limit
+   */
+  public OverheadGuard(long timeBudgetMs, long probesBudget) {
+    myTimeBudgetNs = timeBudgetMs * 1000000;
+    myProbesBudget = probesBudget;
+  }
+
+  /**
+   * @return overhead guard configured with system properties, or null if no budget is set
+   */
+  public static OverheadGuard create() {
+    if (OptionsUtil.TRANSFORMATION_TIME_BUDGET_MS <= 0 && OptionsUtil.PROBES_BUDGET <= 0) return null;
+    return new OverheadGuard(OptionsUtil.TRANSFORMATION_TIME_BUDGET_MS, OptionsUtil.PROBES_BUDGET);
+  }
+
+  public boolean isExceeded() {
+    return myExceeded.get();
+  }
+
+  public void classTransformed(String className, long timeNs, int probes) {
+    final long time = myTimeNs.addAndGet(timeNs);
+    final long totalProbes = myProbes.addAndGet(probes);
+    if (myExceeded.get()) return;
+    final boolean timeExceeded = myTimeBudgetNs > 0 && time > myTimeBudgetNs;
+    final boolean probesExceeded = myProbesBudget > 0 && totalProbes > myProbesBudget;
+    if ((timeExceeded || probesExceeded) && myExceeded.compareAndSet(false, true)) {
+      ErrorReporter.logInfo("Coverage overhead budget is exceeded after " + className + " transformation ("
+          + (timeExceeded ? "transformation time " + time / 1000000 + "ms" : "probes count " + totalProbes)
+          + "), the following classes are instrumented with line coverage.");
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.FileMapData;
+import com.intellij.rt.coverage.data.ProjectData;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Storage of class analysis results that are kept apart from the collected coverage.
+ * The configuration and the data shared across classes are taken from the project data.
+ * Analysed classes are kept in a plain map, so that the storage can be cleared and reused for other classes.
+ */
+class ScratchProjectData extends ProjectData {
+  private final ProjectData myProjectData;
+  private final ConcurrentMap<String, ClassData> myClasses = new ConcurrentHashMap<String, ClassData>();
+
+  ScratchProjectData(ProjectData projectData, boolean collectInstructions) {
+    myProjectData = projectData;
+    setInstructionsCoverage(collectInstructions);
+  }
+
+  /**
+   * Drop the results of the analysed classes.
+   */
+  void clear() {
+    myClasses.clear();
+    getInstructions().clear();
+  }
+
+  @Override
+  public ClassData getClassData(String name) {
+    return myClasses.get(name);
+  }
+
+  @Override
+  public ClassData getOrCreateClassData(String name) {
+    final ClassData classData = myClasses.get(name);
+    if (classData != null) return classData;
+    final ClassData newClassData = new ClassData(name);
+    final ClassData existing = myClasses.putIfAbsent(name, newClassData);
+    return existing == null ? newClassData : existing;
+  }
+
+  @Override
+  public boolean isBranchCoverage() {
+    return myProjectData.isBranchCoverage();
+  }
+
+  @Override
+  public List<Pattern> getAnnotationsToIgnore() {
+    return myProjectData.getAnnotationsToIgnore();
+  }
+
+  @Override
+  public boolean isMethodIgnored(String owner, String methodName, String desc) {
+    return myProjectData.isMethodIgnored(owner, methodName, desc);
+  }
+
+  @Override
+  public void addIgnoredMethod(String owner, String methodName, String desc) {
+    myProjectData.addIgnoredMethod(owner, methodName, desc);
+  }
+
+  @Override
+  public void addLineMaps(String className, FileMapData[] fileDatas) {
+    myProjectData.addLineMaps(className, fileDatas);
+  }
+}
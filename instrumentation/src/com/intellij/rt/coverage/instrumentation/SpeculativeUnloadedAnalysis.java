@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ClassSignatureFilter;
+import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.StringsPool;
+import com.intellij.rt.coverage.util.classFinder.ClassEntry;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Analyses classes that are not loaded yet in a low priority background thread while the application is running,
+ * so that only the remaining classes are analysed by {@link UnloadedUtil#appendUnloaded} at shutdown.
+ * <p>
+ * The results are kept apart from the collected coverage. At shutdown, the results of the classes
+ * that have been loaded in the meantime are discarded, and the others are transferred to the project data.
+ * Line mappings and ignored methods are shared with the project data during the analysis,
+ * as they depend only on the class file and are used by filters across classes.
+ */
+public class SpeculativeUnloadedAnalysis implements Runnable {
+  private static final long STOP_TIMEOUT_MS = 1000;
+
+  private final ProjectData myProjectData;
+  private final ProjectData myResults;
+  private final ClassFinder myClassFinder;
+  private final boolean myCalculateSource;
+  private final ClassSignatureFilter myFilter;
+  private final long myDelayMs;
+
+  /**
+   * Classes which analysis has been completed.
+   */
+  private final Map<String, Boolean> myAnalysed = new ConcurrentHashMap<String, Boolean>();
+  private final Object myLock = new Object();
+  private volatile boolean myStopped;
+  private Thread myThread;
+
+  /**
+   * @param filter  classes that match this filter are skipped, may be null
+   * @param delayMs delay before the analysis start, so that it does not compete with the application startup
+   */
+  public SpeculativeUnloadedAnalysis(ProjectData projectData, ClassFinder classFinder, boolean calculateSource,
+                                     ClassSignatureFilter filter, long delayMs) {
+    myProjectData = projectData;
+    myResults = new ScratchProjectData(projectData, projectData.isInstructionsCoverageEnabled());
+    myClassFinder = classFinder;
+    myCalculateSource = calculateSource;
+    myFilter = filter;
+    myDelayMs = delayMs;
+  }
+
+  public void start() {
+    final Thread thread = new Thread(this, "Coverage unloaded classes analysis");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    myThread = thread;
+    thread.start();
+  }
+
+  /**
+   * Stop the analysis and wait for the class being analysed. Must be called before {@link #transfer}.
+   */
+  public void stop() {
+    myStopped = true;
+    synchronized (myLock) {
+      myLock.notifyAll();
+    }
+    final Thread thread = myThread;
+    if (thread == null) return;
+    try {
+      thread.join(STOP_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    try {
+      synchronized (myLock) {
+        if (!myStopped && myDelayMs > 0) {
+          myLock.wait(myDelayMs);
+        }
+      }
+      myClassFinder.iterateMatchedClasses(new ClassEntry.Consumer() {
+        public void consume(ClassEntry classEntry) {
+          if (myStopped) throw new StopException();
+          analyse(classEntry);
+        }
+      });
+    } catch (StopException ignored) {
+    } catch (InterruptedException ignored) {
+    } catch (Throwable e) {
+      ErrorReporter.reportError("Error during background analysis of unloaded classes", e);
+    }
+  }
+
+  private void analyse(ClassEntry classEntry) {
+    final String className = classEntry.getClassName();
+    if (myAnalysed.containsKey(className)) return;
+    final ClassData loaded = myProjectData.getClassData(StringsPool.getFromPool(className));
+    if (loaded != null && loaded.getLines() != null && loaded.isFullyAnalysed()) return;
+    try {
+      final InputStream is = classEntry.getClassInputStream();
+      if (is == null) return;
+      final ClassReader reader = new ClassReader(is);
+      if (myFilter == null || !myFilter.shouldFilter(reader)) {
+        UnloadedUtil.appendUnloadedClass(myResults, className, reader, myProjectData.isBranchCoverage(), myCalculateSource, false);
+      }
+      myAnalysed.put(className, Boolean.TRUE);
+    } catch (Throwable e) {
+      // the class is analysed again at shutdown
+      ErrorReporter.reportError("Failed to process unloaded class: " + className + ", error: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Add the background analysis results of an unloaded class to the project data.
+   *
+   * @return false if the class should be analysed again: it has not been analysed,
+   * or the project data already contains partial data of this class
+   */
+  public boolean transfer(ProjectData projectData, String className) {
+    if (!myAnalysed.containsKey(className)) return false;
+    final ClassData result = myResults.getClassData(className);
+    if (result == null) return true;
+    final String name = StringsPool.getFromPool(className);
+    if (projectData.getClassData(name) != null) return false;
+    projectData.getOrCreateClassData(name).merge(result);
+    if (projectData.isInstructionsCoverageEnabled()) {
+      final ClassInstructions instructions = myResults.getInstructions().get(className);
+      if (instructions != null) {
+        projectData.getInstructions().put(className, instructions);
+      }
+    }
+    return true;
+  }
+
+  private static class StopException extends RuntimeException {
+  }
+}
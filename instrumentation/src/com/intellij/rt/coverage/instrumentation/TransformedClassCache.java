@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of instrumented class bytes.
+ * <p>
+ * The same class could be defined by many class loaders (e.g. tests isolation or plugin systems).
+ * All these definitions share the same <code>ClassData</code> and hits array, as they are stored by class name,
+ * so it is enough to instrument each distinct class version only once.
+ * Class version is identified by a digest of the original class bytes.
+ * When frames are computed, the result depends on the class hierarchy seen by the defining class loader,
+ * so such entries are shared only between definitions by the same class loader.
+ * Instrumented bytes are softly referenced, so they may be evicted under memory pressure and then are computed again.
+ */
+public class TransformedClassCache {
+  private final ConcurrentMap<String, Entry> myEntries = new ConcurrentHashMap<String, Entry>();
+  private final ThreadLocal<MessageDigest> myDigest = new ThreadLocal<MessageDigest>();
+
+  /**
+   * Get cache entry for the class version. Entries of the same class version are shared,
+   * while a new version of the class replaces the previous one.
+   *
+   * @return cache entry or null if the digest of class bytes cannot be calculated
+   */
+  public Entry getEntry(String className, byte[] classfileBuffer) {
+    return getEntry(className, classfileBuffer, false, null);
+  }
+
+  /**
+   * Get cache entry for the class version, which transformation result depends on the defining class loader.
+   * A definition by another class loader replaces the entry.
+   *
+   * @return cache entry or null if the digest of class bytes cannot be calculated
+   */
+  public Entry getEntry(String className, byte[] classfileBuffer, ClassLoader loader) {
+    return getEntry(className, classfileBuffer, true, loader);
+  }
+
+  private Entry getEntry(String className, byte[] classfileBuffer, boolean loaderDependent, ClassLoader loader) {
+    final byte[] digest = calculateDigest(classfileBuffer);
+    if (digest == null) return null;
+    while (true) {
+      final Entry entry = myEntries.get(className);
+      if (entry != null && Arrays.equals(entry.myDigest, digest) && entry.matchesLoader(loaderDependent, loader)) return entry;
+      final Entry newEntry = new Entry(digest, loaderDependent, loader);
+      if (entry == null) {
+        if (myEntries.putIfAbsent(className, newEntry) == null) return newEntry;
+      } else if (myEntries.replace(className, entry, newEntry)) {
+        return newEntry;
+      }
+    }
+  }
+
+  public int size() {
+    return myEntries.size();
+  }
+
+  private byte[] calculateDigest(byte[] bytes) {
+    MessageDigest digest = myDigest.get();
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        return null;
+      }
+      myDigest.set(digest);
+    }
+    return digest.digest(bytes);
+  }
+
+  /**
+   * Transformation result of a class version.
+   * Access to the result must be guarded by the entry lock, so that concurrent definitions
+   * of the same class wait for a single instrumentation instead of racing on the class data.
+   */
+  public static class Entry {
+    private final byte[] myDigest;
+    private final boolean myLoaderDependent;
+    /**
+     * Defining class loader of a loader dependent entry, null for the bootstrap class loader.
+     * The loader is referenced weakly, so that the cache does not prevent its unloading.
+     */
+    private final WeakReference<ClassLoader> myLoader;
+    private boolean myComputed;
+    private SoftReference<byte[]> myResult;
+
+    private Entry(byte[] digest, boolean loaderDependent, ClassLoader loader) {
+      myDigest = digest;
+      myLoaderDependent = loaderDependent;
+      myLoader = loaderDependent && loader != null ? new WeakReference<ClassLoader>(loader) : null;
+    }
+
+    private boolean matchesLoader(boolean loaderDependent, ClassLoader loader) {
+      if (myLoaderDependent != loaderDependent) return false;
+      if (!loaderDependent) return true;
+      return myLoader == null ? loader == null : loader != null && myLoader.get() == loader;
+    }
+
+    /**
+     * @return true if the class version has been processed, its result may still be evicted, see {@link #getResult()}
+     */
+    public boolean isComputed() {
+      return myComputed;
+    }
+
+    /**
+     * @return true if the class version has been processed and not transformed
+     */
+    public boolean isNotTransformed() {
+      return myComputed && myResult == null;
+    }
+
+    /**
+     * @return instrumented class bytes or null if class was not transformed or the result has been evicted
+     */
+    public byte[] getResult() {
+      final byte[] result = myResult == null ? null : myResult.get();
+      return result == null ? null : result.clone();
+    }
+
+    public void setResult(byte[] result) {
+      myResult = result == null ? null : new SoftReference<byte[]>(result);
+      myComputed = true;
+    }
+  }
+}
@@ -22,7 +22,11 @@ import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.intellij.rt.coverage.data.instructions.InstructionsUtil;
 import com.intellij.rt.coverage.instrumentation.dataAccess.EmptyCoverageDataAccess;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ClassSignatureFilter;
+import com.intellij.rt.coverage.util.CoverageIOUtil;
 import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.FinalizationExecutor;
+import com.intellij.rt.coverage.util.JfrEvents;
 import com.intellij.rt.coverage.util.StringsPool;
 import com.intellij.rt.coverage.util.classFinder.ClassEntry;
 import com.intellij.rt.coverage.util.classFinder.ClassFinder;
@@ -32,7 +36,11 @@ import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
 
 import java.io.InputStream;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Some classes may be untouched during application execution, so these classes
@@ -51,19 +59,78 @@ public class UnloadedUtil {
 
   public static void appendUnloaded(final ProjectData projectData, final ClassFinder classFinder,
                                     final boolean calculateSource, final boolean branchCoverage) {
+    appendUnloaded(projectData, classFinder, calculateSource, branchCoverage, null);
+  }
+
+  /**
+   * @param filter classes that match this filter are skipped, may be null
+   */
+  public static void appendUnloaded(final ProjectData projectData, final ClassFinder classFinder,
+                                    final boolean calculateSource, final boolean branchCoverage,
+                                    final ClassSignatureFilter filter) {
+    appendUnloaded(projectData, classFinder, calculateSource, branchCoverage, filter, null, null, null);
+  }
+
+  /**
+   * @param filter      classes that match this filter are skipped, may be null
+   * @param listener    receives all the matched classes during the same class path walk, may be null
+   * @param executor    executes the analysis of classes in parallel and limits its time, may be null
+   * @param speculative results of the analysis done in background while the application was running, may be null
+   */
+  public static void appendUnloaded(final ProjectData projectData, final ClassFinder classFinder,
+                                    final boolean calculateSource, final boolean branchCoverage,
+                                    final ClassSignatureFilter filter, final ClassEntry.Consumer listener,
+                                    FinalizationExecutor executor, final SpeculativeUnloadedAnalysis speculative) {
+    final Object event = JfrEvents.UNLOADED_CLASSES_ANALYSIS.begin();
+    final AtomicInteger classes = new AtomicInteger();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong probes = new AtomicLong();
+    final FinalizationExecutor tasks = executor != null ? executor : new FinalizationExecutor(1, 0);
+    // the same class may be found in several class path entries, only the first one is analysed
+    final Set<String> submitted = new HashSet<String>();
     classFinder.iterateMatchedClasses(new ClassEntry.Consumer() {
       public void consume(ClassEntry classEntry) {
-        final ClassData cd = projectData.getClassData(StringsPool.getFromPool(classEntry.getClassName()));
+        if (listener != null) listener.consume(classEntry);
+        if (tasks.isBudgetExceeded()) return;
+        final String className = classEntry.getClassName();
+        final ClassData cd = projectData.getClassData(StringsPool.getFromPool(className));
         if (cd != null && cd.getLines() != null && cd.isFullyAnalysed()) return;
+        if (!submitted.add(className)) return;
+        if (speculative != null && speculative.transfer(projectData, className)) return;
+        final ClassReader reader;
+        final int length;
         try {
+          // the stream is valid during the class path walk only, so the class is read here and analysed in parallel
           final InputStream is = classEntry.getClassInputStream();
           if (is == null) return;
-          appendUnloadedClass(projectData, classEntry.getClassName(), new ClassReader(is), branchCoverage, calculateSource, false);
+          final byte[] classBytes = CoverageIOUtil.readBytes(is);
+          reader = new ClassReader(classBytes);
+          length = classBytes.length;
         } catch (Throwable e) {
-          ErrorReporter.reportError("Failed to process unloaded class: " + classEntry.getClassName() + ", error: " + e.getMessage(), e);
+          ErrorReporter.reportError("Failed to process unloaded class: " + className + ", error: " + e.getMessage(), e);
+          return;
         }
+        tasks.submit(new Runnable() {
+          public void run() {
+            try {
+              if (filter != null && filter.shouldFilter(reader)) return;
+              appendUnloadedClass(projectData, className, reader, branchCoverage, calculateSource, false);
+              if (event != null) {
+                classes.incrementAndGet();
+                bytes.addAndGet(length);
+                final ClassData classData = projectData.getClassData(className);
+                final int[] hits = classData == null ? null : classData.getHitsMask();
+                if (hits != null) probes.addAndGet(hits.length);
+              }
+            } catch (Throwable e) {
+              ErrorReporter.reportError("Failed to process unloaded class: " + className + ", error: " + e.getMessage(), e);
+            }
+          }
+        });
       }
     });
+    tasks.awaitCompletion("unloaded classes analysis");
+    JfrEvents.UNLOADED_CLASSES_ANALYSIS.commit(event, classes.get(), bytes.get(), probes.get());
   }
 
   @SuppressWarnings("unused") // used in IntelliJ
@@ -71,7 +138,7 @@ public class UnloadedUtil {
     appendUnloadedClass(projectData, className, reader, branchCoverage, calculateSource, true);
   }
 
-  private static void appendUnloadedClass(ProjectData projectData, String className, ClassReader reader, boolean branchCoverage, boolean calculateSource, boolean checkLineMappings) {
+  static void appendUnloadedClass(ProjectData projectData, String className, ClassReader reader, boolean branchCoverage, boolean calculateSource, boolean checkLineMappings) {
     final ClassVisitor visitor = CoverageTransformer.createInstrumenter(
         projectData, className, reader, EMPTY_CLASS_VISITOR,
         null, branchCoverage, calculateSource, EmptyCoverageDataAccess.INSTANCE);
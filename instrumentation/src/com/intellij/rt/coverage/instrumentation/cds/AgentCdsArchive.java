@@ -0,0 +1,377 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.cds;
+
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Creates an AppCDS archive of the coverage agent classes for the JVM running this tool.
+ * <p>
+ * Usage: <code>java -cp intellij-coverage-agent.jar com.intellij.rt.coverage.instrumentation.cds.AgentCdsArchive agent.jar [archive.jsa]</code>
+ * <p>
+ * JVM archives only class files of Java 6 or newer, while the release agent classes and the shaded libraries
+ * are compiled for Java 5. So a copy of the agent jar is created first (<code>archive-cds.jar</code> next to the archive),
+ * where Java 5 class files are upgraded to Java 6 with computed stack map frames. The copy is used by JVMs that support CDS only,
+ * so it does not need to run on Java 5. Classes that cannot be upgraded are kept as is and are not archived.
+ * <p>
+ * Then the archive is created in two steps: a training JVM runs the agent copy to collect the list of loaded classes,
+ * and a static archive is dumped from this list. As the agent jar is appended to the boot class path at startup
+ * (see <code>Boot-Class-Path</code> manifest attribute), the archive is used with the regular agent command line:
+ * <code>-XX:SharedArchiveFile=archive.jsa -javaagent:archive-cds.jar=...</code>.
+ * The agent jar path must be the same as during the archive creation, and the archive is valid for the same JDK build only,
+ * so it should be created on the machine that runs the tests. When the archive cannot be used, JVM silently falls back
+ * to the regular class loading.
+ */
+public class AgentCdsArchive {
+  private static final String ARCHIVE_EXTENSION = ".jsa";
+  private static final String CDS_JAR_SUFFIX = "-cds.jar";
+  private static final String JAVA_LANG_OBJECT = "java/lang/Object";
+  /**
+   * Class file major version of Java 6.
+   */
+  private static final int MIN_CLASS_VERSION = 50;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: AgentCdsArchive <agent jar> [<archive file>]");
+      System.exit(1);
+    }
+    if (getJavaVersion() < 11) {
+      System.err.println("CDS archive of agent classes requires Java 11 or newer, current version is " + System.getProperty("java.specification.version"));
+      System.exit(1);
+    }
+    final File agentJar = new File(args[0]).getAbsoluteFile();
+    final File archive = args.length > 1 ? new File(args[1]).getAbsoluteFile() : getDefaultArchive(agentJar);
+    final int classes = createArchive(agentJar, archive);
+    System.out.println("CDS archive of " + classes + " agent classes is created: " + archive.getPath());
+    System.out.println("Use it with JVM options: -XX:SharedArchiveFile=" + archive.getPath() + " -javaagent:" + getCdsJar(archive).getPath() + "=...");
+  }
+
+  public static File getDefaultArchive(File agentJar) {
+    final String name = agentJar.getName();
+    final String baseName = name.endsWith(".jar") ? name.substring(0, name.length() - ".jar".length()) : name;
+    return new File(agentJar.getParentFile(), baseName + ARCHIVE_EXTENSION);
+  }
+
+  /**
+   * @return the agent jar copy that should be used together with the archive
+   */
+  public static File getCdsJar(File archive) {
+    final String name = archive.getName();
+    final String baseName = name.endsWith(ARCHIVE_EXTENSION) ? name.substring(0, name.length() - ARCHIVE_EXTENSION.length()) : name;
+    return new File(archive.getParentFile(), baseName + CDS_JAR_SUFFIX);
+  }
+
+  /**
+   * @return number of agent classes in the archive
+   */
+  public static int createArchive(File agentJar, File archive) throws IOException, InterruptedException {
+    final File cdsJar = getCdsJar(archive);
+    final File classList = new File(archive.getPath() + ".classlist");
+    try {
+      createCdsJar(agentJar, cdsJar);
+      final int classes = createClassList(cdsJar, classList);
+      if (classes == 0) {
+        throw new IOException("No agent classes could be archived from " + agentJar.getPath());
+      }
+      archive.delete();
+      run(Arrays.asList(getJavaExecutable(),
+          "-Xshare:dump",
+          "-XX:SharedClassListFile=" + classList.getPath(),
+          "-XX:SharedArchiveFile=" + archive.getPath(),
+          "-Xbootclasspath/a:" + cdsJar.getPath()));
+      if (!archive.isFile()) {
+        throw new IOException("CDS archive has not been created: " + archive.getPath());
+      }
+      return classes;
+    } finally {
+      classList.delete();
+    }
+  }
+
+  /**
+   * Copy the agent jar upgrading Java 5 class files to Java 6, so that they could be archived.
+   * <code>Boot-Class-Path</code> manifest attribute is updated to point to the copy.
+   *
+   * @return number of upgraded classes
+   */
+  public static int createCdsJar(File agentJar, File cdsJar) throws IOException {
+    final Map<String, ClassInfo> agentClasses = readAgentClasses(agentJar);
+    int upgraded = 0;
+    final JarFile jar = new JarFile(agentJar);
+    try {
+      final Manifest manifest = new Manifest(jar.getManifest());
+      manifest.getMainAttributes().put(new Attributes.Name("Boot-Class-Path"), cdsJar.getName());
+      final JarOutputStream out = new JarOutputStream(new FileOutputStream(cdsJar), manifest);
+      try {
+        for (JarEntry entry : Collections.list(jar.entries())) {
+          final String name = entry.getName();
+          if (JarFile.MANIFEST_NAME.equalsIgnoreCase(name)) continue;
+          final InputStream is = jar.getInputStream(entry);
+          byte[] bytes;
+          try {
+            bytes = CoverageIOUtil.readBytes(is);
+          } finally {
+            is.close();
+          }
+          if (name.endsWith(".class")) {
+            final byte[] upgradedBytes = upgradeClass(bytes, agentClasses);
+            if (upgradedBytes != null) {
+              bytes = upgradedBytes;
+              upgraded++;
+            }
+          }
+          out.putNextEntry(new JarEntry(name));
+          out.write(bytes);
+          out.closeEntry();
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      jar.close();
+    }
+    return upgraded;
+  }
+
+  /**
+   * Collect the list of classes loaded by the agent during a training run.
+   *
+   * @return number of agent classes in the list
+   */
+  public static int createClassList(File agentJar, File classList) throws IOException, InterruptedException {
+    final File trainingReport = File.createTempFile("cds-training", ".ic");
+    try {
+      run(Arrays.asList(getJavaExecutable(),
+          "-Xshare:off",
+          "-XX:DumpLoadedClassList=" + classList.getPath(),
+          "-javaagent:" + agentJar.getPath() + "=" + trainingReport.getPath() + " false false false false " + AgentCdsTraining.PATTERN,
+          "-cp", agentJar.getPath(),
+          AgentCdsTraining.class.getName()));
+      return filterClassList(classList, agentJar);
+    } finally {
+      trainingReport.delete();
+    }
+  }
+
+  /**
+   * @return class bytes of Java 6 version with stack map frames, or null if the class is already Java 6 or newer,
+   * or it cannot be upgraded, e.g. a type used in its code cannot be resolved
+   */
+  private static byte[] upgradeClass(byte[] bytes, Map<String, ClassInfo> agentClasses) {
+    final ClassReader reader = new ClassReader(bytes);
+    if (reader.readUnsignedShort(6) >= MIN_CLASS_VERSION) return null;
+    try {
+      final ClassWriter writer = new CdsClassWriter(agentClasses);
+      reader.accept(new ClassVisitor(Opcodes.API_VERSION, writer) {
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+          super.visit(Opcodes.V1_6, access, name, signature, superName, interfaces);
+        }
+      }, 0);
+      return writer.toByteArray();
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Remove agent classes that cannot be archived.
+   * Class files older than Java 6 are not verified with the split verifier, and JVM does not share them,
+   * while sharing their subclasses leads to inconsistent virtual tables in some JDK builds,
+   * so such classes and all their subclasses are loaded from the jar.
+   *
+   * @return number of agent classes left in the list
+   */
+  private static int filterClassList(File classList, File agentJar) throws IOException {
+    final Map<String, ClassInfo> agentClasses = readAgentClasses(agentJar);
+    final List<String> lines = new ArrayList<String>();
+    int classes = 0;
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(classList), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String className = line.split("\\s", 2)[0];
+        final ClassInfo info = agentClasses.get(className);
+        if (info != null) {
+          if (!isArchivable(info, agentClasses)) continue;
+          classes++;
+        }
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(classList), "UTF-8");
+    try {
+      for (String line : lines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    return classes;
+  }
+
+  private static boolean isArchivable(ClassInfo info, Map<String, ClassInfo> agentClasses) {
+    if (info.myArchivable != null) return info.myArchivable;
+    boolean archivable = info.myVersion >= MIN_CLASS_VERSION;
+    for (int i = 0; archivable && i < info.mySuperTypes.length; i++) {
+      final ClassInfo superInfo = agentClasses.get(info.mySuperTypes[i]);
+      archivable = superInfo == null || isArchivable(superInfo, agentClasses);
+    }
+    info.myArchivable = archivable;
+    return archivable;
+  }
+
+  private static Map<String, ClassInfo> readAgentClasses(File agentJar) throws IOException {
+    final Map<String, ClassInfo> result = new HashMap<String, ClassInfo>();
+    final JarFile jar = new JarFile(agentJar);
+    try {
+      for (JarEntry entry : Collections.list(jar.entries())) {
+        final String name = entry.getName();
+        if (!name.endsWith(".class")) continue;
+        final InputStream is = jar.getInputStream(entry);
+        try {
+          final byte[] bytes = CoverageIOUtil.readBytes(is);
+          final ClassReader reader = new ClassReader(bytes);
+          final String superName = reader.getSuperName();
+          final String[] interfaces = reader.getInterfaces();
+          final String[] superTypes = new String[interfaces.length + (superName == null ? 0 : 1)];
+          System.arraycopy(interfaces, 0, superTypes, 0, interfaces.length);
+          if (superName != null) superTypes[interfaces.length] = superName;
+          final int version = reader.readUnsignedShort(6);
+          final boolean isInterface = (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+          result.put(reader.getClassName(), new ClassInfo(version, superName, superTypes, isInterface));
+        } finally {
+          is.close();
+        }
+      }
+    } finally {
+      jar.close();
+    }
+    return result;
+  }
+
+  private static void run(List<String> command) throws IOException, InterruptedException {
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    final byte[] output = CoverageIOUtil.readBytes(process.getInputStream());
+    final int exitCode = process.waitFor();
+    if (exitCode != 0) {
+      throw new IOException("Command " + command + " failed with exit code " + exitCode + ":\n" + new String(output));
+    }
+  }
+
+  private static String getJavaExecutable() {
+    return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+  }
+
+  private static int getJavaVersion() {
+    final String version = System.getProperty("java.specification.version");
+    try {
+      return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static class ClassInfo {
+    private final int myVersion;
+    private final String mySuperName;
+    private final String[] mySuperTypes;
+    private final boolean myInterface;
+    private Boolean myArchivable;
+
+    private ClassInfo(int version, String superName, String[] superTypes, boolean isInterface) {
+      myVersion = version;
+      mySuperName = superName;
+      mySuperTypes = superTypes;
+      myInterface = isInterface;
+    }
+  }
+
+  /**
+   * Computes frames using the agent classes from the jar, other classes are expected to be JDK classes.
+   */
+  private static class CdsClassWriter extends ClassWriter {
+    private final Map<String, ClassInfo> myAgentClasses;
+
+    private CdsClassWriter(Map<String, ClassInfo> agentClasses) {
+      super(ClassWriter.COMPUTE_FRAMES);
+      myAgentClasses = agentClasses;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+      if (isInterface(type1) || isInterface(type2)) return JAVA_LANG_OBJECT;
+      final List<String> ancestors = new ArrayList<String>();
+      for (String type = type1; type != null; type = getSuperName(type)) {
+        ancestors.add(type);
+      }
+      for (String type = type2; type != null; type = getSuperName(type)) {
+        if (ancestors.contains(type)) return type;
+      }
+      return JAVA_LANG_OBJECT;
+    }
+
+    private boolean isInterface(String type) {
+      final ClassInfo info = myAgentClasses.get(type);
+      return info != null ? info.myInterface : loadJdkClass(type).isInterface();
+    }
+
+    private String getSuperName(String type) {
+      final ClassInfo info = myAgentClasses.get(type);
+      if (info != null) return info.mySuperName;
+      final Class<?> superClass = loadJdkClass(type).getSuperclass();
+      return superClass == null ? null : superClass.getName().replace('.', '/');
+    }
+
+    private static Class<?> loadJdkClass(String type) {
+      try {
+        return Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new TypeNotPresentException(type, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.cds;
+
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
+import org.jetbrains.coverage.org.objectweb.asm.Label;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.lang.reflect.Method;
+
+/**
+ * Training workload for {@link AgentCdsArchive}.
+ * A small class is generated and loaded, so that the agent goes through the whole instrumentation
+ * and report saving path, and all the classes required for it are recorded to the class list.
+ */
+public class AgentCdsTraining {
+  static final String PATTERN = "cds\\.training\\..*";
+  private static final String CLASS_NAME = "cds/training/Sample";
+
+  public static void main(String[] args) throws Exception {
+    final byte[] bytes = generateClass();
+    final Class<?> sample = new TrainingClassLoader().define(CLASS_NAME.replace('/', '.'), bytes);
+    final Method method = sample.getMethod("abs", int.class);
+    for (int i = -10; i <= 10; i++) {
+      method.invoke(null, i);
+    }
+  }
+
+  /**
+   * <pre>
+   * public static int abs(int x) {
+   *   if (x > 0) return x;
+   *   return -x;
+   * }
+   * </pre>
+   */
+  private static byte[] generateClass() {
+    final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+    cw.visitSource("Sample.java", null);
+
+    final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    final Label initStart = new Label();
+    init.visitLabel(initStart);
+    init.visitLineNumber(1, initStart);
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "abs", "(I)I", null, null);
+    mv.visitCode();
+    final Label start = new Label();
+    mv.visitLabel(start);
+    mv.visitLineNumber(3, start);
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    final Label negative = new Label();
+    mv.visitJumpInsn(Opcodes.IFLE, negative);
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitLabel(negative);
+    mv.visitLineNumber(4, negative);
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    mv.visitInsn(Opcodes.INEG);
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static class TrainingClassLoader extends ClassLoader {
+    private TrainingClassLoader() {
+      super(AgentCdsTraining.class.getClassLoader());
+    }
+
+    private Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
@@ -137,6 +137,13 @@ public class BranchDataContainer {
     myInstructions.set(id, myInstructions.get(id) + instructions);
   }
 
+  /**
+   * Allocate a hit id that is not bound to any line or branch.
+   */
+  public int allocateId() {
+    return incrementId();
+  }
+
   private int incrementId() {
     if (myInstructions != null) {
       while (myInstructions.size() <= myNextId) {
@@ -23,7 +23,7 @@ import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
 
 public class DataAccessUtil {
   public static final String HITS_ARRAY_TYPE = "[I";
-  public static final String TEST_MASK_ARRAY_TYPE = "[Z";
+  public static final String TEST_MASK_ARRAY_TYPE = "[J";
 
   public static final String CLASS_DATA_NAME = "__$classData$__";
 
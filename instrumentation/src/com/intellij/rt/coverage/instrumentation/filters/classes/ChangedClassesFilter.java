@@ -0,0 +1,150 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.filters.classes;
+
+import com.intellij.rt.coverage.util.ClassNameUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Limits coverage to the classes affected by a change, e.g. in a pull request build.
+ * <p>
+ * The list of changes is read from a file, one entry per line. An entry is either a source file path
+ * (e.g. <code>src/main/java/org/example/Foo.java</code>), a fully qualified class name (e.g. <code>org.example.Foo</code>)
+ * or a class file path (e.g. <code>org/example/Foo.class</code>). Empty lines and lines starting with <code>#</code> are ignored.
+ * A class is accepted when it or its outer class is listed, or when its <code>SourceFile</code> attribute together with the package
+ * matches the end of a listed source path. So inner, anonymous and synthetic classes of a changed class or file are also accepted.
+ * Source paths are matched by the package directory, so a source file is expected to be located in the directory of its package.
+ */
+public class ChangedClassesFilter implements ClassSignatureFilter {
+  private static final String[] SOURCE_EXTENSIONS = {".java", ".kt", ".kts", ".groovy", ".scala"};
+
+  private final Set<String> myClassNames = new HashSet<String>();
+  /**
+   * Source file name to the list of changed paths with this file name.
+   */
+  private final Map<String, List<String>> mySourcePaths = new HashMap<String, List<String>>();
+
+  public static ChangedClassesFilter load(File file) throws IOException {
+    final ChangedClassesFilter filter = new ChangedClassesFilter();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        filter.addEntry(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return filter;
+  }
+
+  public void addEntry(String entry) {
+    entry = entry.trim();
+    if (entry.length() == 0 || entry.startsWith("#")) return;
+    if (entry.endsWith(".class")) {
+      addClassName(entry.substring(0, entry.length() - ".class".length()));
+    } else if (isSourceFile(entry)) {
+      final String path = entry.replace('\\', '/');
+      final String fileName = path.substring(path.lastIndexOf('/') + 1);
+      List<String> paths = mySourcePaths.get(fileName);
+      if (paths == null) {
+        paths = new ArrayList<String>();
+        mySourcePaths.put(fileName, paths);
+      }
+      paths.add(path);
+    } else {
+      addClassName(entry);
+    }
+  }
+
+  private void addClassName(String className) {
+    myClassNames.add(ClassNameUtil.convertToFQName(className));
+  }
+
+  public int size() {
+    int result = myClassNames.size();
+    for (List<String> paths : mySourcePaths.values()) {
+      result += paths.size();
+    }
+    return result;
+  }
+
+  public boolean shouldFilter(ClassReader cr) {
+    return !isChanged(cr);
+  }
+
+  public boolean isChanged(ClassReader cr) {
+    final String internalName = cr.getClassName();
+    if (isClassNameChanged(ClassNameUtil.convertToFQName(internalName))) return true;
+    if (mySourcePaths.isEmpty()) return false;
+    final String source = readSourceFile(cr);
+    if (source == null) return false;
+    final List<String> paths = mySourcePaths.get(source);
+    if (paths == null) return false;
+    final int packageEnd = internalName.lastIndexOf('/');
+    final String sourcePath = packageEnd < 0 ? source : internalName.substring(0, packageEnd + 1) + source;
+    for (String path : paths) {
+      if (path.equals(sourcePath) || path.endsWith("/" + sourcePath)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Check the class name and all its outer class names.
+   */
+  private boolean isClassNameChanged(String className) {
+    while (true) {
+      if (myClassNames.contains(className)) return true;
+      final int index = className.lastIndexOf('$');
+      if (index <= 0) return false;
+      className = className.substring(0, index);
+    }
+  }
+
+  private static String readSourceFile(ClassReader cr) {
+    final String[] source = new String[1];
+    cr.accept(new ClassVisitor(Opcodes.API_VERSION) {
+      @Override
+      public void visitSource(String file, String debug) {
+        source[0] = file;
+      }
+    }, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+    return source[0];
+  }
+
+  private static boolean isSourceFile(String entry) {
+    if (entry.indexOf('/') >= 0 || entry.indexOf('\\') >= 0) return true;
+    for (String extension : SOURCE_EXTENSIONS) {
+      if (entry.endsWith(extension)) return true;
+    }
+    return false;
+  }
+}
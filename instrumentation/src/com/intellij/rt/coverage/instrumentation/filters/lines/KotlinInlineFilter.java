@@ -23,6 +23,7 @@ import com.intellij.rt.coverage.instrumentation.filters.KotlinUtils;
 import com.intellij.rt.coverage.util.ClassNameUtil;
 import com.intellij.rt.coverage.util.CoverageIOUtil;
 import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.FinalizationExecutor;
 import com.intellij.rt.coverage.util.classFinder.ClassFinder;
 import org.jetbrains.coverage.gnu.trove.TIntHashSet;
 import org.jetbrains.coverage.gnu.trove.TIntIntHashMap;
@@ -143,6 +144,13 @@ public class KotlinInlineFilter extends LinesFilter {
   }
 
   public static void checkLineSignatures(ProjectData projectData, ClassFinder cf) {
+    checkLineSignatures(projectData, cf, null);
+  }
+
+  /**
+   * @param executor executes the check of classes in parallel and limits its time, may be null
+   */
+  public static void checkLineSignatures(ProjectData projectData, final ClassFinder cf, FinalizationExecutor executor) {
     if (!shouldCheckLineSignatures()) return;
     final Map<String, FileMapData[]> linesMap = projectData.getLinesMap();
     if (linesMap == null) return;
@@ -155,11 +163,18 @@ public class KotlinInlineFilter extends LinesFilter {
         classes.add(data.getClassName());
       }
     }
+    final List<ClassData> classesData = new ArrayList<ClassData>();
     for (String className : classes) {
       final ClassData classData = projectData.getClassData(className);
       if (classData == null) continue;
-      checkLineSignatures(classData, cf);
+      classesData.add(classData);
     }
+    final FinalizationExecutor tasks = executor != null ? executor : new FinalizationExecutor(1, 0);
+    tasks.forEach("inline functions check", classesData, new FinalizationExecutor.Task<ClassData>() {
+      public void run(ClassData classData) {
+        checkLineSignatures(classData, cf);
+      }
+    }, true);
   }
 
   private boolean isLineMapped(int line, FileMapData[] mappings) {
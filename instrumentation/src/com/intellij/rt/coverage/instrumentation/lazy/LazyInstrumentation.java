@@ -0,0 +1,334 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.lazy;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.InstrumentationUtils;
+import com.intellij.rt.coverage.instrumentation.UnloadedUtil;
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.LazyInstrumentationCallback;
+import com.intellij.rt.coverage.util.StringsPool;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Tiered instrumentation mode.
+ * <p>
+ * On class load only method entry traps are inserted (see {@link LazyInstrumenter}). When a method is executed
+ * for the first time, its class is queued for an upgrade, and a background thread re-transforms queued classes
+ * in batches to get the full line and branch instrumentation.
+ * <p>
+ * Classes that have never been upgraded are analysed statically on report save, so the methods that have never run
+ * are reported as uncovered. As the first invocation of a method runs before the upgrade, it is recorded as
+ * method entry only: the first line of such a method is marked as covered when no other hits are collected.
+ */
+public class LazyInstrumentation implements LazyInstrumentationCallback {
+  /**
+   * Delay to collect upgrade requests into a single re-transformation batch.
+   */
+  private static final long BATCH_DELAY_MS = 20;
+
+  private final Instrumentation myInstrumentation;
+  private final Method myRetransformMethod;
+  private final ProjectData myProjectData;
+  private final ConcurrentMap<String, StubbedClass> myClasses = new ConcurrentHashMap<String, StubbedClass>();
+  private final BlockingQueue<StubbedClass> myQueue = new LinkedBlockingQueue<StubbedClass>();
+
+  private LazyInstrumentation(Instrumentation instrumentation, Method retransformMethod, ProjectData projectData) {
+    myInstrumentation = instrumentation;
+    myRetransformMethod = retransformMethod;
+    myProjectData = projectData;
+  }
+
+  /**
+   * Create lazy instrumentation and start the upgrade thread.
+   * Reflection is used for 1.5 compatibility.
+   *
+   * @return null if classes re-transformation is not supported
+   */
+  public static LazyInstrumentation create(Instrumentation instrumentation, ProjectData projectData) {
+    try {
+      final Method isSupported = Instrumentation.class.getMethod("isRetransformClassesSupported");
+      if (!((Boolean) isSupported.invoke(instrumentation))) return null;
+      final Method retransform = Instrumentation.class.getMethod("retransformClasses", Class[].class);
+      final LazyInstrumentation lazyInstrumentation = new LazyInstrumentation(instrumentation, retransform, projectData);
+      lazyInstrumentation.startUpgradeThread();
+      return lazyInstrumentation;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (Exception e) {
+      ErrorReporter.reportError("Lazy instrumentation initialization failed", e);
+      return null;
+    }
+  }
+
+  /**
+   * Stubs are created only for regular classes: interfaces have few code, and their full instrumentation
+   * may add a class initializer, which is not allowed in re-transformation.
+   */
+  public boolean shouldStub(String className, ClassReader cr) {
+    if ((cr.getAccess() & Opcodes.ACC_INTERFACE) != 0) return false;
+    final StubbedClass stub = myClasses.get(className);
+    return stub == null || !stub.myUpgradeRequested;
+  }
+
+  /**
+   * Register a class instrumented with stubs.
+   */
+  public void registerStub(String className, ClassLoader loader, byte[] bytes, String[] methods) {
+    StubbedClass stub = myClasses.get(className);
+    if (stub == null) {
+      stub = new StubbedClass(className);
+      final StubbedClass existing = myClasses.putIfAbsent(className, stub);
+      if (existing != null) stub = existing;
+    }
+    if (stub.addDefinition(loader, bytes, methods)) {
+      // the class has been already upgraded in other class loaders
+      myQueue.add(stub);
+    }
+  }
+
+  /**
+   * Notify that the full instrumentation of a class is completed.
+   */
+  public void onUpgraded(String className) {
+    final StubbedClass stub = myClasses.get(className);
+    if (stub != null) {
+      stub.myBytes = null;
+    }
+  }
+
+  public void methodEntered(String className, int methodId) {
+    final StubbedClass stub = myClasses.get(className);
+    if (stub == null) return;
+    final boolean[] entered = stub.myEntered;
+    if (entered == null || methodId >= entered.length) return;
+    entered[methodId] = true;
+    // class initializer is executed only once, so there is no need to upgrade the class
+    if (!stub.myMethods[methodId].startsWith(InstrumentationUtils.CLASS_INIT) && stub.requestUpgrade()) {
+      myQueue.add(stub);
+    }
+  }
+
+  public void finalizeCoverage(ProjectData projectData, boolean calculateSource) {
+    for (StubbedClass stub : myClasses.values()) {
+      ClassData classData = projectData.getClassData(stub.myClassName);
+      if (stub.myBytes != null && (classData == null || classData.getLines() == null)) {
+        try {
+          final byte[] bytes = stub.getBytes();
+          if (bytes != null) {
+            UnloadedUtil.appendUnloadedClass(projectData, stub.myClassName, new ClassReader(bytes), projectData.isBranchCoverage(), calculateSource);
+          }
+        } catch (Throwable e) {
+          ErrorReporter.reportError("Failed to analyse stubbed class: " + stub.myClassName, e);
+        }
+        classData = projectData.getClassData(stub.myClassName);
+      }
+      if (classData == null || classData.getLines() == null || stub.myEntered == null) continue;
+      for (int i = 0; i < stub.myEntered.length; i++) {
+        if (stub.myEntered[i]) {
+          markMethodEntered(classData, stub.myMethods[i]);
+        }
+      }
+    }
+  }
+
+  private static void markMethodEntered(ClassData classData, String methodSignature) {
+    LineData firstLine = null;
+    for (Object line : classData.getLines()) {
+      if (line == null) continue;
+      final LineData lineData = (LineData) line;
+      if (!methodSignature.equals(lineData.getMethodSignature())) continue;
+      if (lineData.getHits() > 0) return;
+      if (firstLine == null || lineData.getLineNumber() < firstLine.getLineNumber()) {
+        firstLine = lineData;
+      }
+    }
+    if (firstLine != null) {
+      firstLine.setHits(1);
+    }
+  }
+
+  private void startUpgradeThread() {
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (!myProjectData.isStopped()) {
+            final List<StubbedClass> batch = new ArrayList<StubbedClass>();
+            batch.add(myQueue.take());
+            Thread.sleep(BATCH_DELAY_MS);
+            myQueue.drainTo(batch);
+            upgrade(batch);
+          }
+        } catch (InterruptedException ignored) {
+        }
+      }
+    }, "coverage-lazy-instrumentation");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void upgrade(List<StubbedClass> batch) {
+    final List<Class<?>> classes = new ArrayList<Class<?>>();
+    for (StubbedClass stub : batch) {
+      stub.collectClasses(classes);
+    }
+    if (classes.isEmpty() || myProjectData.isStopped()) return;
+    try {
+      retransform(classes.toArray(new Class[0]));
+    } catch (Throwable batchError) {
+      // retry one by one so that a single failure does not prevent the upgrade of the other classes
+      for (Class<?> clazz : classes) {
+        try {
+          retransform(new Class[]{clazz});
+        } catch (Throwable e) {
+          ErrorReporter.reportError("Failed to upgrade instrumentation of class " + clazz.getName(), e);
+        }
+      }
+    }
+  }
+
+  private void retransform(Class<?>[] classes) throws Throwable {
+    try {
+      myRetransformMethod.invoke(myInstrumentation, new Object[]{classes});
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static class StubbedClass {
+    private final String myClassName;
+    private final List<WeakReference<ClassLoader>> myLoaders = new ArrayList<WeakReference<ClassLoader>>();
+    private boolean myBootstrapLoader;
+    private String[] myMethods;
+    private volatile boolean[] myEntered;
+    /**
+     * Original class bytes for static analysis in case the class has not been upgraded, null after the upgrade.
+     * The bytes are softly referenced, and are read again from the class loader when evicted, see {@link #getBytes()}.
+     */
+    private volatile SoftReference<byte[]> myBytes;
+    private volatile boolean myUpgradeRequested;
+
+    private StubbedClass(String className) {
+      myClassName = StringsPool.getFromPool(className);
+    }
+
+    /**
+     * @return true if the class upgrade has been already requested
+     */
+    private synchronized boolean addDefinition(ClassLoader loader, byte[] bytes, String[] methods) {
+      if (loader == null) {
+        myBootstrapLoader = true;
+      } else {
+        myLoaders.add(new WeakReference<ClassLoader>(loader));
+      }
+      if (myMethods == null || methods.length > myMethods.length) {
+        myMethods = methods;
+        final boolean[] entered = new boolean[methods.length];
+        if (myEntered != null) {
+          System.arraycopy(myEntered, 0, entered, 0, myEntered.length);
+        }
+        myEntered = entered;
+      }
+      myBytes = new SoftReference<byte[]>(bytes);
+      return myUpgradeRequested;
+    }
+
+    /**
+     * @return original class bytes or null if the class has been upgraded or its bytes cannot be found
+     */
+    private byte[] getBytes() throws IOException {
+      final SoftReference<byte[]> ref = myBytes;
+      if (ref == null) return null;
+      final byte[] bytes = ref.get();
+      if (bytes != null) return bytes;
+      final String resource = myClassName.replace('.', '/') + ".class";
+      for (ClassLoader loader : getLoaders()) {
+        final InputStream is = loader == null ? ClassLoader.getSystemResourceAsStream(resource) : loader.getResourceAsStream(resource);
+        if (is == null) continue;
+        try {
+          return CoverageIOUtil.readBytes(is);
+        } finally {
+          is.close();
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Trapped methods are called until the class is retransformed, so the monitor is entered only by the first request.
+     */
+    private boolean requestUpgrade() {
+      if (myUpgradeRequested) return false;
+      synchronized (this) {
+        if (myUpgradeRequested) return false;
+        myUpgradeRequested = true;
+        return true;
+      }
+    }
+
+    private void collectClasses(List<Class<?>> classes) {
+      for (ClassLoader loader : getLoaders()) {
+        addClass(classes, loader);
+      }
+    }
+
+    /**
+     * @return alive defining class loaders, null stands for the bootstrap class loader
+     */
+    private synchronized List<ClassLoader> getLoaders() {
+      final List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+      if (myBootstrapLoader) {
+        loaders.add(null);
+      }
+      for (WeakReference<ClassLoader> ref : myLoaders) {
+        final ClassLoader loader = ref.get();
+        if (loader != null) {
+          loaders.add(loader);
+        }
+      }
+      return loaders;
+    }
+
+    private void addClass(List<Class<?>> classes, ClassLoader loader) {
+      try {
+        final Class<?> clazz = Class.forName(myClassName, false, loader);
+        if (!classes.contains(clazz)) {
+          classes.add(clazz);
+        }
+      } catch (Throwable ignored) {
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.lazy;
+
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.InstrumentationUtils;
+import com.intellij.rt.coverage.instrumentation.MethodFilteringVisitor;
+import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts a method entry trap into every method that would be instrumented.
+ * The trap notifies {@link LazyInstrumentation} about method execution, so that the class could be upgraded
+ * to the full instrumentation via re-transformation.
+ * <p>
+ * Re-transformation must not change class schema, so the stub declares the same extra members as the full instrumentation.
+ */
+public class LazyInstrumenter extends MethodFilteringVisitor {
+  private final CoverageDataAccess myDataAccess;
+  private final List<String> myMethods = new ArrayList<String>();
+
+  public LazyInstrumenter(ClassVisitor classVisitor, String className, CoverageDataAccess dataAccess) {
+    super(classVisitor, className);
+    myDataAccess = dataAccess;
+  }
+
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+    final MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+    if (mv == null) return null;
+    if (!shouldInstrumentMethod(access, name, descriptor, signature, exceptions)) return mv;
+    final int methodId = myMethods.size();
+    myMethods.add(name + descriptor);
+    return new MethodVisitor(Opcodes.API_VERSION, mv) {
+      @Override
+      public void visitCode() {
+        super.visitCode();
+        mv.visitLdcInsn(getClassName());
+        InstrumentationUtils.pushInt(mv, methodId);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ProjectData.PROJECT_DATA_OWNER, "lazyTrap", "(Ljava/lang/String;I)V", false);
+      }
+    };
+  }
+
+  @Override
+  public void visitEnd() {
+    myDataAccess.onClassEnd(this);
+    super.visitEnd();
+  }
+
+  /**
+   * @return signatures of the methods with entry traps in the order of trap ids
+   */
+  public String[] getMethods() {
+    return myMethods.toArray(new String[0]);
+  }
+}
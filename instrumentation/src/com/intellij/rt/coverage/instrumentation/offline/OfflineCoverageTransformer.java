@@ -16,6 +16,7 @@
 
 package com.intellij.rt.coverage.instrumentation.offline;
 
+import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.ProjectData;
 import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
 import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
@@ -30,38 +31,87 @@ import java.util.regex.Pattern;
  * can be initialized without information in ProjectData.
  * Namely, the bytecode generated with this transformer includes length of data array for coverage hits storage.
  * <p>
+ * The length is known only after the instrumentation, so a placeholder integer constant is generated first,
+ * and then it is replaced in the constant pool of the instrumented class. This way each class is parsed only once.
+ * <p>
  * Offline instrumentation is required when there is no ability to install transformer on VM start.
  * Instead, offline transformation is run before application start with modification of class files on disk.
  *
  * @see com.intellij.rt.coverage.offline.RawProjectInit
  */
 public class OfflineCoverageTransformer extends CoverageTransformer {
+  private static final int CONSTANT_INTEGER_TAG = 3;
+  private static final int LENGTH_PLACEHOLDER = 0x7EC0DE00;
+
+  private final ProjectData myProjectData;
+
   public OfflineCoverageTransformer(ProjectData data, boolean shouldSaveSource, List<Pattern> excludePatterns, List<Pattern> includePatterns) {
     super(data, shouldSaveSource, excludePatterns, includePatterns);
+    myProjectData = data;
+  }
+
+  @Override
+  public byte[] instrument(byte[] classfileBuffer, String className, ClassLoader loader, boolean computeFrames) {
+    final byte[] result = super.instrument(classfileBuffer, className, loader, computeFrames);
+    if (result == null) return null;
+    final ClassData classData = myProjectData.getClassData(className);
+    final int[] hits = classData == null ? null : classData.getHitsMask();
+    final int length = hits == null ? 0 : hits.length;
+    replaceIntConstant(result, getLengthPlaceholder(new ClassReader(classfileBuffer)), length);
+    return result;
+  }
+
+  /**
+   * Each class is instrumented offline only once, so there is no need to keep the results in memory.
+   */
+  @Override
+  protected boolean isClassCacheEnabled() {
+    return false;
   }
 
   @Override
   protected CoverageDataAccess.Init createInit(String className, ClassReader cr, boolean branchCoverage) {
-    final int length = getRequiredArrayLength(cr, branchCoverage);
     return new CoverageDataAccess.Init("__$hits$__", DataAccessUtil.HITS_ARRAY_TYPE, "com/intellij/rt/coverage/offline/RawProjectInit",
-        "getOrCreateHitsMask", "(Ljava/lang/String;I)" + DataAccessUtil.HITS_ARRAY_TYPE, new Object[]{className, length});
+        "getOrCreateHitsMask", "(Ljava/lang/String;I)" + DataAccessUtil.HITS_ARRAY_TYPE, new Object[]{className, getLengthPlaceholder(cr)});
   }
 
   @Override
   protected CoverageDataAccess.Init createCondyInit(String className, ClassReader cr, boolean branchCoverage) {
-    final int length = getRequiredArrayLength(cr, branchCoverage);
     return new CoverageDataAccess.Init("__$hits$__", DataAccessUtil.HITS_ARRAY_TYPE, "com/intellij/rt/coverage/util/CondyUtils",
-        "getOrCreateHitsMask", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;I)" + DataAccessUtil.HITS_ARRAY_TYPE, new Object[]{className, length});
+        "getOrCreateHitsMask", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;I)" + DataAccessUtil.HITS_ARRAY_TYPE, new Object[]{className, getLengthPlaceholder(cr)});
+  }
+
+  /**
+   * Placeholder must not collide with integer constants of the original class,
+   * as equal constants share the same constant pool entry.
+   */
+  private static int getLengthPlaceholder(ClassReader cr) {
+    int placeholder = LENGTH_PLACEHOLDER;
+    while (findIntConstant(cr, placeholder) > 0) {
+      placeholder++;
+    }
+    return placeholder;
   }
 
-  private static int getRequiredArrayLength(ClassReader cr, boolean branchCoverage) {
-    final ClassLengthAnalyser analyser = analyseClassLength(cr);
-    return branchCoverage ? analyser.getHits() : analyser.getMaxLine() + 1;
+  /**
+   * @return offset of the constant value or -1 if there is no such constant in the pool
+   */
+  private static int findIntConstant(ClassReader cr, int value) {
+    for (int i = 1; i < cr.getItemCount(); i++) {
+      final int offset = cr.getItem(i);
+      if (offset > 0 && cr.readByte(offset - 1) == CONSTANT_INTEGER_TAG && cr.readInt(offset) == value) {
+        return offset;
+      }
+    }
+    return -1;
   }
 
-  private static ClassLengthAnalyser analyseClassLength(ClassReader cr) {
-    final ClassLengthAnalyser analyser = new ClassLengthAnalyser();
-    cr.accept(analyser, ClassReader.SKIP_FRAMES);
-    return analyser;
+  private static void replaceIntConstant(byte[] bytes, int oldValue, int newValue) {
+    final int offset = findIntConstant(new ClassReader(bytes), oldValue);
+    if (offset < 0) return;
+    bytes[offset] = (byte) (newValue >>> 24);
+    bytes[offset + 1] = (byte) (newValue >>> 16);
+    bytes[offset + 2] = (byte) (newValue >>> 8);
+    bytes[offset + 3] = (byte) newValue;
   }
 }
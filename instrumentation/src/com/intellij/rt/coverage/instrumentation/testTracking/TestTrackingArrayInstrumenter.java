@@ -0,0 +1,134 @@
+/*
+ * Copyright 2000-2021 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.testTracking;
+
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.BranchesEnumerator;
+import com.intellij.rt.coverage.instrumentation.InstrumentationUtils;
+import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
+import com.intellij.rt.coverage.instrumentation.dataAccess.DataAccessUtil;
+import com.intellij.rt.coverage.instrumentation.util.LocalVariableInserter;
+import com.intellij.rt.coverage.util.ClassNameUtil;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Label;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+/**
+ * Instrumenter of {@link TestTrackingArrayMode}.
+ * Subclasses may change the code inserted at the method start and at each line, see {@link TestTrackingClassMode}.
+ */
+class TestTrackingArrayInstrumenter extends TestTrackingClassDataInstrumenter {
+  private static final String TRACE_MASK_LOCAL_VARIABLE_NAME = "__$traceMaskLocal$__";
+
+  private final CoverageDataAccess myArrayDataAccess;
+  private final String myInternalClassName;
+
+  public TestTrackingArrayInstrumenter(ProjectData projectData, ClassVisitor classVisitor, ClassReader cr, String className, boolean shouldSaveSource, CoverageDataAccess dataAccess) {
+    super(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
+    myInternalClassName = ClassNameUtil.convertToInternalName(className);
+    myArrayDataAccess = DataAccessUtil.createTestTrackingDataAccess(className, cr, true);
+  }
+
+  protected MethodVisitor createMethodTransformer(final MethodVisitor mv, BranchesEnumerator enumerator, final int access, String name, final String desc) {
+    if (enumerator.hasNoLines()) {
+      return myArrayDataAccess.createMethodVisitor(super.myDataAccess.createMethodVisitor(mv, name, false), name, false);
+    }
+    final MethodVisitor visitor = new LocalVariableInserter(mv, access, desc, TRACE_MASK_LOCAL_VARIABLE_NAME, DataAccessUtil.TEST_MASK_ARRAY_TYPE) {
+      public void visitLineNumber(final int line, final Label start) {
+        LineData lineData = getLineData(line);
+        if (lineData != null) {
+          visitLineTrace(mv, getLVIndex(), line);
+        }
+        super.visitLineNumber(line, start);
+      }
+
+      public void visitCode() {
+        myArrayDataAccess.onMethodStart(mv, getLVIndex());
+        super.visitCode();
+        visitMethodStart(mv, getLVIndex());
+      }
+    };
+    return myArrayDataAccess.createMethodVisitor(super.myDataAccess.createMethodVisitor(visitor, name, true), name, true);
+  }
+
+  /**
+   * Insert code at the method start, after the trace mask array is loaded into the local variable.
+   */
+  protected void visitMethodStart(MethodVisitor mv, int traceMaskIndex) {
+  }
+
+  /**
+   * Insert code that registers the class if needed and marks the line as executed in the trace mask.
+   */
+  protected void visitLineTrace(MethodVisitor mv, int traceMaskIndex, int line) {
+    visitRegistration(mv, traceMaskIndex);
+
+    // do: array[1 + line / 64] |= 1L << (line % 64), see TraceMaskUtil
+    mv.visitVarInsn(Opcodes.ALOAD, traceMaskIndex);
+    InstrumentationUtils.pushInt(mv, TraceMaskUtil.getWordIndex(line));
+    mv.visitInsn(Opcodes.DUP2);
+    mv.visitInsn(Opcodes.LALOAD);
+    mv.visitLdcInsn(TraceMaskUtil.getBit(line));
+    mv.visitInsn(Opcodes.LOR);
+    mv.visitInsn(Opcodes.LASTORE);
+  }
+
+  /**
+   * Insert code that registers the class for the running test if the registration flag is not set.
+   */
+  protected void visitRegistration(MethodVisitor mv, int traceMaskIndex) {
+    // (array[0] & 1) == 0 => register has not been called
+    mv.visitVarInsn(Opcodes.ALOAD, traceMaskIndex);
+    mv.visitInsn(Opcodes.ICONST_0);
+    mv.visitInsn(Opcodes.LALOAD);
+    mv.visitInsn(Opcodes.L2I);
+    mv.visitInsn(Opcodes.ICONST_1);
+    mv.visitInsn(Opcodes.IAND);
+    final Label skip = new Label();
+    mv.visitJumpInsn(Opcodes.IFNE, skip);
+
+    // call register, it sets the registration flag if a test is running now
+    mv.visitFieldInsn(Opcodes.GETSTATIC, myInternalClassName, DataAccessUtil.CLASS_DATA_NAME, InstrumentationUtils.OBJECT_TYPE);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, ProjectData.PROJECT_DATA_OWNER, "registerClassForTrace", "(" + InstrumentationUtils.OBJECT_TYPE + ")Z", false);
+    mv.visitInsn(Opcodes.POP);
+
+    mv.visitLabel(skip);
+  }
+
+  /**
+   * @return length of the trace mask in lines, the registration flag is kept apart from the lines
+   */
+  protected int getTraceMaskLength() {
+    return myMaxLineNumber + 1;
+  }
+
+  @Override
+  public void visitEnd() {
+    myArrayDataAccess.onClassEnd(this);
+    super.visitEnd();
+  }
+
+  @Override
+  protected void initLineData() {
+    myClassData.createTraceMask(getTraceMaskLength());
+    super.initLineData();
+  }
+}
@@ -17,26 +17,23 @@
 package com.intellij.rt.coverage.instrumentation.testTracking;
 
 import com.intellij.rt.coverage.data.ClassData;
-import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
-import com.intellij.rt.coverage.instrumentation.BranchesEnumerator;
-import com.intellij.rt.coverage.instrumentation.InstrumentationUtils;
 import com.intellij.rt.coverage.instrumentation.Instrumenter;
 import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
-import com.intellij.rt.coverage.instrumentation.dataAccess.DataAccessUtil;
-import com.intellij.rt.coverage.util.ClassNameUtil;
-import com.intellij.rt.coverage.instrumentation.util.LocalVariableInserter;
 import com.intellij.rt.coverage.util.TestTrackingCallback;
-import org.jetbrains.coverage.org.objectweb.asm.*;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
 
 /**
- * Instrument class code with a boolean array field.
- * Zero element of this array is used as a flag for class registration for the current running test.
- * Initially the flag is false, then during execution com.intellij.rt.coverage.data.ProjectData#registerClassForTrace(java.lang.Object) is called.
- * When the registration is successful, the flag is set to true which means that there is no need to make registration calls.
- * When the current test is ended, the flag is set to false.
+ * Instrument class code with a long array field, which is a bit set of executed lines, see {@link TraceMaskUtil}.
+ * Zero bit of the zero word of this array is used as a flag for class registration for the current running test.
+ * Lines are never stored in the zero word, so that line tracing does not overwrite the flag.
+ * Initially the flag is not set, then during execution com.intellij.rt.coverage.data.ProjectData#registerClassForTrace(java.lang.Object) is called.
+ * When the registration is successful, the flag is set which means that there is no need to make registration calls.
+ * When the current test is ended, the flag is cleared.
  * <p>
- * N.B. load and store of zero element should be volatile. It could be done with java.lang.invoke.VarHandle#[set|get]Volatile.
+ * N.B. load and store of zero word should be volatile. It could be done with java.lang.invoke.VarHandle#[set|get]Volatile.
  * It is available only with JDK9 which is incompatible with JDK5, so this method is not used for now.
  * If absent volatile semantic leads to errors, use com.intellij.rt.coverage.instrumentation.testTracking.TestTrackingClassDataMode instead.
  */
@@ -44,10 +41,10 @@ public class TestTrackingArrayMode implements TestTrackingMode {
   public TestTrackingCallback createTestTrackingCallback() {
     return new TestTrackingCallback() {
       public void clearTrace(ClassData classData) {
-        classData.getTraceMask()[0] = false;
+        TraceMaskUtil.setRegistered(classData.getTraceMask(), false);
       }
 
-      public boolean[] traceLine(ClassData classData, int line) {
+      public long[] traceLine(ClassData classData, int line) {
         throw new RuntimeException("traceLine method should not be called in array test tracking mode");
       }
     };
@@ -57,76 +54,3 @@ public class TestTrackingArrayMode implements TestTrackingMode {
     return new TestTrackingArrayInstrumenter(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
   }
 }
-
-class TestTrackingArrayInstrumenter extends TestTrackingClassDataInstrumenter {
-  private static final String TRACE_MASK_LOCAL_VARIABLE_NAME = "__$traceMaskLocal$__";
-
-  private final CoverageDataAccess myArrayDataAccess;
-  private final String myInternalClassName;
-
-  public TestTrackingArrayInstrumenter(ProjectData projectData, ClassVisitor classVisitor, ClassReader cr, String className, boolean shouldSaveSource, CoverageDataAccess dataAccess) {
-    super(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
-    myInternalClassName = ClassNameUtil.convertToInternalName(className);
-    myArrayDataAccess = DataAccessUtil.createTestTrackingDataAccess(className, cr, true);
-  }
-
-  protected MethodVisitor createMethodTransformer(final MethodVisitor mv, BranchesEnumerator enumerator, final int access, String name, final String desc) {
-    if (enumerator.hasNoLines()) {
-      return myArrayDataAccess.createMethodVisitor(super.myDataAccess.createMethodVisitor(mv, name, false), name, false);
-    }
-    final MethodVisitor visitor = new LocalVariableInserter(mv, access, desc, TRACE_MASK_LOCAL_VARIABLE_NAME, DataAccessUtil.TEST_MASK_ARRAY_TYPE) {
-      public void visitLineNumber(final int line, final Label start) {
-        LineData lineData = getLineData(line);
-        if (lineData != null) {
-          // load trace mask array
-          mv.visitVarInsn(Opcodes.ALOAD, getLVIndex());
-
-          // check if register method should be called. array[0] == false => register has not been called
-          mv.visitInsn(Opcodes.DUP);
-          mv.visitInsn(Opcodes.ICONST_0);
-          mv.visitInsn(Opcodes.BALOAD);
-          final Label skip = new Label();
-          mv.visitJumpInsn(Opcodes.IFNE, skip);
-
-          // call register
-          mv.visitFieldInsn(Opcodes.GETSTATIC, myInternalClassName, DataAccessUtil.CLASS_DATA_NAME, InstrumentationUtils.OBJECT_TYPE);
-          mv.visitMethodInsn(Opcodes.INVOKESTATIC, ProjectData.PROJECT_DATA_OWNER, "registerClassForTrace", "(" + InstrumentationUtils.OBJECT_TYPE + ")Z", false);
-
-          // if register is successful set array[0] = true
-          // it may be unsuccessful if no test is running now
-          mv.visitJumpInsn(Opcodes.IFEQ, skip);
-          mv.visitVarInsn(Opcodes.ALOAD, getLVIndex());
-          mv.visitInsn(Opcodes.ICONST_0);
-          mv.visitInsn(Opcodes.ICONST_1);
-          mv.visitInsn(Opcodes.BASTORE);
-
-          mv.visitLabel(skip);
-
-          // load true value, stack: array. do: array[line] = true
-          InstrumentationUtils.pushInt(mv, line);
-          mv.visitInsn(Opcodes.ICONST_1);
-          mv.visitInsn(Opcodes.BASTORE);
-        }
-        super.visitLineNumber(line, start);
-      }
-
-      public void visitCode() {
-        myArrayDataAccess.onMethodStart(mv, getLVIndex());
-        super.visitCode();
-      }
-    };
-    return myArrayDataAccess.createMethodVisitor(super.myDataAccess.createMethodVisitor(visitor, name, true), name, true);
-  }
-
-  @Override
-  public void visitEnd() {
-    myArrayDataAccess.onClassEnd(this);
-    super.visitEnd();
-  }
-
-  @Override
-  protected void initLineData() {
-    myClassData.createTraceMask(myMaxLineNumber + 1);
-    super.initLineData();
-  }
-}
@@ -17,17 +17,13 @@
 package com.intellij.rt.coverage.instrumentation.testTracking;
 
 import com.intellij.rt.coverage.data.ClassData;
-import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
-import com.intellij.rt.coverage.instrumentation.BranchesEnumerator;
-import com.intellij.rt.coverage.instrumentation.BranchesInstrumenter;
-import com.intellij.rt.coverage.instrumentation.InstrumentationUtils;
 import com.intellij.rt.coverage.instrumentation.Instrumenter;
 import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
-import com.intellij.rt.coverage.instrumentation.dataAccess.DataAccessUtil;
-import com.intellij.rt.coverage.instrumentation.util.LocalVariableInserter;
 import com.intellij.rt.coverage.util.TestTrackingCallback;
-import org.jetbrains.coverage.org.objectweb.asm.*;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
 
 /**
  * Test tracking mode that stores classData.
@@ -39,20 +35,20 @@ public class TestTrackingClassDataMode implements TestTrackingMode {
         classData.setTraceMask(null);
       }
 
-      public boolean[] traceLine(final ClassData classData, final int line) {
-        boolean[] linesTrace = classData.getTraceMask();
-        boolean[] result = null;
+      public long[] traceLine(final ClassData classData, final int line) {
+        long[] linesTrace = classData.getTraceMask();
+        long[] result = null;
         if (linesTrace == null) {
           synchronized (classData) {
             linesTrace = classData.getTraceMask();
             if (linesTrace == null) {
-              linesTrace = new boolean[classData.getLines().length];
+              linesTrace = TraceMaskUtil.create(classData.getLines().length);
               classData.setTraceMask(linesTrace);
               result = linesTrace;
             }
           }
         }
-        linesTrace[line] = true;
+        TraceMaskUtil.setLine(linesTrace, line);
         return result;
       }
     };
@@ -62,54 +58,3 @@ public class TestTrackingClassDataMode implements TestTrackingMode {
     return new TestTrackingClassDataInstrumenter(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
   }
 }
-
-class TestTrackingClassDataInstrumenter extends BranchesInstrumenter {
-  protected static final String CLASS_DATA_LOCAL_VARIABLE_NAME = "__$classDataLocal$__";
-
-  protected final CoverageDataAccess myDataAccess;
-
-  public TestTrackingClassDataInstrumenter(ProjectData projectData, ClassVisitor classVisitor, ClassReader cr, String className, boolean shouldSaveSource, CoverageDataAccess dataAccess) {
-    super(projectData, classVisitor, className, shouldSaveSource, dataAccess);
-    myDataAccess = DataAccessUtil.createTestTrackingDataAccess(className, cr, false);
-  }
-
-  @Override
-  public MethodVisitor createInstrumentingVisitor(MethodVisitor mv,
-                                                  final BranchesEnumerator enumerator,
-                                                  final int access,
-                                                  final String name,
-                                                  final String desc) {
-    mv = super.createInstrumentingVisitor(mv, enumerator, access, name, desc);
-    return createMethodTransformer(mv, enumerator, access, name, desc);
-  }
-
-  protected MethodVisitor createMethodTransformer(final MethodVisitor mv, BranchesEnumerator enumerator, final int access, String name, final String desc) {
-    if (enumerator.hasNoLines()) {
-      return myDataAccess.createMethodVisitor(mv, name, false);
-    }
-    final MethodVisitor visitor = new LocalVariableInserter(mv, access, desc, CLASS_DATA_LOCAL_VARIABLE_NAME, InstrumentationUtils.OBJECT_TYPE) {
-      public void visitLineNumber(final int line, final Label start) {
-        final LineData lineData = getLineData(line);
-        if (lineData != null) {
-          mv.visitVarInsn(Opcodes.ALOAD, getLVIndex());
-          InstrumentationUtils.pushInt(mv, line);
-          mv.visitMethodInsn(Opcodes.INVOKESTATIC, ProjectData.PROJECT_DATA_OWNER, "traceLine", "(" + InstrumentationUtils.OBJECT_TYPE + "I)V", false);
-        }
-        super.visitLineNumber(line, start);
-      }
-
-      public void visitCode() {
-        myDataAccess.onMethodStart(mv, getLVIndex());
-        super.visitCode();
-      }
-    };
-    return myDataAccess.createMethodVisitor(visitor, name, true);
-  }
-
-  @Override
-  public void visitEnd() {
-    myDataAccess.onClassEnd(this);
-    super.visitEnd();
-  }
-}
-
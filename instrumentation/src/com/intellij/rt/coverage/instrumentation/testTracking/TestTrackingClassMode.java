@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.testTracking;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.Instrumenter;
+import com.intellij.rt.coverage.instrumentation.dataAccess.CoverageDataAccess;
+import com.intellij.rt.coverage.util.TestTrackingCallback;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+
+/**
+ * Test tracking mode with class granularity.
+ * The trace mask of a class contains the registration flag only, see {@link TestTrackingArrayMode}.
+ * The flag is checked on method entry, and the class is registered for the running test once,
+ * so the test trace contains the executed classes without lines.
+ *
+ * @see com.intellij.rt.coverage.util.OptionsUtil#CLASS_TEST_TRACKING
+ */
+public class TestTrackingClassMode implements TestTrackingMode {
+  public TestTrackingCallback createTestTrackingCallback() {
+    return new TestTrackingCallback() {
+      public void clearTrace(ClassData classData) {
+        TraceMaskUtil.setRegistered(classData.getTraceMask(), false);
+      }
+
+      public long[] traceLine(ClassData classData, int line) {
+        throw new RuntimeException("traceLine method should not be called in class test tracking mode");
+      }
+    };
+  }
+
+  public Instrumenter createInstrumenter(ProjectData projectData, ClassVisitor classVisitor, ClassReader cr, String className, boolean shouldSaveSource, CoverageDataAccess dataAccess) {
+    return new TestTrackingClassInstrumenter(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
+  }
+}
+
+class TestTrackingClassInstrumenter extends TestTrackingArrayInstrumenter {
+  public TestTrackingClassInstrumenter(ProjectData projectData, ClassVisitor classVisitor, ClassReader cr, String className, boolean shouldSaveSource, CoverageDataAccess dataAccess) {
+    super(projectData, classVisitor, cr, className, shouldSaveSource, dataAccess);
+  }
+
+  @Override
+  protected void visitMethodStart(MethodVisitor mv, int traceMaskIndex) {
+    visitRegistration(mv, traceMaskIndex);
+  }
+
+  @Override
+  protected void visitLineTrace(MethodVisitor mv, int traceMaskIndex, int line) {
+  }
+
+  @Override
+  protected int getTraceMaskLength() {
+    // only the registration flag
+    return 0;
+  }
+}
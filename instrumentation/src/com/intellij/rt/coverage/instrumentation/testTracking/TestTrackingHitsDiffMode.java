@@ -0,0 +1,27 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.instrumentation.testTracking;
+
+/**
+ * Test tracking mode without line trace probes, classes are instrumented the same way as in {@link TestTrackingClassMode},
+ * so that the classes executed by a test are registered on method entry.
+ * Executed lines of a test are found by comparing line hits of the registered classes at the registration and the test end.
+ *
+ * @see com.intellij.rt.coverage.util.OptionsUtil#HITS_DIFF_TEST_TRACKING
+ */
+public class TestTrackingHitsDiffMode extends TestTrackingClassMode {
+}
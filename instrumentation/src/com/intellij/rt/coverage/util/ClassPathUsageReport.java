@@ -0,0 +1,164 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.util.classFinder.ClassEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects class path usage statistics: the number and size of classes per class path entry and package,
+ * and how many of them have been executed. Classes are consumed in the same class path walk
+ * as unloaded classes analysis, only the aggregated counters are kept in memory.
+ * <p>
+ * The report is a tab separated file. Class path entries without executed classes are listed first,
+ * then the used entries, then the packages without executed classes that belong to the used entries.
+ * Only the classes that match include/exclude patterns are taken into account, as the others are not instrumented.
+ */
+public class ClassPathUsageReport implements ClassEntry.Consumer {
+  static final String ENTRY_KIND = "entry";
+  static final String PACKAGE_KIND = "package";
+  static final String UNUSED_STATUS = "UNUSED";
+  static final String USED_STATUS = "USED";
+  private static final String UNKNOWN_ENTRY = "<unknown>";
+
+  private final ProjectData myProjectData;
+  private final Map<String, EntryUsage> myEntries = new HashMap<String, EntryUsage>();
+
+  public ClassPathUsageReport(ProjectData projectData) {
+    myProjectData = projectData;
+  }
+
+  /**
+   * Must be called after coverage hits are applied.
+   */
+  public void consume(ClassEntry classEntry) {
+    final String className = classEntry.getClassName();
+    final boolean executed = isExecuted(myProjectData.getClassData(className));
+    final long size = Math.max(0, classEntry.getSize());
+    final String entryPath = classEntry.getClassPathEntry() == null ? UNKNOWN_ENTRY : classEntry.getClassPathEntry();
+    EntryUsage entry = myEntries.get(entryPath);
+    if (entry == null) {
+      entry = new EntryUsage(entryPath);
+      myEntries.put(entryPath, entry);
+    }
+    entry.add(executed, size);
+    final int lastDot = className.lastIndexOf('.');
+    final String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+    Usage packageUsage = entry.myPackages.get(packageName);
+    if (packageUsage == null) {
+      packageUsage = new Usage(packageName);
+      entry.myPackages.put(packageName, packageUsage);
+    }
+    packageUsage.add(executed, size);
+  }
+
+  private static boolean isExecuted(ClassData classData) {
+    if (classData == null) return false;
+    final Object[] lines = classData.getLines();
+    if (lines == null) return false;
+    for (Object line : lines) {
+      if (line != null && ((LineData) line).getHits() > 0) return true;
+    }
+    return false;
+  }
+
+  public void write(File file) throws IOException {
+    final List<EntryUsage> entries = new ArrayList<EntryUsage>(myEntries.values());
+    Collections.sort(entries, USAGE_COMPARATOR);
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write("kind\tstatus\tclasses\texecutedClasses\tbytes\texecutedBytes\tentry\tpackage\n");
+      for (EntryUsage entry : entries) {
+        writeRow(writer, ENTRY_KIND, entry, entry.myName, "");
+      }
+      for (EntryUsage entry : entries) {
+        if (entry.myExecutedClasses == 0) continue;
+        final List<Usage> packages = new ArrayList<Usage>(entry.myPackages.values());
+        Collections.sort(packages, USAGE_COMPARATOR);
+        for (Usage packageUsage : packages) {
+          if (packageUsage.myExecutedClasses > 0) break;
+          writeRow(writer, PACKAGE_KIND, packageUsage, entry.myName, packageUsage.myName);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void writeRow(Writer writer, String kind, Usage usage, String entry, String packageName) throws IOException {
+    writer.write(kind + '\t' + (usage.myExecutedClasses == 0 ? UNUSED_STATUS : USED_STATUS) + '\t'
+        + usage.myClasses + '\t' + usage.myExecutedClasses + '\t'
+        + usage.myBytes + '\t' + usage.myExecutedBytes + '\t'
+        + entry + '\t' + packageName + '\n');
+  }
+
+  /**
+   * Unused first, then by size descending.
+   */
+  private static final Comparator<Usage> USAGE_COMPARATOR = new Comparator<Usage>() {
+    public int compare(Usage o1, Usage o2) {
+      final boolean unused1 = o1.myExecutedClasses == 0;
+      final boolean unused2 = o2.myExecutedClasses == 0;
+      if (unused1 != unused2) return unused1 ? -1 : 1;
+      if (o1.myBytes != o2.myBytes) return o1.myBytes > o2.myBytes ? -1 : 1;
+      return o1.myName.compareTo(o2.myName);
+    }
+  };
+
+  static class Usage {
+    final String myName;
+    int myClasses;
+    int myExecutedClasses;
+    long myBytes;
+    long myExecutedBytes;
+
+    Usage(String name) {
+      myName = name;
+    }
+
+    void add(boolean executed, long size) {
+      myClasses++;
+      myBytes += size;
+      if (executed) {
+        myExecutedClasses++;
+        myExecutedBytes += size;
+      }
+    }
+  }
+
+  private static class EntryUsage extends Usage {
+    private final Map<String, Usage> myPackages = new HashMap<String, Usage>();
+
+    private EntryUsage(String name) {
+      super(name);
+    }
+  }
+}
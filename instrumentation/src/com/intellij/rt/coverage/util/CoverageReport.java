@@ -18,7 +18,11 @@ package com.intellij.rt.coverage.util;
 
 import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.DeferredInstructions;
+import com.intellij.rt.coverage.instrumentation.SpeculativeUnloadedAnalysis;
 import com.intellij.rt.coverage.instrumentation.UnloadedUtil;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ChangedClassesFilter;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ClassSignatureFilter;
 import com.intellij.rt.coverage.instrumentation.filters.lines.KotlinInlineFilter;
 import com.intellij.rt.coverage.util.classFinder.ClassFinder;
 import org.jetbrains.coverage.gnu.trove.TObjectIntHashMap;
@@ -37,6 +41,10 @@ import java.util.Map;
 public class CoverageReport {
   private final File myDataFile;
   private File mySourceMapFile;
+  private File myClassPathUsageFile;
+  private ChangedClassesFilter myChangedClassesFilter;
+  private SpeculativeUnloadedAnalysis mySpeculativeAnalysis;
+  private boolean myDeferredInstructions;
   private final boolean myAppendUnloaded;
   private final ClassFinder myClassFinder;
   private final boolean myMergeFile;
@@ -62,9 +70,19 @@ public class CoverageReport {
    */
   public void save(ProjectData projectData) {
     projectData.stop();
+    final Object event = JfrEvents.SNAPSHOT_DUMP.begin();
+    final long probes = event == null ? 0 : countProbes(projectData);
     CoverageIOUtil.FileLock lock = null;
     try {
-      finalizeCoverage(projectData, myAppendUnloaded, myClassFinder, mySourceMapFile != null);
+      if (mySpeculativeAnalysis != null) {
+        mySpeculativeAnalysis.stop();
+      }
+      final ClassPathUsageReport usageReport = myClassPathUsageFile == null ? null : new ClassPathUsageReport(projectData);
+      finalizeCoverage(projectData, myAppendUnloaded, myClassFinder, mySourceMapFile != null, myChangedClassesFilter, usageReport, mySpeculativeAnalysis,
+          myDeferredInstructions);
+      if (usageReport != null) {
+        saveClassPathUsage(usageReport, myClassPathUsageFile);
+      }
 
       lock = CoverageIOUtil.FileLock.lock(myDataFile);
       if (myMergeFile) {
@@ -79,7 +97,17 @@ public class CoverageReport {
       ErrorReporter.reportError("Unexpected error", e);
     } finally {
       CoverageIOUtil.FileLock.unlock(lock);
+      JfrEvents.SNAPSHOT_DUMP.commit(event, myDataFile.getPath(), myDataFile.length(), projectData.getClassesNumber(), probes);
+    }
+  }
+
+  private static long countProbes(ProjectData projectData) {
+    long probes = 0;
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final int[] hits = classData.getHitsMask();
+      if (hits != null) probes += hits.length;
     }
+    return probes;
   }
 
   /**
@@ -89,14 +117,90 @@ public class CoverageReport {
     mySourceMapFile = sourceMapFile;
   }
 
-  private static void finalizeCoverage(ProjectData projectData, boolean appendUnloaded, ClassFinder cf, boolean calculateSource) {
-    projectData.applyHits();
-    if (appendUnloaded) {
-      UnloadedUtil.appendUnloaded(projectData, cf, calculateSource, projectData.isBranchCoverage());
+  /**
+   * Set file to save class path usage report, see {@link ClassPathUsageReport}.
+   */
+  public void setClassPathUsageFile(File classPathUsageFile) {
+    myClassPathUsageFile = classPathUsageFile;
+  }
+
+  /**
+   * Set filter to limit unloaded classes analysis to the changed classes only.
+   */
+  public void setChangedClassesFilter(ChangedClassesFilter changedClassesFilter) {
+    myChangedClassesFilter = changedClassesFilter;
+  }
+
+  /**
+   * Set the background analysis of unloaded classes, which results are used during the report finalization.
+   */
+  public void setSpeculativeAnalysis(SpeculativeUnloadedAnalysis speculativeAnalysis) {
+    mySpeculativeAnalysis = speculativeAnalysis;
+  }
+
+  /**
+   * Compute instructions during the report finalization instead of the instrumentation, see {@link DeferredInstructions}.
+   */
+  public void setDeferredInstructions(boolean deferredInstructions) {
+    myDeferredInstructions = deferredInstructions;
+  }
+
+  /**
+   * Independent per class stages are executed in parallel. Unloaded classes analysis and inline functions check
+   * are stopped when the finalization time budget is exceeded, so some classes may be missing from the report,
+   * while the data of the saved classes are complete.
+   *
+   * @param usageReport if not null, it is filled during the class path walk of unloaded classes analysis,
+   *                    or in a separate walk if the analysis is disabled
+   * @param speculative if not null, the classes analysed by it in background are not analysed again
+   * @param deferredInstructions if true, instructions of the loaded classes are computed from the class files
+   */
+  private static void finalizeCoverage(ProjectData projectData, boolean appendUnloaded, ClassFinder cf, boolean calculateSource,
+                                       ClassSignatureFilter unloadedFilter, ClassPathUsageReport usageReport,
+                                       SpeculativeUnloadedAnalysis speculative, boolean deferredInstructions) {
+    final FinalizationExecutor executor = FinalizationExecutor.create();
+    try {
+      final boolean computeInstructions = deferredInstructions && projectData.isBranchCoverage();
+      if (computeInstructions) {
+        // classes analysed from now on collect instructions during the analysis
+        projectData.setInstructionsCoverage(true);
+      }
+      executor.forEach("hits applying", projectData.getClassesCollection(), new FinalizationExecutor.Task<ClassData>() {
+        public void run(ClassData classData) {
+          classData.applyHits();
+        }
+      }, false);
+      final LazyInstrumentationCallback lazyInstrumentation = projectData.getLazyInstrumentationCallback();
+      if (lazyInstrumentation != null) {
+        lazyInstrumentation.finalizeCoverage(projectData, calculateSource);
+      }
+      if (appendUnloaded) {
+        UnloadedUtil.appendUnloaded(projectData, cf, calculateSource, projectData.isBranchCoverage(), unloadedFilter, usageReport, executor, speculative);
+      } else if (usageReport != null) {
+        cf.iterateMatchedClasses(usageReport);
+      }
+      if (computeInstructions) {
+        DeferredInstructions.appendInstructions(projectData, cf, executor);
+      }
+      // mappings may move lines between classes, so this stage is sequential
+      projectData.applyLineMappings();
+      executor.forEach("ignored lines dropping", projectData.getClassesCollection(), new FinalizationExecutor.Task<ClassData>() {
+        public void run(ClassData classData) {
+          classData.dropIgnoredLines();
+        }
+      }, false);
+      KotlinInlineFilter.checkLineSignatures(projectData, cf, executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void saveClassPathUsage(ClassPathUsageReport usageReport, File file) {
+    try {
+      usageReport.write(file);
+    } catch (IOException e) {
+      ErrorReporter.reportError("Error writing file " + file.getPath(), e);
     }
-    projectData.applyLineMappings();
-    projectData.dropIgnoredLines();
-    KotlinInlineFilter.checkLineSignatures(projectData, cf);
   }
 
   public static void save(ProjectData projectData, File dataFile, File sourceMapFile) {
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Saves <code>ClassData#isDegraded</code> field, i.e. the list of classes that have been instrumented
+ * with line coverage in a branch coverage run, as the agent overhead budget was exceeded.
+ * Branch coverage of such classes is unknown.
+ */
+public class DegradedClassesSection extends ClassListSection {
+  @Override
+  protected void loadClass(DataInputStream in, ClassData classData, int version) throws IOException {
+    if (classData != null) {
+      classData.setDegraded(true);
+    }
+  }
+
+  @Override
+  protected void saveClass(ClassData classData, DataOutput out, int index) throws IOException {
+    if (classData != null && classData.isDegraded()) {
+      CoverageIOUtil.writeINT(out, index);
+    }
+  }
+
+  @Override
+  public int getId() {
+    return ReportSectionsUtil.DEGRADED_CLASSES_SECTION_ID;
+  }
+
+  @Override
+  public int getVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean isEngaged(ProjectData projectData) {
+    for (ClassData classData : projectData.getClassesCollection()) {
+      if (classData.isDegraded()) return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes independent per class tasks of coverage finalization (see <code>CoverageReport#finalizeCoverage</code>)
+ * in several threads, and tracks an optional time budget of the finalization.
+ * <p>
+ * Optional stages check {@link #isBudgetExceeded()} before each class, so a class is either processed fully or skipped,
+ * and the saved data stay consistent. When only one thread is configured, tasks are executed in the caller thread.
+ */
+public class FinalizationExecutor {
+  private static final long PROGRESS_INTERVAL_MS = 5000;
+
+  private final int myThreads;
+  private final long myDeadlineNs;
+  private final AtomicBoolean myBudgetExceeded = new AtomicBoolean();
+  private ThreadPoolExecutor myPool;
+
+  private final Object myLock = new Object();
+  private int myPending;
+  private int myCompleted;
+
+  /**
+   * @param threads  number of threads
+   * @param budgetMs time budget of the finalization in milliseconds, non-positive value means no limit
+   */
+  public FinalizationExecutor(int threads, long budgetMs) {
+    myThreads = Math.max(1, threads);
+    myDeadlineNs = budgetMs > 0 ? System.nanoTime() + budgetMs * 1000000 : 0;
+  }
+
+  /**
+   * @return executor configured with system properties, the time budget starts now
+   */
+  public static FinalizationExecutor create() {
+    return new FinalizationExecutor(OptionsUtil.FINALIZATION_THREADS, OptionsUtil.FINALIZATION_TIME_BUDGET_MS);
+  }
+
+  /**
+   * @return true if the time budget is exceeded, and the remaining optional work should be skipped
+   */
+  public boolean isBudgetExceeded() {
+    if (myDeadlineNs == 0) return false;
+    if (myBudgetExceeded.get()) return true;
+    if (System.nanoTime() - myDeadlineNs < 0) return false;
+    if (myBudgetExceeded.compareAndSet(false, true)) {
+      ErrorReporter.logInfo("Coverage finalization time budget is exceeded, unloaded classes analysis and inline functions check are stopped.");
+    }
+    return true;
+  }
+
+  /**
+   * Schedule a task. The caller runs the task itself when all the threads are busy and the queue is full,
+   * which limits the number of pending tasks.
+   */
+  public void submit(final Runnable task) {
+    if (myThreads == 1) {
+      run(task);
+      synchronized (myLock) {
+        myCompleted++;
+      }
+      return;
+    }
+    synchronized (myLock) {
+      myPending++;
+    }
+    getPool().execute(new Runnable() {
+      public void run() {
+        try {
+          FinalizationExecutor.run(task);
+        } finally {
+          synchronized (myLock) {
+            myPending--;
+            myCompleted++;
+            myLock.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Run the task for each item and wait for completion.
+   *
+   * @param budgeted if true, the items left when the time budget is exceeded are skipped
+   */
+  public <T> void forEach(String stage, Collection<T> items, final Task<T> task, boolean budgeted) {
+    for (final T item : items) {
+      if (budgeted && isBudgetExceeded()) break;
+      submit(new Runnable() {
+        public void run() {
+          task.run(item);
+        }
+      });
+    }
+    awaitCompletion(stage);
+  }
+
+  /**
+   * Wait for all the submitted tasks. Progress of long stages is logged periodically.
+   */
+  public void awaitCompletion(String stage) {
+    boolean reported = false;
+    long nextReport = System.currentTimeMillis() + PROGRESS_INTERVAL_MS;
+    synchronized (myLock) {
+      try {
+        while (myPending > 0) {
+          myLock.wait(PROGRESS_INTERVAL_MS);
+          final long now = System.currentTimeMillis();
+          if (myPending > 0 && now >= nextReport) {
+            nextReport = now + PROGRESS_INTERVAL_MS;
+            ErrorReporter.logInfo("Coverage finalization: " + stage + ", " + myCompleted + " classes processed, "
+                + myPending + " in progress");
+            reported = true;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (reported) {
+        ErrorReporter.logInfo("Coverage finalization: " + stage + " completed for " + myCompleted + " classes");
+      }
+      myCompleted = 0;
+    }
+  }
+
+  public void shutdown() {
+    final ThreadPoolExecutor pool = myPool;
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private ThreadPoolExecutor getPool() {
+    if (myPool == null) {
+      myPool = new ThreadPoolExecutor(myThreads, myThreads, 1, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(myThreads * 16), new ThreadFactory() {
+        private int myIndex = 0;
+
+        public Thread newThread(Runnable r) {
+          final Thread thread = new Thread(r, "Coverage finalization " + myIndex++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    return myPool;
+  }
+
+  private static void run(Runnable task) {
+    try {
+      task.run();
+    } catch (Throwable e) {
+      ErrorReporter.reportError("Error during coverage finalization", e);
+    }
+  }
+
+  public interface Task<T> {
+    void run(T item);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.MethodFirstHit;
+import com.intellij.rt.coverage.data.ProjectData;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Saves <code>ClassData#getFirstHits</code>, i.e. the order, time and thread of the first execution of each method.
+ * Format: class index, number of methods, and then method signature, order, time in nanoseconds and thread name per method.
+ */
+public class FirstHitsSection extends ClassListSection {
+  @Override
+  protected void loadClass(DataInputStream in, ClassData classData, int version) throws IOException {
+    final int size = CoverageIOUtil.readINT(in);
+    for (int i = 0; i < size; i++) {
+      final String methodSignature = CoverageIOUtil.readUTFFast(in);
+      final int order = CoverageIOUtil.readINT(in);
+      final long timeNs = in.readLong();
+      final String threadName = CoverageIOUtil.readUTFFast(in);
+      if (classData != null) {
+        classData.addFirstHit(methodSignature, new MethodFirstHit(order, timeNs, threadName));
+      }
+    }
+  }
+
+  @Override
+  protected void saveClass(ClassData classData, DataOutput out, int index) throws IOException {
+    if (classData == null) return;
+    final Map<String, MethodFirstHit> firstHits = classData.getFirstHits();
+    if (firstHits == null || firstHits.isEmpty()) return;
+    CoverageIOUtil.writeINT(out, index);
+    CoverageIOUtil.writeINT(out, firstHits.size());
+    for (Map.Entry<String, MethodFirstHit> entry : firstHits.entrySet()) {
+      final MethodFirstHit firstHit = entry.getValue();
+      CoverageIOUtil.writeUTF(out, entry.getKey());
+      CoverageIOUtil.writeINT(out, firstHit.getOrder());
+      out.writeLong(firstHit.getTimeNs());
+      CoverageIOUtil.writeUTF(out, firstHit.getThreadName());
+    }
+  }
+
+  @Override
+  public int getId() {
+    return ReportSectionsUtil.FIRST_HITS_SECTION_ID;
+  }
+
+  @Override
+  public int getVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean isEngaged(ProjectData projectData) {
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final Map<String, MethodFirstHit> firstHits = classData.getFirstHits();
+      if (firstHits != null && !firstHits.isEmpty()) return true;
+    }
+    return false;
+  }
+}
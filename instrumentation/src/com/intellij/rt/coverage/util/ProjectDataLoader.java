@@ -52,6 +52,8 @@ public class ProjectDataLoader {
     if (sessionDataFile.length() == 0) {
       return projectInfo;
     }
+    final Object event = JfrEvents.REPORT_LOAD.begin();
+    long linesCount = 0;
     try {
       in = CoverageIOUtil.openReadFile(sessionDataFile);
       final TIntObjectHashMap<ClassData> dict = new TIntObjectHashMap<ClassData>(1000, 0.99f);
@@ -105,6 +107,7 @@ public class ProjectDataLoader {
             }
             lineInfo.fillArrays();
           }
+          linesCount += lineCount;
         }
         classInfo.setLines(LinesUtil.calcLineArray(maxLine, lines));
       }
@@ -113,6 +116,7 @@ public class ProjectDataLoader {
       ErrorReporter.reportError("Failed to load coverage data from file: " + sessionDataFile.getAbsolutePath(), e);
     } finally {
       CoverageIOUtil.close(in);
+      JfrEvents.REPORT_LOAD.commit(event, sessionDataFile.getPath(), sessionDataFile.length(), projectInfo.getClassesNumber(), linesCount);
     }
     return projectInfo;
   }
@@ -33,12 +33,16 @@ public class ReportSectionsUtil {
   public static final int UNCOVERED_BRANCHES_SECTION_ID = 1;
   public static final int INSTRUCTIONS_SECTION_ID = 2;
   public static final int PARTLY_ANALYSED_CLASSES_SECTION_ID = 3;
+  public static final int DEGRADED_CLASSES_SECTION_ID = 4;
+  public static final int FIRST_HITS_SECTION_ID = 5;
 
   private static Map<Integer, ReportSection> getSections(ProjectData projectData) {
     final Map<Integer, ReportSection> result = new LinkedHashMap<Integer, ReportSection>();
     result.put(UNCOVERED_BRANCHES_SECTION_ID, new UncoveredBranchesSection());
     result.put(INSTRUCTIONS_SECTION_ID, new InstructionsSection(projectData));
     result.put(PARTLY_ANALYSED_CLASSES_SECTION_ID, new PartlyAnalysedClassesSection());
+    result.put(DEGRADED_CLASSES_SECTION_ID, new DegradedClassesSection());
+    result.put(FIRST_HITS_SECTION_ID, new FirstHitsSection());
     return result;
   }
 
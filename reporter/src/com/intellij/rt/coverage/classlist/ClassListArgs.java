@@ -0,0 +1,86 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.classlist;
+
+import com.intellij.rt.coverage.report.ArgParseException;
+import com.intellij.rt.coverage.report.ReporterArgs;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClassListArgs {
+  static final String REPORT_FILE_TAG = "reportFile";
+  static final String CLASS_LIST_FILE_TAG = "classListFile";
+  static final String SUMMARY_FILE_TAG = "summaryFile";
+  static final String ROOTS_TAG = "roots";
+
+  public final File reportFile;
+  public final File classListFile;
+  public final File summaryFile;
+  public final List<File> roots;
+
+  public ClassListArgs(File reportFile, File classListFile, File summaryFile, List<File> roots) {
+    this.reportFile = reportFile;
+    this.classListFile = classListFile;
+    this.summaryFile = summaryFile;
+    this.roots = roots;
+  }
+
+  public static ClassListArgs from(String[] args) throws ArgParseException {
+    final File argsFile = ReporterArgs.getArgsFile(args);
+    try {
+      return parse(argsFile);
+    } catch (IOException e) {
+      throw new ArgParseException(e);
+    } catch (JSONException e) {
+      throw new ArgParseException("Incorrect arguments in file " + argsFile.getAbsolutePath(), e);
+    }
+  }
+
+  public static ClassListArgs parse(File argsFile) throws IOException {
+    final String jsonString = FileUtils.readAll(argsFile);
+    final JSONObject args = new JSONObject(jsonString);
+
+    final File reportFile = new File(args.getString(REPORT_FILE_TAG));
+    final File classListFile = new File(args.getString(CLASS_LIST_FILE_TAG));
+    final File summaryFile = args.has(SUMMARY_FILE_TAG) ? new File(args.getString(SUMMARY_FILE_TAG)) : null;
+    final List<File> roots = new ArrayList<File>();
+    if (args.has(ROOTS_TAG)) {
+      final JSONArray rootsArray = args.getJSONArray(ROOTS_TAG);
+      for (int i = 0; i < rootsArray.length(); i++) {
+        roots.add(new File(rootsArray.getString(i)));
+      }
+    }
+    return new ClassListArgs(reportFile, classListFile, summaryFile, roots);
+  }
+
+  public static String getHelpString() {
+    return "Arguments must be passed in the following JSON format:\n" +
+        "{\n" +
+        "  \"reportFile\": String, // binary report collected with the agent\n" +
+        "  \"classListFile\": String, // list of executed classes in -XX:SharedClassListFile format\n" +
+        "  \"summaryFile\": String, // optional, JSON file with the usage summary of the roots\n" +
+        "  \"roots\": [String] // optional, application jars or class directories for the usage summary\n" +
+        "}";
+  }
+}
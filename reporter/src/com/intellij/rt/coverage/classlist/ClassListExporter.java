@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.classlist;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.MethodFirstHit;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Exports the list of classes executed during a coverage session.
+ * <p>
+ * The class list is compatible with <code>-XX:SharedClassListFile</code> JVM option and could be used to create
+ * an application CDS archive. When the report contains first hits (see <code>coverage.first.hits.enable</code> agent option),
+ * classes are listed in the order of their first execution, otherwise and for the classes without first hits
+ * the order is alphabetical. Note that classes that are loaded but never executed (e.g. interfaces without code)
+ * are not recorded by coverage.
+ * <p>
+ * Optionally, a usage summary of the application output roots (jars or directories) is written,
+ * which shows the roots that are not used at all or used partially.
+ */
+public class ClassListExporter {
+  static final String ROOTS_TAG = "roots";
+  static final String PATH_TAG = "path";
+  static final String CLASSES_TAG = "classes";
+  static final String EXECUTED_CLASSES_TAG = "executedClasses";
+  static final String SHARE_TAG = "share";
+  static final String UNKNOWN_CLASSES_TAG = "executedClassesNotInRoots";
+
+  private final List<File> myRoots;
+
+  public ClassListExporter(List<File> roots) {
+    myRoots = roots;
+  }
+
+  public void export(ProjectData projectData, File classListFile, File summaryFile) throws IOException {
+    final List<String> executedClasses = collectExecutedClasses(projectData);
+
+    final StringBuilder builder = new StringBuilder();
+    for (String className : executedClasses) {
+      builder.append(className.replace('.', '/')).append('\n');
+    }
+    FileUtils.write(classListFile, builder.toString());
+
+    if (summaryFile != null) {
+      FileUtils.write(summaryFile, createSummary(executedClasses).toString(2));
+    }
+  }
+
+  /**
+   * @return names of the executed classes in the order of their first execution where known
+   */
+  static List<String> collectExecutedClasses(ProjectData projectData) {
+    final List<ExecutedClass> classes = new ArrayList<ExecutedClass>();
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final int order = getFirstHitOrder(classData);
+      if (order != Integer.MAX_VALUE || isExecuted(classData)) {
+        classes.add(new ExecutedClass(classData.getName(), order));
+      }
+    }
+    Collections.sort(classes, new Comparator<ExecutedClass>() {
+      public int compare(ExecutedClass o1, ExecutedClass o2) {
+        if (o1.myOrder != o2.myOrder) return o1.myOrder < o2.myOrder ? -1 : 1;
+        return o1.myName.compareTo(o2.myName);
+      }
+    });
+    final List<String> result = new ArrayList<String>(classes.size());
+    for (ExecutedClass executedClass : classes) {
+      result.add(executedClass.myName);
+    }
+    return result;
+  }
+
+  private static int getFirstHitOrder(ClassData classData) {
+    final Map<String, MethodFirstHit> firstHits = classData.getFirstHits();
+    int order = Integer.MAX_VALUE;
+    if (firstHits == null) return order;
+    for (MethodFirstHit firstHit : firstHits.values()) {
+      order = Math.min(order, firstHit.getOrder());
+    }
+    return order;
+  }
+
+  private static boolean isExecuted(ClassData classData) {
+    final Object[] lines = classData.getLines();
+    if (lines == null) return false;
+    for (Object line : lines) {
+      if (line != null && ((LineData) line).getHits() > 0) return true;
+    }
+    return false;
+  }
+
+  private JSONObject createSummary(List<String> executedClasses) throws IOException {
+    final Set<String> notFound = new HashSet<String>(executedClasses);
+    final JSONArray roots = new JSONArray();
+    for (File root : myRoots) {
+      final List<String> rootClasses = new ArrayList<String>();
+      collectClasses(root, rootClasses);
+      int executed = 0;
+      for (String className : rootClasses) {
+        if (notFound.remove(className)) executed++;
+      }
+      final JSONObject json = new JSONObject();
+      json.put(PATH_TAG, root.getPath());
+      json.put(CLASSES_TAG, rootClasses.size());
+      json.put(EXECUTED_CLASSES_TAG, executed);
+      json.put(SHARE_TAG, rootClasses.isEmpty() ? 0 : Math.round(10000.0 * executed / rootClasses.size()) / 10000.0);
+      roots.put(json);
+    }
+    final JSONObject result = new JSONObject();
+    result.put(EXECUTED_CLASSES_TAG, executedClasses.size());
+    result.put(UNKNOWN_CLASSES_TAG, notFound.size());
+    result.put(ROOTS_TAG, roots);
+    return result;
+  }
+
+  /**
+   * Collect fully qualified names of the classes in a jar or a directory.
+   */
+  private static void collectClasses(File root, List<String> result) throws IOException {
+    if (root.isDirectory()) {
+      collectDirectoryClasses(root, "", result);
+    } else if (root.isFile()) {
+      final ZipFile zip = new ZipFile(root);
+      try {
+        final Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          final String name = entries.nextElement().getName();
+          if (isClassFile(name)) {
+            result.add(toClassName(name));
+          }
+        }
+      } finally {
+        zip.close();
+      }
+    }
+  }
+
+  private static void collectDirectoryClasses(File directory, String prefix, List<String> result) {
+    final File[] files = directory.listFiles();
+    if (files == null) return;
+    for (File file : files) {
+      final String path = prefix + file.getName();
+      if (file.isDirectory()) {
+        collectDirectoryClasses(file, path + "/", result);
+      } else if (isClassFile(path)) {
+        result.add(toClassName(path));
+      }
+    }
+  }
+
+  private static boolean isClassFile(String path) {
+    return path.endsWith(".class") && !path.endsWith("module-info.class") && !path.startsWith("META-INF/");
+  }
+
+  private static String toClassName(String path) {
+    return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+  }
+
+  private static class ExecutedClass {
+    private final String myName;
+    private final int myOrder;
+
+    private ExecutedClass(String name, int order) {
+      myName = name;
+      myOrder = order;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.profile;
+
+import com.intellij.rt.coverage.report.ArgParseException;
+import com.intellij.rt.coverage.report.ReporterArgs;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ProfileArgs {
+  static final String REPORT_FILE_TAG = "reportFile";
+  static final String RESULT_FILE_TAG = "resultFile";
+  static final String COLLAPSED_STACKS_FILE_TAG = "collapsedStacksFile";
+  static final String TOP_TAG = "top";
+
+  static final int DEFAULT_TOP = 100;
+
+  public final File reportFile;
+  public final File resultFile;
+  public final File collapsedStacksFile;
+  public final int top;
+
+  public ProfileArgs(File reportFile, File resultFile, File collapsedStacksFile, int top) {
+    this.reportFile = reportFile;
+    this.resultFile = resultFile;
+    this.collapsedStacksFile = collapsedStacksFile;
+    this.top = top;
+  }
+
+  public static ProfileArgs from(String[] args) throws ArgParseException {
+    final File argsFile = ReporterArgs.getArgsFile(args);
+    try {
+      return parse(argsFile);
+    } catch (IOException e) {
+      throw new ArgParseException(e);
+    } catch (JSONException e) {
+      throw new ArgParseException("Incorrect arguments in file " + argsFile.getAbsolutePath(), e);
+    }
+  }
+
+  public static ProfileArgs parse(File argsFile) throws IOException {
+    final String jsonString = FileUtils.readAll(argsFile);
+    final JSONObject args = new JSONObject(jsonString);
+
+    final File reportFile = new File(args.getString(REPORT_FILE_TAG));
+    final File resultFile = new File(args.getString(RESULT_FILE_TAG));
+    final File collapsedStacksFile = args.has(COLLAPSED_STACKS_FILE_TAG) ? new File(args.getString(COLLAPSED_STACKS_FILE_TAG)) : null;
+    final int top = args.has(TOP_TAG) ? args.getInt(TOP_TAG) : DEFAULT_TOP;
+    return new ProfileArgs(reportFile, resultFile, collapsedStacksFile, top);
+  }
+
+  public static String getHelpString() {
+    return "Arguments must be passed in the following JSON format:\n" +
+        "{\n" +
+        "  \"reportFile\": String, // binary report collected with the agent\n" +
+        "  \"resultFile\": String, // JSON file with the hottest lines, methods and the most imbalanced branches\n" +
+        "  \"collapsedStacksFile\": String, // optional, executed lines in collapsed stacks format for flame graph tools\n" +
+        "  \"top\": Int // optional, number of entries in each section, " + DEFAULT_TOP + " by default\n" +
+        "}";
+  }
+}
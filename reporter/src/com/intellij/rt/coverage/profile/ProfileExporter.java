@@ -0,0 +1,327 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.profile;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.JumpData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.SwitchData;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.jetbrains.coverage.org.objectweb.asm.Type;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports execution frequency profile based on the hit counters of a coverage report.
+ * <p>
+ * The profile contains the top hottest lines and methods, and the most imbalanced branches,
+ * i.e. frequently executed branches where one outcome dominates.
+ * Optionally, all the executed lines are written in collapsed stacks format
+ * (<code>package;Class;method;line hits</code>), which is accepted by flame graph tools.
+ * Note that the frames represent code structure, not call stacks.
+ */
+public class ProfileExporter {
+  static final String TOTAL_HITS_TAG = "totalLineHits";
+  static final String LINES_TAG = "lines";
+  static final String METHODS_TAG = "methods";
+  static final String BRANCHES_TAG = "branches";
+  static final String CLASS_TAG = "class";
+  static final String METHOD_TAG = "method";
+  static final String LINE_TAG = "line";
+  static final String HITS_TAG = "hits";
+  static final String SHARE_TAG = "share";
+  static final String LINES_COUNT_TAG = "executedLines";
+  static final String TYPE_TAG = "type";
+  static final String INDEX_TAG = "index";
+  static final String OUTCOMES_TAG = "outcomes";
+  static final String OUTCOME_TAG = "outcome";
+  static final String BIAS_TAG = "bias";
+
+  private final int myTop;
+
+  public ProfileExporter(int top) {
+    myTop = top;
+  }
+
+  public void export(ProjectData projectData, File resultFile, File collapsedStacksFile) throws IOException {
+    final List<LineEntry> lines = new ArrayList<LineEntry>();
+    final Map<String, MethodEntry> methods = new HashMap<String, MethodEntry>();
+    final List<BranchEntry> branches = new ArrayList<BranchEntry>();
+    long totalHits = 0;
+
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final Object[] classLines = classData.getLines();
+      if (classLines == null) continue;
+      final String className = classData.getName();
+      for (Object line : classLines) {
+        if (line == null) continue;
+        final LineData lineData = (LineData) line;
+        final int hits = lineData.getHits();
+        if (hits <= 0) continue;
+        totalHits += hits;
+        final String methodSignature = lineData.getMethodSignature();
+        lines.add(new LineEntry(className, methodSignature, lineData.getLineNumber(), hits));
+
+        final String methodKey = className + "." + methodSignature;
+        MethodEntry method = methods.get(methodKey);
+        if (method == null) {
+          method = new MethodEntry(className, methodSignature);
+          methods.put(methodKey, method);
+        }
+        method.myHits += hits;
+        method.myLines++;
+
+        collectBranches(branches, className, lineData);
+      }
+    }
+
+    final List<LineEntry> hotLines = top(lines, new Comparator<LineEntry>() {
+      public int compare(LineEntry o1, LineEntry o2) {
+        return compareLong(o2.myHits, o1.myHits);
+      }
+    });
+    final List<MethodEntry> hotMethods = top(new ArrayList<MethodEntry>(methods.values()), new Comparator<MethodEntry>() {
+      public int compare(MethodEntry o1, MethodEntry o2) {
+        return compareLong(o2.myHits, o1.myHits);
+      }
+    });
+    final List<BranchEntry> imbalancedBranches = top(branches, new Comparator<BranchEntry>() {
+      public int compare(BranchEntry o1, BranchEntry o2) {
+        return Double.compare(o2.getScore(), o1.getScore());
+      }
+    });
+
+    final JSONObject result = new JSONObject();
+    result.put(TOTAL_HITS_TAG, totalHits);
+    result.put(LINES_TAG, linesToJson(hotLines, totalHits));
+    result.put(METHODS_TAG, methodsToJson(hotMethods, totalHits));
+    result.put(BRANCHES_TAG, branchesToJson(imbalancedBranches));
+    FileUtils.write(resultFile, result.toString(2));
+
+    if (collapsedStacksFile != null) {
+      writeCollapsedStacks(lines, collapsedStacksFile);
+    }
+  }
+
+  private static void collectBranches(List<BranchEntry> branches, String className, LineData lineData) {
+    final JumpData[] jumps = lineData.getJumps();
+    if (jumps != null) {
+      for (int i = 0; i < jumps.length; i++) {
+        final JumpData jump = jumps[i];
+        if (jump == null) continue;
+        final BranchEntry entry = new BranchEntry(className, lineData, "JUMP", i,
+            new String[]{"true", "false"},
+            new long[]{jump.getTrueHits(), jump.getFalseHits()});
+        if (entry.myTotal > 0) branches.add(entry);
+      }
+    }
+    final SwitchData[] switches = lineData.getSwitches();
+    if (switches != null) {
+      for (int i = 0; i < switches.length; i++) {
+        final SwitchData switchData = switches[i];
+        if (switchData == null) continue;
+        final int[] keys = switchData.getKeys();
+        final int[] hits = switchData.getHits();
+        final String[] outcomes = new String[keys.length + 1];
+        final long[] outcomeHits = new long[keys.length + 1];
+        for (int k = 0; k < keys.length; k++) {
+          outcomes[k] = "case " + keys[k];
+          outcomeHits[k] = hits[k];
+        }
+        outcomes[keys.length] = "default";
+        outcomeHits[keys.length] = switchData.getDefaultHits();
+        final BranchEntry entry = new BranchEntry(className, lineData, "SWITCH", i, outcomes, outcomeHits);
+        if (entry.myTotal > 0) branches.add(entry);
+      }
+    }
+  }
+
+  private <T> List<T> top(List<T> entries, Comparator<T> comparator) {
+    final List<T> sorted = new ArrayList<T>(entries);
+    Collections.sort(sorted, comparator);
+    return sorted.size() <= myTop ? sorted : sorted.subList(0, myTop);
+  }
+
+  private static JSONArray linesToJson(List<LineEntry> lines, long totalHits) {
+    final JSONArray result = new JSONArray();
+    for (LineEntry line : lines) {
+      final JSONObject json = new JSONObject();
+      json.put(CLASS_TAG, line.myClassName);
+      json.put(METHOD_TAG, line.myMethodSignature);
+      json.put(LINE_TAG, line.myLine);
+      json.put(HITS_TAG, line.myHits);
+      json.put(SHARE_TAG, round((double) line.myHits / totalHits));
+      result.put(json);
+    }
+    return result;
+  }
+
+  private static JSONArray methodsToJson(List<MethodEntry> methods, long totalHits) {
+    final JSONArray result = new JSONArray();
+    for (MethodEntry method : methods) {
+      final JSONObject json = new JSONObject();
+      json.put(CLASS_TAG, method.myClassName);
+      json.put(METHOD_TAG, method.myMethodSignature);
+      json.put(HITS_TAG, method.myHits);
+      json.put(LINES_COUNT_TAG, method.myLines);
+      json.put(SHARE_TAG, round((double) method.myHits / totalHits));
+      result.put(json);
+    }
+    return result;
+  }
+
+  private static JSONArray branchesToJson(List<BranchEntry> branches) {
+    final JSONArray result = new JSONArray();
+    for (BranchEntry branch : branches) {
+      final JSONObject json = new JSONObject();
+      json.put(CLASS_TAG, branch.myClassName);
+      json.put(METHOD_TAG, branch.myMethodSignature);
+      json.put(LINE_TAG, branch.myLine);
+      json.put(TYPE_TAG, branch.myType);
+      json.put(INDEX_TAG, branch.myIndex);
+      json.put(HITS_TAG, branch.myTotal);
+      json.put(BIAS_TAG, round(branch.myBias));
+      final JSONArray outcomes = new JSONArray();
+      for (int i = 0; i < branch.myOutcomes.length; i++) {
+        final JSONObject outcome = new JSONObject();
+        outcome.put(OUTCOME_TAG, branch.myOutcomes[i]);
+        outcome.put(HITS_TAG, branch.myOutcomeHits[i]);
+        outcomes.put(outcome);
+      }
+      json.put(OUTCOMES_TAG, outcomes);
+      result.put(json);
+    }
+    return result;
+  }
+
+  private static void writeCollapsedStacks(List<LineEntry> lines, File file) throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    for (LineEntry line : lines) {
+      final int lastDot = line.myClassName.lastIndexOf('.');
+      if (lastDot >= 0) {
+        builder.append(line.myClassName, 0, lastDot).append(';');
+      }
+      builder.append(line.myClassName.substring(lastDot + 1)).append(';')
+          .append(getReadableMethod(line.myMethodSignature)).append(';')
+          .append("line ").append(line.myLine).append(' ')
+          .append(line.myHits).append('\n');
+    }
+    FileUtils.write(file, builder.toString());
+  }
+
+  /**
+   * Method descriptor contains ';', which is a frame separator in collapsed stacks format.
+   */
+  static String getReadableMethod(String methodSignature) {
+    final int descStart = methodSignature.indexOf('(');
+    if (descStart < 0) return methodSignature;
+    final StringBuilder builder = new StringBuilder(methodSignature.substring(0, descStart)).append('(');
+    try {
+      final Type[] arguments = Type.getArgumentTypes(methodSignature.substring(descStart));
+      for (int i = 0; i < arguments.length; i++) {
+        if (i > 0) builder.append(',');
+        builder.append(arguments[i].getClassName());
+      }
+    } catch (Exception e) {
+      builder.append("...");
+    }
+    return builder.append(')').toString();
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 10000) / 10000.0;
+  }
+
+  private static int compareLong(long x, long y) {
+    return x < y ? -1 : (x == y ? 0 : 1);
+  }
+
+  private static class LineEntry {
+    private final String myClassName;
+    private final String myMethodSignature;
+    private final int myLine;
+    private final long myHits;
+
+    private LineEntry(String className, String methodSignature, int line, long hits) {
+      myClassName = className;
+      myMethodSignature = methodSignature;
+      myLine = line;
+      myHits = hits;
+    }
+  }
+
+  private static class MethodEntry {
+    private final String myClassName;
+    private final String myMethodSignature;
+    private long myHits;
+    private int myLines;
+
+    private MethodEntry(String className, String methodSignature) {
+      myClassName = className;
+      myMethodSignature = methodSignature;
+    }
+  }
+
+  /**
+   * Branch bias is 0 when all outcomes are equally frequent, and 1 when only one outcome is executed.
+   * Branches are ranked by bias multiplied by the number of executions.
+   */
+  private static class BranchEntry {
+    private final String myClassName;
+    private final String myMethodSignature;
+    private final int myLine;
+    private final String myType;
+    private final int myIndex;
+    private final String[] myOutcomes;
+    private final long[] myOutcomeHits;
+    private final long myTotal;
+    private final double myBias;
+
+    private BranchEntry(String className, LineData lineData, String type, int index, String[] outcomes, long[] outcomeHits) {
+      myClassName = className;
+      myMethodSignature = lineData.getMethodSignature();
+      myLine = lineData.getLineNumber();
+      myType = type;
+      myIndex = index;
+      myOutcomes = outcomes;
+      myOutcomeHits = outcomeHits;
+      long total = 0;
+      long max = 0;
+      for (long hits : outcomeHits) {
+        total += hits;
+        max = Math.max(max, hits);
+      }
+      myTotal = total;
+      final double uniformShare = 1.0 / outcomeHits.length;
+      myBias = total == 0 || outcomeHits.length < 2 ? 0 : ((double) max / total - uniformShare) / (1 - uniformShare);
+    }
+
+    private double getScore() {
+      return myBias * myTotal;
+    }
+  }
+}
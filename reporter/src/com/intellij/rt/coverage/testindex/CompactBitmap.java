@@ -0,0 +1,219 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testindex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of non-negative integers in the spirit of Roaring bitmaps.
+ * <p>
+ * Values are split into chunks by the high 16 bits. A chunk with at most {@link #ARRAY_MAX_SIZE} values
+ * is stored as a sorted array of the low 16 bits, and a denser chunk is stored as a bitmap of 2^16 bits.
+ * So sparse sets of test ids take 2 bytes per value, and dense sets take at most 1 bit per possible value.
+ */
+class CompactBitmap {
+  static final int ARRAY_MAX_SIZE = 4096;
+  private static final int BITMAP_WORDS = 1 << 10;
+  static final CompactBitmap EMPTY = new CompactBitmap(new char[0], new Object[0], 0);
+
+  private final char[] myKeys;
+  /**
+   * Either char[] with sorted low bits, or long[] bitmap.
+   */
+  private final Object[] myChunks;
+  private final int mySize;
+
+  private CompactBitmap(char[] keys, Object[] chunks, int size) {
+    myKeys = keys;
+    myChunks = chunks;
+    mySize = size;
+  }
+
+  /**
+   * @param values ascending values, duplicates are allowed
+   */
+  static CompactBitmap fromSorted(int[] values, int count) {
+    if (count == 0) return EMPTY;
+    int chunksCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || high(values[i]) != high(values[i - 1])) chunksCount++;
+    }
+    final char[] keys = new char[chunksCount];
+    final Object[] chunks = new Object[chunksCount];
+    int size = 0;
+    int chunk = 0;
+    int start = 0;
+    while (start < count) {
+      final char key = high(values[start]);
+      int end = start;
+      int distinct = 0;
+      while (end < count && high(values[end]) == key) {
+        if (end == start || values[end] != values[end - 1]) distinct++;
+        end++;
+      }
+      keys[chunk] = key;
+      if (distinct <= ARRAY_MAX_SIZE) {
+        final char[] array = new char[distinct];
+        int j = 0;
+        for (int i = start; i < end; i++) {
+          if (i == start || values[i] != values[i - 1]) array[j++] = low(values[i]);
+        }
+        chunks[chunk] = array;
+      } else {
+        final long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = start; i < end; i++) {
+          final char value = low(values[i]);
+          bitmap[value >>> 6] |= 1L << value;
+        }
+        chunks[chunk] = bitmap;
+      }
+      size += distinct;
+      chunk++;
+      start = end;
+    }
+    return new CompactBitmap(keys, chunks, size);
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  boolean contains(int value) {
+    final int chunk = Arrays.binarySearch(myKeys, high(value));
+    if (chunk < 0) return false;
+    final Object container = myChunks[chunk];
+    final char low = low(value);
+    if (container instanceof long[]) {
+      return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+    final char[] array = (char[]) container;
+    return Arrays.binarySearch(array, low) >= 0;
+  }
+
+  /**
+   * Set the bits of all the values of this set in a plain bit set.
+   */
+  void addTo(long[] words) {
+    for (int chunk = 0; chunk < myKeys.length; chunk++) {
+      final int base = myKeys[chunk] << 16;
+      final Object container = myChunks[chunk];
+      if (container instanceof long[]) {
+        final long[] bitmap = (long[]) container;
+        final int offset = base >>> 6;
+        for (int i = 0; i < bitmap.length && offset + i < words.length; i++) {
+          words[offset + i] |= bitmap[i];
+        }
+      } else {
+        for (char low : (char[]) container) {
+          final int value = base | low;
+          words[value >>> 6] |= 1L << value;
+        }
+      }
+    }
+  }
+
+  int[] toArray() {
+    final int[] result = new int[mySize];
+    int j = 0;
+    for (int chunk = 0; chunk < myKeys.length; chunk++) {
+      final int base = myKeys[chunk] << 16;
+      final Object container = myChunks[chunk];
+      if (container instanceof long[]) {
+        final long[] bitmap = (long[]) container;
+        for (int i = 0; i < bitmap.length; i++) {
+          long word = bitmap[i];
+          while (word != 0) {
+            result[j++] = base | (i << 6) | Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+          }
+        }
+      } else {
+        for (char low : (char[]) container) {
+          result[j++] = base | low;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Format: <code>[chunks count]{[key][chunk size]{[low bits]} or {[bitmap words]}}</code>,
+   * the chunk type is defined by its size.
+   */
+  void write(DataOutput out) throws IOException {
+    out.writeInt(myKeys.length);
+    for (int chunk = 0; chunk < myKeys.length; chunk++) {
+      out.writeChar(myKeys[chunk]);
+      final Object container = myChunks[chunk];
+      if (container instanceof long[]) {
+        final long[] bitmap = (long[]) container;
+        int size = 0;
+        for (long word : bitmap) {
+          size += Long.bitCount(word);
+        }
+        out.writeInt(size);
+        for (long word : bitmap) {
+          out.writeLong(word);
+        }
+      } else {
+        final char[] array = (char[]) container;
+        out.writeInt(array.length);
+        for (char low : array) {
+          out.writeChar(low);
+        }
+      }
+    }
+  }
+
+  static CompactBitmap read(DataInput in) throws IOException {
+    final int chunksCount = in.readInt();
+    if (chunksCount == 0) return EMPTY;
+    final char[] keys = new char[chunksCount];
+    final Object[] chunks = new Object[chunksCount];
+    int size = 0;
+    for (int chunk = 0; chunk < chunksCount; chunk++) {
+      keys[chunk] = in.readChar();
+      final int chunkSize = in.readInt();
+      if (chunkSize <= ARRAY_MAX_SIZE) {
+        final char[] array = new char[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+          array[i] = in.readChar();
+        }
+        chunks[chunk] = array;
+      } else {
+        final long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+          bitmap[i] = in.readLong();
+        }
+        chunks[chunk] = bitmap;
+      }
+      size += chunkSize;
+    }
+    return new CompactBitmap(keys, chunks, size);
+  }
+
+  private static char high(int value) {
+    return (char) (value >>> 16);
+  }
+
+  private static char low(int value) {
+    return (char) value;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testindex;
+
+import com.intellij.rt.coverage.report.ArgParseException;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+
+import java.io.IOException;
+
+public class Main {
+  public static void main(String[] argsList) {
+    try {
+      final TestIndexArgs args = TestIndexArgs.from(argsList);
+
+      final TestLineIndex index;
+      if (args.tracesDir != null) {
+        index = TestLineIndex.build(args.tracesDir);
+        index.save(args.indexFile);
+      } else {
+        index = TestLineIndex.load(args.indexFile);
+      }
+      if (args.lines != null) {
+        FileUtils.write(args.resultFile, new JSONArray(index.findTests(args.lines)).toString(2));
+      }
+
+    } catch (ArgParseException e) {
+      e.printStackTrace(System.err);
+
+      for (String arg : argsList) {
+        System.err.println(arg);
+      }
+
+      System.err.println();
+      System.err.println(TestIndexArgs.getHelpString());
+      System.exit(1);
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+      System.exit(1);
+    }
+  }
+}
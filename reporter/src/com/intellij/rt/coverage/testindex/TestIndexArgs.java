@@ -0,0 +1,100 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testindex;
+
+import com.intellij.rt.coverage.report.ArgParseException;
+import com.intellij.rt.coverage.report.ReporterArgs;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestIndexArgs {
+  static final String TRACES_DIR_TAG = "tracesDir";
+  static final String INDEX_FILE_TAG = "indexFile";
+  static final String LINES_TAG = "lines";
+  static final String RESULT_FILE_TAG = "resultFile";
+
+  public final File tracesDir;
+  public final File indexFile;
+  public final Map<String, int[]> lines;
+  public final File resultFile;
+
+  public TestIndexArgs(File tracesDir, File indexFile, Map<String, int[]> lines, File resultFile) {
+    this.tracesDir = tracesDir;
+    this.indexFile = indexFile;
+    this.lines = lines;
+    this.resultFile = resultFile;
+  }
+
+  public static TestIndexArgs from(String[] args) throws ArgParseException {
+    final File argsFile = ReporterArgs.getArgsFile(args);
+    try {
+      return parse(argsFile);
+    } catch (IOException e) {
+      throw new ArgParseException(e);
+    } catch (JSONException e) {
+      throw new ArgParseException("Incorrect arguments in file " + argsFile.getAbsolutePath(), e);
+    }
+  }
+
+  public static TestIndexArgs parse(File argsFile) throws IOException, ArgParseException {
+    final String jsonString = FileUtils.readAll(argsFile);
+    final JSONObject args = new JSONObject(jsonString);
+
+    final File tracesDir = args.has(TRACES_DIR_TAG) ? new File(args.getString(TRACES_DIR_TAG)) : null;
+    final File indexFile = new File(args.getString(INDEX_FILE_TAG));
+    Map<String, int[]> lines = null;
+    File resultFile = null;
+    if (args.has(LINES_TAG)) {
+      lines = parseLines(args.getJSONObject(LINES_TAG));
+      resultFile = new File(args.getString(RESULT_FILE_TAG));
+    }
+    if (tracesDir == null && lines == null) {
+      throw new ArgParseException("Either " + TRACES_DIR_TAG + " or " + LINES_TAG + " must be specified");
+    }
+    return new TestIndexArgs(tracesDir, indexFile, lines, resultFile);
+  }
+
+  private static Map<String, int[]> parseLines(JSONObject json) {
+    final Map<String, int[]> result = new HashMap<String, int[]>();
+    for (String className : json.keySet()) {
+      final JSONArray lines = json.getJSONArray(className);
+      final int[] classLines = new int[lines.length()];
+      for (int i = 0; i < classLines.length; i++) {
+        classLines[i] = lines.getInt(i);
+      }
+      result.put(className, classLines);
+    }
+    return result;
+  }
+
+  public static String getHelpString() {
+    return "Arguments must be passed in the following JSON format:\n" +
+        "{\n" +
+        "  \"tracesDir\": String, // optional, directory with the traces collected in test tracking mode, the index is built from it\n" +
+        "  \"indexFile\": String, // test index file, it is written when tracesDir is specified and read otherwise\n" +
+        "  \"lines\": {String: [Int]}, // optional, map from class name to lines, e.g. changed lines, to find the tests covering them\n" +
+        "  \"resultFile\": String // required with lines, JSON array of the names of the found tests\n" +
+        "}";
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testindex;
+
+import com.intellij.rt.coverage.util.CoverageIOUtil;
+import com.intellij.rt.coverage.util.TestTrackingIOUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of per test coverage, which maps each covered line to the tests that cover it, and each test to its covered lines.
+ * <p>
+ * Test names are interned into ids by their alphabetical order, and both directions are stored
+ * as {@link CompactBitmap}s, so the index is usually much smaller than the traces it is built from,
+ * and a query touches only the requested lines.
+ */
+public class TestLineIndex {
+  private static final int MAGIC = 0x544c4958;
+  private static final int VERSION = 0;
+
+  private final String[] myTests;
+  private final Map<String, Integer> myTestIds;
+  private final Map<String, ClassLines> myClasses;
+  /**
+   * Lines covered by each test, indexed by test id.
+   */
+  private final List<Map<String, CompactBitmap>> myTestLines;
+
+  private TestLineIndex(String[] tests, Map<String, ClassLines> classes, List<Map<String, CompactBitmap>> testLines) {
+    myTests = tests;
+    myClasses = classes;
+    myTestLines = testLines;
+    myTestIds = new HashMap<String, Integer>(tests.length * 2);
+    for (int i = 0; i < tests.length; i++) {
+      myTestIds.put(tests[i], i);
+    }
+  }
+
+  /**
+   * Build the index from the traces collected in test tracking mode.
+   *
+   * @see com.intellij.rt.coverage.data.ProjectData#createTracesDir
+   */
+  public static TestLineIndex build(File tracesDirectory) throws IOException {
+    return build(TestTrackingIOUtil.loadTestTrackingData(tracesDirectory));
+  }
+
+  /**
+   * @param data map from test name to the map from class name to covered lines
+   */
+  public static TestLineIndex build(Map<String, Map<String, int[]>> data) {
+    final String[] tests = data.keySet().toArray(new String[0]);
+    Arrays.sort(tests);
+    final Map<String, Map<Integer, IntList>> lineTests = new HashMap<String, Map<Integer, IntList>>();
+    final List<Map<String, CompactBitmap>> testLines = new ArrayList<Map<String, CompactBitmap>>(tests.length);
+    for (int testId = 0; testId < tests.length; testId++) {
+      final Map<String, CompactBitmap> classes = new HashMap<String, CompactBitmap>();
+      for (Map.Entry<String, int[]> entry : data.get(tests[testId]).entrySet()) {
+        final int[] lines = entry.getValue();
+        if (lines.length == 0) continue;
+        final String className = entry.getKey();
+        Map<Integer, IntList> classLineTests = lineTests.get(className);
+        if (classLineTests == null) {
+          classLineTests = new HashMap<Integer, IntList>();
+          lineTests.put(className, classLineTests);
+        }
+        for (int line : lines) {
+          IntList lineTestIds = classLineTests.get(line);
+          if (lineTestIds == null) {
+            lineTestIds = new IntList();
+            classLineTests.put(line, lineTestIds);
+          }
+          // tests are iterated in ids order, so the ids are sorted
+          lineTestIds.add(testId);
+        }
+        final int[] sortedLines = lines.clone();
+        Arrays.sort(sortedLines);
+        classes.put(className, CompactBitmap.fromSorted(sortedLines, sortedLines.length));
+      }
+      testLines.add(classes);
+    }
+
+    final Map<String, ClassLines> classes = new HashMap<String, ClassLines>(lineTests.size() * 2);
+    for (Map.Entry<String, Map<Integer, IntList>> entry : lineTests.entrySet()) {
+      final Map<Integer, IntList> classLineTests = entry.getValue();
+      final int[] lines = new int[classLineTests.size()];
+      int i = 0;
+      for (Integer line : classLineTests.keySet()) {
+        lines[i++] = line;
+      }
+      Arrays.sort(lines);
+      final CompactBitmap[] lineTestIds = new CompactBitmap[lines.length];
+      for (i = 0; i < lines.length; i++) {
+        final IntList ids = classLineTests.get(lines[i]);
+        lineTestIds[i] = CompactBitmap.fromSorted(ids.myValues, ids.mySize);
+      }
+      classes.put(entry.getKey(), new ClassLines(lines, lineTestIds));
+    }
+    return new TestLineIndex(tests, classes, testLines);
+  }
+
+  public int getTestsCount() {
+    return myTests.length;
+  }
+
+  /**
+   * @return names of the tests that cover any of the lines, in alphabetical order
+   */
+  public List<String> findTests(String className, int[] lines) {
+    return findTests(Collections.singletonMap(className, lines));
+  }
+
+  /**
+   * @param lines map from class name to lines, e.g. the changed lines
+   * @return names of the tests that cover any of the lines, in alphabetical order
+   */
+  public List<String> findTests(Map<String, int[]> lines) {
+    final long[] result = new long[(myTests.length + 63) >>> 6];
+    for (Map.Entry<String, int[]> entry : lines.entrySet()) {
+      final ClassLines classLines = myClasses.get(entry.getKey());
+      if (classLines == null) continue;
+      for (int line : entry.getValue()) {
+        final int index = Arrays.binarySearch(classLines.myLines, line);
+        if (index >= 0) {
+          classLines.myTests[index].addTo(result);
+        }
+      }
+    }
+    final List<String> tests = new ArrayList<String>();
+    for (int i = 0; i < result.length; i++) {
+      long word = result[i];
+      while (word != 0) {
+        tests.add(myTests[(i << 6) | Long.numberOfTrailingZeros(word)]);
+        word &= word - 1;
+      }
+    }
+    return tests;
+  }
+
+  /**
+   * @return map from class name to the sorted lines covered by the test, or null if the test is unknown
+   */
+  public Map<String, int[]> getLines(String testName) {
+    final Integer testId = myTestIds.get(testName);
+    if (testId == null) return null;
+    final Map<String, int[]> result = new HashMap<String, int[]>();
+    for (Map.Entry<String, CompactBitmap> entry : myTestLines.get(testId).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toArray());
+    }
+    return result;
+  }
+
+  /**
+   * Format: <code>[header][tests count]{[test name]}[classes count]{[class name][lines count]{[line][tests]}}
+   * {[test classes count]{[class id][lines]}}</code>, where classes are referenced by their order.
+   */
+  public void save(File file) throws IOException {
+    final DataOutputStream out = CoverageIOUtil.openWriteFile(file);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(myTests.length);
+      for (String test : myTests) {
+        out.writeUTF(test);
+      }
+      final Map<String, Integer> classIds = new HashMap<String, Integer>(myClasses.size() * 2);
+      out.writeInt(myClasses.size());
+      for (Map.Entry<String, ClassLines> entry : myClasses.entrySet()) {
+        classIds.put(entry.getKey(), classIds.size());
+        out.writeUTF(entry.getKey());
+        final ClassLines classLines = entry.getValue();
+        out.writeInt(classLines.myLines.length);
+        for (int i = 0; i < classLines.myLines.length; i++) {
+          out.writeInt(classLines.myLines[i]);
+          classLines.myTests[i].write(out);
+        }
+      }
+      for (Map<String, CompactBitmap> testLines : myTestLines) {
+        out.writeInt(testLines.size());
+        for (Map.Entry<String, CompactBitmap> entry : testLines.entrySet()) {
+          out.writeInt(classIds.get(entry.getKey()));
+          entry.getValue().write(out);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static TestLineIndex load(File file) throws IOException {
+    final DataInputStream in = CoverageIOUtil.openReadFile(file);
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unknown format of test index file " + file.getPath());
+      }
+      final String[] tests = new String[in.readInt()];
+      for (int i = 0; i < tests.length; i++) {
+        tests[i] = in.readUTF();
+      }
+      final int classesCount = in.readInt();
+      final String[] classNames = new String[classesCount];
+      final Map<String, ClassLines> classes = new LinkedHashMap<String, ClassLines>(classesCount * 2);
+      for (int c = 0; c < classesCount; c++) {
+        classNames[c] = in.readUTF();
+        final int[] lines = new int[in.readInt()];
+        final CompactBitmap[] lineTests = new CompactBitmap[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+          lines[i] = in.readInt();
+          lineTests[i] = CompactBitmap.read(in);
+        }
+        classes.put(classNames[c], new ClassLines(lines, lineTests));
+      }
+      final List<Map<String, CompactBitmap>> testLines = new ArrayList<Map<String, CompactBitmap>>(tests.length);
+      for (int t = 0; t < tests.length; t++) {
+        final int size = in.readInt();
+        final Map<String, CompactBitmap> classLines = new HashMap<String, CompactBitmap>(size * 2);
+        for (int i = 0; i < size; i++) {
+          final String className = classNames[in.readInt()];
+          classLines.put(className, CompactBitmap.read(in));
+        }
+        testLines.add(classLines);
+      }
+      return new TestLineIndex(tests, classes, testLines);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static class ClassLines {
+    private final int[] myLines;
+    private final CompactBitmap[] myTests;
+
+    private ClassLines(int[] lines, CompactBitmap[] tests) {
+      myLines = lines;
+      myTests = tests;
+    }
+  }
+
+  private static class IntList {
+    private int[] myValues = new int[4];
+    private int mySize;
+
+    private void add(int value) {
+      if (mySize == myValues.length) {
+        myValues = Arrays.copyOf(myValues, mySize * 2);
+      }
+      myValues[mySize++] = value;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.classlist;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.MethodFirstHit;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClassListExporterTest {
+  @Test
+  public void testClassListOrder() throws IOException {
+    final File classList = File.createTempFile("classes", ".classlist");
+    new ClassListExporter(Collections.<File>emptyList()).export(createProjectData(), classList, null);
+
+    final String[] lines = FileUtils.readAll(classList).trim().split("\n");
+    Assert.assertEquals(Arrays.asList("c/C", "b/B", "a/A", "a/A$Inner"), Arrays.asList(lines));
+  }
+
+  @Test
+  public void testRootsSummary() throws IOException {
+    final File directory = File.createTempFile("classes", "");
+    Assert.assertTrue(directory.delete() && directory.mkdir());
+    createFile(new File(directory, "a/A.class"));
+    createFile(new File(directory, "a/A$Inner.class"));
+    createFile(new File(directory, "d/D.class"));
+    final File jar = File.createTempFile("unused", ".jar");
+    final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      zip.putNextEntry(new ZipEntry("e/E.class"));
+      zip.closeEntry();
+      zip.putNextEntry(new ZipEntry("META-INF/versions/9/e/E.class"));
+      zip.closeEntry();
+    } finally {
+      zip.close();
+    }
+
+    final File classList = File.createTempFile("classes", ".classlist");
+    final File summaryFile = File.createTempFile("summary", ".json");
+    new ClassListExporter(Arrays.asList(directory, jar)).export(createProjectData(), classList, summaryFile);
+
+    final JSONObject summary = new JSONObject(FileUtils.readAll(summaryFile));
+    Assert.assertEquals(4, summary.getInt(ClassListExporter.EXECUTED_CLASSES_TAG));
+    Assert.assertEquals(2, summary.getInt(ClassListExporter.UNKNOWN_CLASSES_TAG));
+    final JSONArray roots = summary.getJSONArray(ClassListExporter.ROOTS_TAG);
+    Assert.assertEquals(2, roots.length());
+    Assert.assertEquals(3, roots.getJSONObject(0).getInt(ClassListExporter.CLASSES_TAG));
+    Assert.assertEquals(2, roots.getJSONObject(0).getInt(ClassListExporter.EXECUTED_CLASSES_TAG));
+    Assert.assertEquals(1, roots.getJSONObject(1).getInt(ClassListExporter.CLASSES_TAG));
+    Assert.assertEquals(0, roots.getJSONObject(1).getInt(ClassListExporter.EXECUTED_CLASSES_TAG));
+  }
+
+  private static void createFile(File file) throws IOException {
+    file.getParentFile().mkdirs();
+    FileUtils.write(file, "");
+  }
+
+  private static ProjectData createProjectData() {
+    final ProjectData projectData = new ProjectData();
+    createClass(projectData, "a.A", 1);
+    createClass(projectData, "a.A$Inner", 1);
+    createClass(projectData, "b.B", 1).addFirstHit("foo()V", new MethodFirstHit(5, 100, "main"));
+    final ClassData c = createClass(projectData, "c.C", 0);
+    c.addFirstHit("foo()V", new MethodFirstHit(7, 200, "main"));
+    c.addFirstHit("bar()V", new MethodFirstHit(2, 50, "main"));
+    createClass(projectData, "d.D", 0);
+    return projectData;
+  }
+
+  private static ClassData createClass(ProjectData projectData, String name, int hits) {
+    final ClassData classData = projectData.getOrCreateClassData(name);
+    final LineData line = new LineData(1, "foo()V");
+    line.setHits(hits);
+    classData.setLines(new LineData[]{null, line});
+    return classData;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.profile;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.report.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ProfileExporterTest {
+  private static final String METHOD = "foo(ILjava/lang/String;)V";
+
+  @Test
+  public void testHotLinesAndMethods() throws IOException {
+    final JSONObject profile = export(createProjectData(), 2, null);
+
+    Assert.assertEquals(1111, profile.getLong(ProfileExporter.TOTAL_HITS_TAG));
+    final JSONArray lines = profile.getJSONArray(ProfileExporter.LINES_TAG);
+    Assert.assertEquals(2, lines.length());
+    Assert.assertEquals(3, lines.getJSONObject(0).getInt(ProfileExporter.LINE_TAG));
+    Assert.assertEquals(1000, lines.getJSONObject(0).getLong(ProfileExporter.HITS_TAG));
+    Assert.assertEquals(2, lines.getJSONObject(1).getInt(ProfileExporter.LINE_TAG));
+    Assert.assertEquals(100, lines.getJSONObject(1).getLong(ProfileExporter.HITS_TAG));
+
+    final JSONArray methods = profile.getJSONArray(ProfileExporter.METHODS_TAG);
+    Assert.assertEquals(2, methods.length());
+    final JSONObject hottest = methods.getJSONObject(0);
+    Assert.assertEquals("a.b.A", hottest.getString(ProfileExporter.CLASS_TAG));
+    Assert.assertEquals(METHOD, hottest.getString(ProfileExporter.METHOD_TAG));
+    Assert.assertEquals(1100, hottest.getLong(ProfileExporter.HITS_TAG));
+    Assert.assertEquals(2, hottest.getInt(ProfileExporter.LINES_COUNT_TAG));
+  }
+
+  @Test
+  public void testImbalancedBranches() throws IOException {
+    final JSONObject profile = export(createProjectData(), 10, null);
+
+    final JSONArray branches = profile.getJSONArray(ProfileExporter.BRANCHES_TAG);
+    Assert.assertEquals(2, branches.length());
+
+    final JSONObject jump = branches.getJSONObject(0);
+    Assert.assertEquals("JUMP", jump.getString(ProfileExporter.TYPE_TAG));
+    Assert.assertEquals(3, jump.getInt(ProfileExporter.LINE_TAG));
+    Assert.assertEquals(1000, jump.getLong(ProfileExporter.HITS_TAG));
+    Assert.assertEquals(0.98, jump.getDouble(ProfileExporter.BIAS_TAG), 1e-9);
+
+    final JSONObject switchBranch = branches.getJSONObject(1);
+    Assert.assertEquals("SWITCH", switchBranch.getString(ProfileExporter.TYPE_TAG));
+    Assert.assertEquals(0.0, switchBranch.getDouble(ProfileExporter.BIAS_TAG), 1e-9);
+    final JSONArray outcomes = switchBranch.getJSONArray(ProfileExporter.OUTCOMES_TAG);
+    Assert.assertEquals(3, outcomes.length());
+    Assert.assertEquals("case 1", outcomes.getJSONObject(0).getString(ProfileExporter.OUTCOME_TAG));
+    Assert.assertEquals("default", outcomes.getJSONObject(2).getString(ProfileExporter.OUTCOME_TAG));
+  }
+
+  @Test
+  public void testCollapsedStacks() throws IOException {
+    final File stacks = File.createTempFile("profile", ".collapsed");
+    export(createProjectData(), 1, stacks);
+
+    final String[] lines = FileUtils.readAll(stacks).trim().split("\n");
+    Arrays.sort(lines);
+    Assert.assertEquals(3, lines.length);
+    Assert.assertEquals("B;bar();line 1 11", lines[0]);
+    Assert.assertEquals("a.b;A;foo(int,java.lang.String);line 2 100", lines[1]);
+    Assert.assertEquals("a.b;A;foo(int,java.lang.String);line 3 1000", lines[2]);
+  }
+
+  private static JSONObject export(ProjectData projectData, int top, File collapsedStacksFile) throws IOException {
+    final File result = File.createTempFile("profile", ".json");
+    new ProfileExporter(top).export(projectData, result, collapsedStacksFile);
+    return new JSONObject(FileUtils.readAll(result));
+  }
+
+  private static ProjectData createProjectData() {
+    final ProjectData projectData = new ProjectData();
+
+    final ClassData a = projectData.getOrCreateClassData("a.b.A");
+    final LineData line1 = new LineData(1, METHOD);
+    final LineData line2 = new LineData(2, METHOD);
+    line2.setHits(100);
+    final LineData line3 = new LineData(3, METHOD);
+    line3.setHits(1000);
+    line3.setTrueHits(0, 990);
+    line3.setFalseHits(0, 10);
+    line3.fillArrays();
+    a.setLines(new LineData[]{null, line1, line2, line3});
+
+    final ClassData b = projectData.getOrCreateClassData("B");
+    final LineData line4 = new LineData(1, "bar()V");
+    line4.setHits(11);
+    final int[] keys = {1, 2};
+    line4.setSwitchHits(0, keys, new int[]{4, 4});
+    line4.setDefaultHits(0, keys, 4);
+    line4.fillArrays();
+    b.setLines(new LineData[]{null, line4});
+    return projectData;
+  }
+}
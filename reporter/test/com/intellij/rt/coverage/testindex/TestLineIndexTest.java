@@ -0,0 +1,145 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testindex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestLineIndexTest {
+  @Test
+  public void testFindTests() throws IOException {
+    final TestLineIndex index = saveAndLoad(TestLineIndex.build(createData()));
+
+    Assert.assertEquals(3, index.getTestsCount());
+    Assert.assertEquals(Arrays.asList("A.test1", "A.test2"), index.findTests("a.B", new int[]{10}));
+    Assert.assertEquals(Arrays.asList("A.test2"), index.findTests("a.B", new int[]{20}));
+    Assert.assertEquals(Arrays.asList("A.test2", "C.test3"), index.findTests("a.B", new int[]{20, 70000}));
+    Assert.assertTrue(index.findTests("a.B", new int[]{11}).isEmpty());
+    Assert.assertTrue(index.findTests("a.Unknown", new int[]{10}).isEmpty());
+
+    final Map<String, int[]> changes = new HashMap<String, int[]>();
+    changes.put("a.B", new int[]{20});
+    changes.put("a.C", new int[]{1});
+    Assert.assertEquals(Arrays.asList("A.test1", "A.test2"), index.findTests(changes));
+  }
+
+  @Test
+  public void testGetLines() throws IOException {
+    final TestLineIndex index = saveAndLoad(TestLineIndex.build(createData()));
+
+    final Map<String, int[]> lines = index.getLines("C.test3");
+    Assert.assertEquals(1, lines.size());
+    Assert.assertEquals("[5, 70000]", Arrays.toString(lines.get("a.B")));
+    Assert.assertEquals("[1, 2]", Arrays.toString(index.getLines("A.test1").get("a.C")));
+    Assert.assertNull(index.getLines("unknown"));
+  }
+
+  @Test
+  public void testManyTests() throws IOException {
+    final Map<String, Map<String, int[]>> data = new HashMap<String, Map<String, int[]>>();
+    final int testsCount = 100000;
+    for (int i = 0; i < testsCount; i++) {
+      final Map<String, int[]> classes = new HashMap<String, int[]>();
+      // line 1 is covered by all tests, line 2 by every 10th test
+      classes.put("a.B", i % 10 == 0 ? new int[]{1, 2} : new int[]{1});
+      data.put(String.format("T%06d", i), classes);
+    }
+    final TestLineIndex index = saveAndLoad(TestLineIndex.build(data));
+
+    Assert.assertEquals(testsCount, index.findTests("a.B", new int[]{1}).size());
+    final List<String> tests = index.findTests("a.B", new int[]{2});
+    Assert.assertEquals(testsCount / 10, tests.size());
+    Assert.assertEquals("T000000", tests.get(0));
+    Assert.assertEquals("T099990", tests.get(tests.size() - 1));
+  }
+
+  @Test
+  public void testBitmap() throws IOException {
+    final int[] values = new int[10000];
+    int size = 0;
+    for (int i = 0; i < 5000; i++) {
+      values[size++] = i * 3;
+    }
+    // duplicates
+    values[size++] = 14997;
+    for (int i = 0; i < 100; i++) {
+      values[size++] = 1000000 + i * 1000;
+    }
+    final CompactBitmap bitmap = CompactBitmap.fromSorted(values, size);
+    Assert.assertEquals(5100, bitmap.size());
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bitmap.write(new DataOutputStream(bytes));
+    final CompactBitmap loaded = CompactBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    Assert.assertEquals(5100, loaded.size());
+    Assert.assertTrue(loaded.contains(0));
+    Assert.assertTrue(loaded.contains(14997));
+    Assert.assertFalse(loaded.contains(14998));
+    Assert.assertTrue(loaded.contains(1099000));
+    Assert.assertFalse(loaded.contains(1099001));
+    final int[] array = loaded.toArray();
+    Assert.assertEquals(5100, array.length);
+    Assert.assertEquals(14997, array[4999]);
+    Assert.assertEquals(1000000, array[5000]);
+
+    final long[] words = new long[(1100000 >>> 6) + 1];
+    loaded.addTo(words);
+    int count = 0;
+    for (long word : words) {
+      count += Long.bitCount(word);
+    }
+    Assert.assertEquals(5100, count);
+  }
+
+  private static Map<String, Map<String, int[]>> createData() {
+    final Map<String, Map<String, int[]>> data = new HashMap<String, Map<String, int[]>>();
+    final Map<String, int[]> test1 = new HashMap<String, int[]>();
+    test1.put("a.B", new int[]{10});
+    test1.put("a.C", new int[]{2, 1});
+    data.put("A.test1", test1);
+    final Map<String, int[]> test2 = new HashMap<String, int[]>();
+    test2.put("a.B", new int[]{10, 20});
+    data.put("A.test2", test2);
+    final Map<String, int[]> test3 = new HashMap<String, int[]>();
+    test3.put("a.B", new int[]{5, 70000});
+    test3.put("a.D", new int[0]);
+    data.put("C.test3", test3);
+    return data;
+  }
+
+  private static TestLineIndex saveAndLoad(TestLineIndex index) throws IOException {
+    final File file = File.createTempFile("tests", ".idx");
+    try {
+      index.save(file);
+      return TestLineIndex.load(file);
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -46,7 +46,11 @@ public class ClassData implements CoverageData {
   /**
    * Storage for test tracking data.
    */
-  private volatile boolean[] myTraceMask;
+  private volatile long[] myTraceMask;
+  /**
+   * Test tracking epoch in which the trace mask has been cleared last time.
+   */
+  private int myTraceEpoch;
 
   /**
    * Set of lines that were ignored during instrumentation.
@@ -62,6 +66,17 @@ public class ClassData implements CoverageData {
    */
   private boolean myFullyAnalysed = false;
 
+  /**
+   * This flag shows that the class has been instrumented with line coverage
+   * in a branch coverage run, as the agent overhead budget was exceeded.
+   */
+  private boolean myDegraded = false;
+
+  /**
+   * Method signature to its first execution, collected when first hits recording is enabled.
+   */
+  private Map<String, MethodFirstHit> myFirstHits;
+
   public ClassData(final String name) {
     myClassName = name;
   }
@@ -118,6 +133,15 @@ public class ClassData implements CoverageData {
     if (!isFullyAnalysed() && classData.isFullyAnalysed()) {
       setFullyAnalysed(true);
     }
+    if (classData.isDegraded()) {
+      setDegraded(true);
+    }
+    final Map<String, MethodFirstHit> firstHits = classData.getFirstHits();
+    if (firstHits != null) {
+      for (Map.Entry<String, MethodFirstHit> entry : firstHits.entrySet()) {
+        addFirstHit(entry.getKey(), entry.getValue());
+      }
+    }
   }
 
   private void mergeLines(LineData[] dLines) {
@@ -243,6 +267,34 @@ public class ClassData implements CoverageData {
     myFullyAnalysed = value;
   }
 
+  public boolean isDegraded() {
+    return myDegraded;
+  }
+
+  public void setDegraded(boolean value) {
+    myDegraded = value;
+  }
+
+  /**
+   * Register the first execution of a method, the earliest one is kept.
+   */
+  public synchronized void addFirstHit(String methodSignature, MethodFirstHit firstHit) {
+    if (myFirstHits == null) {
+      myFirstHits = new HashMap<String, MethodFirstHit>();
+    }
+    final MethodFirstHit existing = myFirstHits.get(methodSignature);
+    if (existing == null || existing.getOrder() > firstHit.getOrder()) {
+      myFirstHits.put(methodSignature, firstHit);
+    }
+  }
+
+  /**
+   * @return method signature to its first execution, or null if no first hits are recorded
+   */
+  public synchronized Map<String, MethodFirstHit> getFirstHits() {
+    return myFirstHits == null ? null : new HashMap<String, MethodFirstHit>(myFirstHits);
+  }
+
   public synchronized void createHitsMask(int size) {
     if (myHitsMask != null && myHitsMask.length >= size) return;
     int[] newMask = new int[size];
@@ -252,11 +304,14 @@ public class ClassData implements CoverageData {
     myHitsMask = newMask;
   }
 
+  /**
+   * @param size maximal line number + 1
+   */
   public synchronized void createTraceMask(int size) {
-    if (myTraceMask != null && myTraceMask.length >= size) return;
-    final boolean[] newMask = new boolean[size];
+    if (myTraceMask != null && myTraceMask.length >= TraceMaskUtil.getWordsCount(size)) return;
+    final long[] newMask = TraceMaskUtil.create(size);
     if (myTraceMask != null) {
-      System.arraycopy(newMask, 0, myTraceMask, 0, myTraceMask.length);
+      System.arraycopy(myTraceMask, 0, newMask, 0, myTraceMask.length);
     }
     myTraceMask = newMask;
   }
@@ -269,14 +324,22 @@ public class ClassData implements CoverageData {
     myHitsMask = hits;
   }
 
-  public boolean[] getTraceMask() {
+  public long[] getTraceMask() {
     return myTraceMask;
   }
 
-  public void setTraceMask(boolean[] traceMask) {
+  public void setTraceMask(long[] traceMask) {
     myTraceMask = traceMask;
   }
 
+  public int getTraceEpoch() {
+    return myTraceEpoch;
+  }
+
+  public void setTraceEpoch(int traceEpoch) {
+    myTraceEpoch = traceEpoch;
+  }
+
   public static int trimHits(int hits) {
     if (0 <= hits && hits <= MAX_HITS) return hits;
     return MAX_HITS;
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Per test coverage tracking without line trace probes.
+ * <p>
+ * A class is registered for the running test on the first call of its methods during the test,
+ * the same way as in class test tracking mode, and the line hits of the class are copied at this moment.
+ * The classes of the methods running in the thread that starts the test are registered at the test start.
+ * When the test ends, the hits of the registered classes only are compared with these copies,
+ * the lines with changed hits are the lines executed during the test. So the cost of a test boundary
+ * is proportional to the number of lines in the classes executed by the test, and the copies are dropped after the test.
+ * <p>
+ * Hits must be counted, see {@link com.intellij.rt.coverage.util.OptionsUtil#CALCULATE_HITS_COUNT},
+ * otherwise a line executed in a previous test is not detected again.
+ * Tests must be run sequentially, as the lines executed in all threads are attributed to the running test.
+ */
+class HitsDiffTracker {
+  private final Map<ClassData, int[]> myStartHits = new IdentityHashMap<ClassData, int[]>();
+  private boolean myTestRunning;
+
+  /**
+   * @param stackClasses classes of the methods that are running in the thread that starts the test,
+   *                     they have been entered before the test and are registered explicitly
+   */
+  synchronized void start(Collection<ClassData> stackClasses) {
+    clearRegistrations();
+    myTestRunning = true;
+    for (ClassData classData : stackClasses) {
+      register(classData);
+    }
+  }
+
+  /**
+   * Register the class for the running test. The registration flag of the class is set on success.
+   *
+   * @return true if a test is running now
+   */
+  synchronized boolean register(ClassData classData) {
+    if (!myTestRunning) return false;
+    final long[] traceMask = classData.getTraceMask();
+    if (traceMask == null) return false;
+    if (!myStartHits.containsKey(classData)) {
+      final int[] hits = classData.getHitsMask();
+      myStartHits.put(classData, hits == null ? new int[0] : hits.clone());
+    }
+    TraceMaskUtil.setRegistered(traceMask, true);
+    return true;
+  }
+
+  /**
+   * @return trace of the lines executed since the test start, see {@link TraceMaskUtil}, or null if no test is running
+   */
+  synchronized Map<Object, long[]> end() {
+    if (!myTestRunning) return null;
+    myTestRunning = false;
+    final Map<Object, long[]> trace = new HashMap<Object, long[]>();
+    for (Map.Entry<ClassData, int[]> entry : myStartHits.entrySet()) {
+      final ClassData classData = entry.getKey();
+      final long[] mask = diff(classData, entry.getValue());
+      if (mask != null) {
+        trace.put(classData, mask);
+      }
+    }
+    clearRegistrations();
+    return trace;
+  }
+
+  private static long[] diff(ClassData classData, int[] startHits) {
+    final int[] hits = classData.getHitsMask();
+    final Object[] lines = classData.getLines();
+    if (hits == null || lines == null) return null;
+    long[] mask = null;
+    for (Object line : lines) {
+      if (line == null) continue;
+      final LineData lineData = (LineData) line;
+      final int id = lineData.getId();
+      if (id < 0 || id >= hits.length) continue;
+      final int startLineHits = id < startHits.length ? startHits[id] : 0;
+      if (hits[id] == startLineHits) continue;
+      if (mask == null) {
+        mask = TraceMaskUtil.create(lines.length);
+      }
+      TraceMaskUtil.setLine(mask, lineData.getLineNumber());
+    }
+    return mask;
+  }
+
+  private void clearRegistrations() {
+    for (ClassData classData : myStartHits.keySet()) {
+      TraceMaskUtil.setRegistered(classData.getTraceMask(), false);
+    }
+    myStartHits.clear();
+  }
+}
@@ -231,7 +231,7 @@ public class LineData implements CoverageData {
     myHits = ClassData.trimHits(hits);
   }
 
-  public void setTestName(String testName) {
+  public synchronized void setTestName(String testName) {
     if (testName != null) {
       if (myUniqueTestName == null) {
         if (myMayBeUnique) myUniqueTestName = testName;
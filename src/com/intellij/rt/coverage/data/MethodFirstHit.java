@@ -0,0 +1,49 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+/**
+ * The first execution of a method.
+ */
+public class MethodFirstHit {
+  private final int myOrder;
+  private final long myTimeNs;
+  private final String myThreadName;
+
+  /**
+   * @param order      sequential number of the first hit among all the methods
+   * @param timeNs     time of the first hit since the coverage agent start, in nanoseconds
+   * @param threadName name of the thread that executed the method first
+   */
+  public MethodFirstHit(int order, long timeNs, String threadName) {
+    myOrder = order;
+    myTimeNs = timeNs;
+    myThreadName = threadName;
+  }
+
+  public int getOrder() {
+    return myOrder;
+  }
+
+  public long getTimeNs() {
+    return myTimeNs;
+  }
+
+  public String getThreadName() {
+    return myThreadName;
+  }
+}
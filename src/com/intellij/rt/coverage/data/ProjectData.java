@@ -25,6 +25,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -41,6 +44,8 @@ public class ProjectData implements CoverageData, Serializable {
   private static final MethodCaller GET_CLASS_DATA_METHOD = new MethodCaller("getClassData", new Class[]{String.class});
   private static final MethodCaller REGISTER_CLASS_FOR_TRACE_METHOD = new MethodCaller("registerClassForTrace", new Class[]{Object.class});
   private static final MethodCaller TRACE_LINE_METHOD = new MethodCaller("traceLine", new Class[]{Object.class, int.class});
+  private static final MethodCaller LAZY_TRAP_METHOD = new MethodCaller("lazyTrap", new Class[]{String.class, int.class});
+  private static final MethodCaller FIRST_HIT_METHOD = new MethodCaller("recordFirstHit", new Class[]{String.class, String.class});
 
   private boolean myStopped;
 
@@ -50,14 +55,37 @@ public class ProjectData implements CoverageData, Serializable {
   private boolean myTestTracking;
   private boolean myBranchCoverage = true;
   private boolean myCollectInstructions;
+  private boolean myFirstHitsEnabled;
+
+  /**
+   * Start of the first hits time line and the counter of methods executed so far.
+   */
+  private final long myStartNanos = System.nanoTime();
+  private final AtomicInteger myFirstHitsCounter = new AtomicInteger();
 
   /**
    * Test tracking trace storage. Test tracking supports only sequential tests (but code inside one test could be parallel).
    * Nevertheless, in case of parallel tests run setting storage to null truncates coverage significantly.
    * Using CAS for the storage update slightly improves test tracking coverage as the data are not cleared too frequently.
    */
-  private final AtomicReference<Map<Object, boolean[]>> myTrace = new AtomicReference<Map<Object, boolean[]>>();
+  private final AtomicReference<Map<Object, long[]>> myTrace = new AtomicReference<Map<Object, long[]>>();
+  /**
+   * Incremented on each new trace storage, so that class traces from the previous tests are cleared lazily on registration.
+   */
+  private final AtomicInteger myTraceEpoch = new AtomicInteger();
+  /**
+   * Per test trace storage, which is used instead of {@link #myTrace} when tests are run in parallel.
+   */
+  private TestTraceContexts myTestTraceContexts;
+  /**
+   * Detects executed lines by hits changes, which is used instead of {@link #myTrace} when trace probes are not inserted.
+   */
+  private HitsDiffTracker myHitsDiffTracker;
   private File myTracesDir;
+  /**
+   * Storage of all test traces in a few files, which is used instead of a file per test when enabled.
+   */
+  private volatile TestTraceStore myTestTraceStore;
   private List<Pattern> myIncludePatterns;
   private List<Pattern> myExcludePatterns;
 
@@ -71,21 +99,19 @@ public class ProjectData implements CoverageData, Serializable {
   private static Object ourProjectDataObject;
 
   private TestTrackingCallback myTestTrackingCallback;
+  private LazyInstrumentationCallback myLazyInstrumentationCallback;
 
   private List<Pattern> myAnnotationsToIgnore;
-  private Set<String> myIgnoredMethods;
+  private final Map<MethodKey, Boolean> myIgnoredMethods = new ConcurrentHashMap<MethodKey, Boolean>();
 
   public ClassData getClassData(final String name) {
     return myClasses.get(name);
   }
 
   public ClassData getOrCreateClassData(String name) {
-    ClassData classData = myClasses.get(name);
-    if (classData == null) {
-      classData = new ClassData(name);
-      myClasses.put(name, classData);
-    }
-    return classData;
+    final ClassData classData = myClasses.get(name);
+    if (classData != null) return classData;
+    return myClasses.putIfAbsent(name, new ClassData(name));
   }
 
   public static ProjectData getProjectData() {
@@ -94,6 +120,10 @@ public class ProjectData implements CoverageData, Serializable {
 
   public void stop() {
     myStopped = true;
+    final TestTraceStore store = myTestTraceStore;
+    if (store != null) {
+      store.close();
+    }
   }
 
   public boolean isStopped() {
@@ -116,6 +146,14 @@ public class ProjectData implements CoverageData, Serializable {
     myCollectInstructions = isEnabled;
   }
 
+  public boolean isFirstHitsEnabled() {
+    return myFirstHitsEnabled;
+  }
+
+  public void setFirstHitsEnabled(boolean isEnabled) {
+    myFirstHitsEnabled = isEnabled;
+  }
+
   public int getClassesNumber() {
     return myClasses.size();
   }
@@ -138,6 +176,14 @@ public class ProjectData implements CoverageData, Serializable {
     return instructions;
   }
 
+  public LazyInstrumentationCallback getLazyInstrumentationCallback() {
+    return myLazyInstrumentationCallback;
+  }
+
+  public void setLazyInstrumentationCallback(LazyInstrumentationCallback callback) {
+    myLazyInstrumentationCallback = callback;
+  }
+
   public List<Pattern> getAnnotationsToIgnore() {
     return myAnnotationsToIgnore;
   }
@@ -146,20 +192,12 @@ public class ProjectData implements CoverageData, Serializable {
     myAnnotationsToIgnore = annotations;
   }
 
-  public synchronized boolean isMethodIgnored(String owner, String methodName, String desc) {
-    return myIgnoredMethods != null && myIgnoredMethods.contains(createDesc(owner, methodName, desc));
-  }
-
-  public synchronized void addIgnoredMethod(String owner, String methodName, String desc) {
-    if (myIgnoredMethods == null) {
-      myIgnoredMethods = Collections.newSetFromMap(new HashMap<String, Boolean>());
-    }
-    final String methodDesc = createDesc(owner, methodName, desc);
-    myIgnoredMethods.add(methodDesc);
+  public boolean isMethodIgnored(String owner, String methodName, String desc) {
+    return !myIgnoredMethods.isEmpty() && myIgnoredMethods.containsKey(new MethodKey(owner, methodName, desc));
   }
 
-  private static String createDesc(String owner, String methodName, String desc) {
-    return owner + "#" + methodName + desc;
+  public void addIgnoredMethod(String owner, String methodName, String desc) {
+    myIgnoredMethods.put(new MethodKey(owner, methodName, desc), Boolean.TRUE);
   }
 
 
@@ -179,7 +217,11 @@ public class ProjectData implements CoverageData, Serializable {
     ourProjectData.myStopped = false;
     ourProjectData.myBranchCoverage = branchCoverage;
     ourProjectData.myTestTracking = traceLines;
-    ourProjectData.myCollectInstructions = OptionsUtil.INSTRUCTIONS_COVERAGE_ENABLED;
+    ourProjectData.myTestTraceContexts = traceLines && OptionsUtil.PARALLEL_TEST_TRACKING ? new TestTraceContexts() : null;
+    ourProjectData.myHitsDiffTracker = traceLines && OptionsUtil.HITS_DIFF_TEST_TRACKING ? new HitsDiffTracker() : null;
+    // deferred instructions are computed during the report finalization
+    ourProjectData.myCollectInstructions = OptionsUtil.INSTRUCTIONS_COVERAGE_ENABLED && !OptionsUtil.INSTRUCTIONS_DEFERRED;
+    ourProjectData.myFirstHitsEnabled = OptionsUtil.FIRST_HITS_ENABLED;
     ourProjectData.myDataFile = dataFile;
     ourProjectData.myIncludePatterns = includePatterns;
     ourProjectData.myExcludePatterns = excludePatterns;
@@ -298,39 +340,98 @@ public class ProjectData implements CoverageData, Serializable {
    * This method could be called in test tracking mode by test engine listeners
    */
   public void testEnded(final String name) {
-    final Map<Object, boolean[]> trace = myTrace.get();
+    final TestTraceContexts contexts = myTestTraceContexts;
+    if (contexts != null) {
+      final Map<Object, long[]> trace = contexts.end(name);
+      if (trace != null) saveTestTrace(name, trace, false);
+      return;
+    }
+    final HitsDiffTracker tracker = myHitsDiffTracker;
+    if (tracker != null) {
+      final Map<Object, long[]> trace = tracker.end();
+      if (trace != null) saveTestTrace(name, trace, false);
+      return;
+    }
+    final Map<Object, long[]> trace = myTrace.get();
     if (trace == null) return;
+    try {
+      saveTestTrace(name, trace, true);
+    } finally {
+      myTrace.compareAndSet(trace, null);
+    }
+  }
+
+  private void saveTestTrace(String name, Map<Object, long[]> trace, boolean clearTrace) {
     File tracesDir = getTracesDir();
     try {
-      TestTrackingIOUtil.saveTestResults(tracesDir, name, trace);
+      if (OptionsUtil.TEST_TRACKING_STORE_ENABLED) {
+        getTestTraceStore(tracesDir).add(name, trace);
+      } else {
+        TestTrackingIOUtil.saveTestResults(tracesDir, name, trace);
+      }
     } catch (IOException e) {
       ErrorReporter.reportError("Error writing traces for test '" + name + "' to directory " + tracesDir.getPath(), e);
     } finally {
-      for (Map.Entry<Object, boolean[]> entry : trace.entrySet()) {
+      for (Map.Entry<Object, long[]> entry : trace.entrySet()) {
         final ClassData classData = (ClassData) entry.getKey();
-        final boolean[] touched = entry.getValue();
+        final long[] touched = entry.getValue();
         final Object[] lines = classData.getLines();
-        final int lineCount = Math.min(lines.length, touched.length);
-        for (int i = 1; i < lineCount; i++) {
+        for (int i = TraceMaskUtil.nextLine(touched, 1); 0 <= i && i < lines.length; i = TraceMaskUtil.nextLine(touched, i + 1)) {
           final LineData lineData = (LineData) lines[i];
-          if (lineData == null || !touched[i]) continue;
+          if (lineData == null) continue;
           lineData.setTestName(name);
         }
-        myTestTrackingCallback.clearTrace(classData);
+        if (clearTrace) {
+          myTestTrackingCallback.clearTrace(classData);
+        }
       }
-      myTrace.compareAndSet(trace, null);
     }
   }
 
   /**
-   * This method could be called in test tracking mode by test engine listeners
+   * This method could be called in test tracking mode by test engine listeners.
+   * When tests are run in parallel, the test is bound to the current thread and to the threads started by it,
+   * so the test should be started in the thread that runs it.
    */
-  public void testStarted(final String ignoredName) {
-    if (myTestTracking) myTrace.compareAndSet(null, new ConcurrentHashMap<Object, boolean[]>());
+  public void testStarted(final String name) {
+    if (!myTestTracking) return;
+    final TestTraceContexts contexts = myTestTraceContexts;
+    if (contexts != null) {
+      contexts.start(name);
+      return;
+    }
+    final HitsDiffTracker tracker = myHitsDiffTracker;
+    if (tracker != null) {
+      tracker.start(getStackClasses());
+      return;
+    }
+    if (myTrace.compareAndSet(null, new ConcurrentHashMap<Object, long[]>())) {
+      myTraceEpoch.incrementAndGet();
+    }
   }
   //---------------------------------------------------------- //
 
 
+  private List<ClassData> getStackClasses() {
+    final List<ClassData> result = new ArrayList<ClassData>();
+    for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+      final ClassData classData = getClassData(element.getClassName());
+      if (classData != null) result.add(classData);
+    }
+    return result;
+  }
+
+  private TestTraceStore getTestTraceStore(File tracesDir) {
+    TestTraceStore store = myTestTraceStore;
+    if (store != null) return store;
+    synchronized (this) {
+      if (myTestTraceStore == null) {
+        myTestTraceStore = new TestTraceStore(tracesDir);
+      }
+      return myTestTraceStore;
+    }
+  }
+
   private File getTracesDir() {
     if (myTracesDir == null) {
       myTracesDir = createTracesDir(myDataFile);
@@ -372,9 +473,14 @@ public class ProjectData implements CoverageData, Serializable {
   @SuppressWarnings("unused")
   public static void traceLine(Object classData, int line) {
     if (ourProjectData != null) {
-      final Map<Object, boolean[]> traces = ourProjectData.myTrace.get();
+      final TestTraceContexts contexts = ourProjectData.myTestTraceContexts;
+      if (contexts != null) {
+        contexts.traceLine((ClassData) classData, line);
+        return;
+      }
+      final Map<Object, long[]> traces = ourProjectData.myTrace.get();
       if (traces != null) {
-        final boolean[] lines = ourProjectData.myTestTrackingCallback.traceLine((ClassData) classData, line);
+        final long[] lines = ourProjectData.myTestTrackingCallback.traceLine((ClassData) classData, line);
         if (lines != null) {
           traces.put(classData, lines);
         }
@@ -391,19 +497,28 @@ public class ProjectData implements CoverageData, Serializable {
 
   /**
    * Test tracking initialization.
-   * Returns true if a test is running now, then the class has been registered.
+   * Returns true if a test is running now, then the class has been registered and its registration flag is set.
    */
   @SuppressWarnings("unused")
   public static boolean registerClassForTrace(Object classData) {
     if (ourProjectData != null) {
-      final Map<Object, boolean[]> traces = ourProjectData.myTrace.get();
+      final HitsDiffTracker tracker = ourProjectData.myHitsDiffTracker;
+      if (tracker != null) {
+        return tracker.register((ClassData) classData);
+      }
+      final Map<Object, long[]> traces = ourProjectData.myTrace.get();
       if (traces != null) {
         synchronized (classData) {
-          final boolean[] trace = ((ClassData) classData).getTraceMask();
-          if (traces.put(classData, trace) == null) {
+          final ClassData data = (ClassData) classData;
+          final long[] trace = data.getTraceMask();
+          final int epoch = ourProjectData.myTraceEpoch.get();
+          if (data.getTraceEpoch() != epoch) {
             // clear trace on register for a new test to prevent reporting about code running between tests
-            Arrays.fill(trace, false);
+            Arrays.fill(trace, 0L);
+            data.setTraceEpoch(epoch);
           }
+          traces.put(classData, trace);
+          TraceMaskUtil.setRegistered(trace, true);
         }
         return true;
       }
@@ -418,6 +533,50 @@ public class ProjectData implements CoverageData, Serializable {
     }
   }
 
+  /**
+   * Method entry trap of a class instrumented in lazy mode.
+   * Called on each method invocation until the class is upgraded to the full instrumentation.
+   */
+  @SuppressWarnings("unused")
+  public static void lazyTrap(String className, int methodId) {
+    if (ourProjectData != null) {
+      final LazyInstrumentationCallback callback = ourProjectData.myLazyInstrumentationCallback;
+      if (callback != null) {
+        callback.methodEntered(className, methodId);
+      }
+      return;
+    }
+    try {
+      final Object projectData = getProjectDataObject();
+      LAZY_TRAP_METHOD.invoke(projectData, new Object[]{className, methodId});
+    } catch (Exception e) {
+      ErrorReporter.reportError("Error in lazy instrumentation of class " + className, e);
+    }
+  }
+
+  /**
+   * Called by instrumented code on the first execution of a method, when first hits recording is enabled.
+   */
+  @SuppressWarnings("unused")
+  public static void methodFirstHit(String className, String methodSignature) {
+    if (ourProjectData != null) {
+      ourProjectData.recordFirstHit(className, methodSignature);
+      return;
+    }
+    try {
+      final Object projectData = getProjectDataObject();
+      FIRST_HIT_METHOD.invoke(projectData, new Object[]{className, methodSignature});
+    } catch (Exception e) {
+      ErrorReporter.reportError("Error in first hit recording of class " + className, e);
+    }
+  }
+
+  public void recordFirstHit(String className, String methodSignature) {
+    final MethodFirstHit firstHit = new MethodFirstHit(myFirstHitsCounter.getAndIncrement(),
+        System.nanoTime() - myStartNanos, Thread.currentThread().getName());
+    getOrCreateClassData(className).addFirstHit(methodSignature, firstHit);
+  }
+
   /**
    * On class initialization at runtime, an instrumented class asks for hits array
    */
@@ -438,13 +597,13 @@ public class ProjectData implements CoverageData, Serializable {
    * Get test tracking hits array at runtime.
    */
   @SuppressWarnings("unused")
-  public static boolean[] getTraceMask(String className) {
+  public static long[] getTraceMask(String className) {
     if (ourProjectData != null) {
       return ourProjectData.getClassData(className).getTraceMask();
     }
     try {
       final Object projectData = getProjectDataObject();
-      return (boolean[]) GET_TRACE_MASK_METHOD.invoke(projectData, new Object[]{className});
+      return (long[]) GET_TRACE_MASK_METHOD.invoke(projectData, new Object[]{className});
     } catch (Exception e) {
       ErrorReporter.reportError("Error in class data access: " + className, e);
       return null;
@@ -483,12 +642,14 @@ public class ProjectData implements CoverageData, Serializable {
    * object. In our case key is the class name which is the same string with high probability.
    * According to CPU snapshots with usual map we spend a lot of time on equals() operation.
    * This class was introduced to reduce number of equals().
+   * The map is accessed concurrently during parallel class loading, so the last accessed entries
+   * are published via an atomic array, and new classes are added atomically.
    */
   private static class ClassesMap {
     private static final int POOL_SIZE = 1024; // must be a power of two
     private static final int MASK = POOL_SIZE - 1;
     private static final int DEFAULT_CAPACITY = 1000;
-    private final IdentityClassData[] myIdentityArray = new IdentityClassData[POOL_SIZE];
+    private final AtomicReferenceArray<IdentityClassData> myIdentityArray = new AtomicReferenceArray<IdentityClassData>(POOL_SIZE);
     private final Map<String, ClassData> myClasses = createClassesMap();
 
     public int size() {
@@ -497,14 +658,16 @@ public class ProjectData implements CoverageData, Serializable {
 
     public ClassData get(String name) {
       int idx = name.hashCode() & MASK;
-      final IdentityClassData lastClassData = myIdentityArray[idx];
+      final IdentityClassData lastClassData = myIdentityArray.get(idx);
       if (lastClassData != null) {
         final ClassData data = lastClassData.getClassData(name);
         if (data != null) return data;
       }
 
       final ClassData data = myClasses.get(name);
-      myIdentityArray[idx] = new IdentityClassData(name, data);
+      if (data != null) {
+        myIdentityArray.set(idx, new IdentityClassData(name, data));
+      }
       return data;
     }
 
@@ -512,6 +675,20 @@ public class ProjectData implements CoverageData, Serializable {
       myClasses.put(name, data);
     }
 
+    /**
+     * @return the existing value or the <code>data</code> if there was no value
+     */
+    public ClassData putIfAbsent(String name, ClassData data) {
+      if (myClasses instanceof ConcurrentMap) {
+        final ClassData existing = ((ConcurrentMap<String, ClassData>) myClasses).putIfAbsent(name, data);
+        return existing == null ? data : existing;
+      }
+      final ClassData existing = myClasses.get(name);
+      if (existing != null) return existing;
+      myClasses.put(name, data);
+      return data;
+    }
+
     public HashMap<String, ClassData> asMap() {
       return new HashMap<String, ClassData>(myClasses);
     }
@@ -545,4 +722,30 @@ public class ProjectData implements CoverageData, Serializable {
     }
   }
 
+  private static final class MethodKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String myOwner;
+    private final String myName;
+    private final String myDesc;
+
+    private MethodKey(String owner, String name, String desc) {
+      myOwner = owner;
+      myName = name;
+      myDesc = desc;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof MethodKey)) return false;
+      final MethodKey that = (MethodKey) o;
+      return myOwner.equals(that.myOwner) && myName.equals(that.myName) && myDesc.equals(that.myDesc);
+    }
+
+    @Override
+    public int hashCode() {
+      return (myOwner.hashCode() * 31 + myName.hashCode()) * 31 + myDesc.hashCode();
+    }
+  }
 }
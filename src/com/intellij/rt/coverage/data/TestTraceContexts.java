@@ -0,0 +1,121 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Test tracking storage for tests running in parallel.
+ * <p>
+ * Each running test has its own trace. The trace of the test is bound to the thread that has started the test
+ * and is inherited by the threads created during the test. Lines executed in threads that are not bound to a running test
+ * (e.g. in a thread pool created before the test) are attributed to all the running tests, which is exact for sequential tests.
+ * <p>
+ * Test start and end are synchronized, while line tracing does not take locks.
+ * A trace may be written by several threads at once, so lines are set with a CAS.
+ */
+class TestTraceContexts {
+  private final Map<String, TestTrace> myRunning = new ConcurrentHashMap<String, TestTrace>();
+  private final InheritableThreadLocal<TestTrace> myCurrent = new InheritableThreadLocal<TestTrace>();
+
+  /**
+   * Start a test and bind it to the current thread.
+   * A repeated start of a running test is counted, the test is ended with the last matching end.
+   */
+  synchronized void start(String name) {
+    TestTrace trace = myRunning.get(name);
+    if (trace == null) {
+      trace = new TestTrace(myCurrent.get());
+      myRunning.put(name, trace);
+    } else {
+      trace.myDepth++;
+    }
+    myCurrent.set(trace);
+  }
+
+  /**
+   * @return trace of the ended test, or null if the test is not running or has been started several times
+   */
+  synchronized Map<Object, long[]> end(String name) {
+    final TestTrace trace = myRunning.get(name);
+    if (trace == null) return null;
+    if (--trace.myDepth > 0) return null;
+    myRunning.remove(name);
+    final Map<Object, AtomicLongArray> lines = trace.myLines;
+    // the ended trace stays referenced from the threads created during the test, so the lines are released here
+    trace.myLines = null;
+    if (myCurrent.get() == trace) {
+      // restore the enclosing test of this thread, if any
+      TestTrace parent = trace.myParent;
+      while (parent != null && parent.isEnded()) {
+        parent = parent.myParent;
+      }
+      myCurrent.set(parent);
+    }
+    final Map<Object, long[]> result = new HashMap<Object, long[]>(lines.size());
+    for (Map.Entry<Object, AtomicLongArray> entry : lines.entrySet()) {
+      result.put(entry.getKey(), TraceMaskUtil.toArray(entry.getValue()));
+    }
+    return result;
+  }
+
+  void traceLine(ClassData classData, int line) {
+    final TestTrace trace = myCurrent.get();
+    if (trace != null && !trace.isEnded()) {
+      trace.traceLine(classData, line);
+      return;
+    }
+    for (TestTrace runningTrace : myRunning.values()) {
+      runningTrace.traceLine(classData, line);
+    }
+  }
+
+  private static class TestTrace {
+    /**
+     * Null when the test is ended.
+     */
+    private volatile ConcurrentMap<Object, AtomicLongArray> myLines = new ConcurrentHashMap<Object, AtomicLongArray>();
+    private final TestTrace myParent;
+    private int myDepth = 1;
+
+    private TestTrace(TestTrace parent) {
+      myParent = parent;
+    }
+
+    private boolean isEnded() {
+      return myLines == null;
+    }
+
+    private void traceLine(ClassData classData, int line) {
+      final ConcurrentMap<Object, AtomicLongArray> traceLines = myLines;
+      if (traceLines == null) return;
+      AtomicLongArray lines = traceLines.get(classData);
+      if (lines == null) {
+        final AtomicLongArray newLines = new AtomicLongArray(TraceMaskUtil.getWordsCount(classData.getLines().length));
+        lines = traceLines.putIfAbsent(classData, newLines);
+        if (lines == null) lines = newLines;
+      }
+      TraceMaskUtil.setLine(lines, line);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import com.intellij.rt.coverage.data.ProjectData;
+
+/**
+ * Support of lazy instrumentation mode, when classes are loaded with method entry stubs only
+ * and are upgraded to the full instrumentation after the first execution.
+ */
+public interface LazyInstrumentationCallback {
+  /**
+   * Called from a method stub on each invocation until the class is upgraded.
+   */
+  void methodEntered(String className, int methodId);
+
+  /**
+   * Complete coverage data of the stubbed classes before the report is saved.
+   */
+  void finalizeCoverage(ProjectData projectData, boolean calculateSource);
+}
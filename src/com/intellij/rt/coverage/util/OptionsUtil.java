@@ -22,8 +22,33 @@ public class OptionsUtil {
   public static final boolean NEW_TEST_TRACKING_ENABLED = "true".equals(System.getProperty("idea.new.test.tracking.coverage", "true"));
   public static final boolean CONDY_ENABLED = "true".equals(System.getProperty("coverage.condy.enable", "true"));
   public static final boolean INSTRUCTIONS_COVERAGE_ENABLED = "true".equals(System.getProperty("coverage.instructions.enable", "false"));
+  public static final boolean INSTRUCTIONS_DEFERRED = "true".equals(System.getProperty("coverage.instructions.deferred", "false"));
+  public static final boolean FIRST_HITS_ENABLED = "true".equals(System.getProperty("coverage.first.hits.enable", "false"));
+  public static final boolean TEST_TRACKING_STORE_ENABLED = "true".equals(System.getProperty("coverage.test.tracking.store", "false"));
+  public static final boolean PARALLEL_TEST_TRACKING = "true".equals(System.getProperty("coverage.test.tracking.parallel", "false"));
   public static final boolean THREAD_SAFE_STORAGE = "true".equals(System.getProperty("idea.coverage.thread-safe.enabled", "true"));
   public static boolean CALCULATE_HITS_COUNT = "true".equals(System.getProperty("idea.coverage.calculate.hits", "true"));
+  /**
+   * Track executed classes per test instead of lines. It requires field data access and sequential tests.
+   */
+  public static final boolean CLASS_TEST_TRACKING = "true".equals(System.getProperty("coverage.test.tracking.classes", "false"))
+      && NEW_BRANCH_COVERAGE_ENABLED && !PARALLEL_TEST_TRACKING;
+  /**
+   * Track per test coverage by line hits changes instead of trace probes.
+   * It requires hits counting, field data access as in {@link #CLASS_TEST_TRACKING} and sequential tests.
+   */
+  public static final boolean HITS_DIFF_TEST_TRACKING = "true".equals(System.getProperty("coverage.test.tracking.hits.diff", "false"))
+      && CALCULATE_HITS_COUNT && NEW_BRANCH_COVERAGE_ENABLED && !PARALLEL_TEST_TRACKING && !CLASS_TEST_TRACKING;
+  public static final boolean LAZY_INSTRUMENTATION_ENABLED = "true".equals(System.getProperty("coverage.lazy.instrumentation.enable", "false"));
+  public static final boolean CLASS_CACHE_ENABLED = "true".equals(System.getProperty("coverage.class.cache.enable", "false"));
+  public static final String CHANGED_CLASSES_FILE = System.getProperty("coverage.changed.classes.file");
+  public static final String CLASSPATH_USAGE_FILE = System.getProperty("coverage.classpath.usage.file");
+  public static final boolean SPECULATIVE_UNLOADED_ENABLED = "true".equals(System.getProperty("coverage.unloaded.speculative.enable", "false"));
+  public static final long SPECULATIVE_UNLOADED_DELAY_MS = Long.getLong("coverage.unloaded.speculative.delay.ms", 10000);
+  public static final long TRANSFORMATION_TIME_BUDGET_MS = Long.getLong("coverage.budget.transformation.time.ms", 0);
+  public static final long PROBES_BUDGET = Long.getLong("coverage.budget.probes", 0);
+  public static final long FINALIZATION_TIME_BUDGET_MS = Long.getLong("coverage.budget.finalization.time.ms", 0);
+  public static final int FINALIZATION_THREADS = Integer.getInteger("coverage.finalization.threads", 1);
 
   public static final String LOG_LEVEL = System.getProperty("idea.coverage.log.level");
 }
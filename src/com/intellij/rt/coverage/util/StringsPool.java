@@ -17,26 +17,28 @@
 package com.intellij.rt.coverage.util;
 
 
-import org.jetbrains.coverage.gnu.trove.TLongObjectHashMap;
-
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Strings are pooled by value, so that pooling is correct for any strings, and all the threads get the same instance.
+ *
  * @author Pavel.Sher
  */
 public class StringsPool {
-  private final static TLongObjectHashMap<String> myReusableStrings;
-  private final static Map<Long, String> myConcurrentReusableStrings;
+  private final static Map<String, String> myReusableStrings;
+  private final static ConcurrentMap<String, String> myConcurrentReusableStrings;
   private final static String EMPTY = "";
 
   static {
     int initialCapacity = 30000;
     if (OptionsUtil.THREAD_SAFE_STORAGE) {
-      myConcurrentReusableStrings = new ConcurrentHashMap<Long, String>(initialCapacity);
+      myConcurrentReusableStrings = new ConcurrentHashMap<String, String>(initialCapacity);
       myReusableStrings = null;
     } else {
-      myReusableStrings = new TLongObjectHashMap<String>(initialCapacity);
+      myReusableStrings = new HashMap<String, String>(initialCapacity);
       myConcurrentReusableStrings = null;
     }
   }
@@ -45,29 +47,28 @@ public class StringsPool {
     if (value == null) return null;
     if (value.length() == 0) return EMPTY;
 
-    final long hash = StringHash.calc(value);
-    String reused = getReusable(hash);
+    String reused = getReusable(value);
     if (reused != null) return reused;
     // new String() is required because value often is passed as substring which has a reference to original char array
     // see {@link String.substring(int, int} method implementation.
     //noinspection RedundantStringConstructorCall
     reused = new String(value);
-    putReusable(hash, reused);
-    return reused;
+    return putReusable(reused);
   }
 
-  private static String getReusable(long hash) {
+  private static String getReusable(String value) {
     if (myConcurrentReusableStrings != null) {
-      return myConcurrentReusableStrings.get(hash);
+      return myConcurrentReusableStrings.get(value);
     }
-    return myReusableStrings.get(hash);
+    return myReusableStrings.get(value);
   }
 
-  private static void putReusable(long hash, String value) {
+  private static String putReusable(String value) {
     if (myConcurrentReusableStrings != null) {
-      myConcurrentReusableStrings.put(hash, value);
-    } else {
-      myReusableStrings.put(hash, value);
+      final String previous = myConcurrentReusableStrings.putIfAbsent(value, value);
+      return previous == null ? value : previous;
     }
+    myReusableStrings.put(value, value);
+    return value;
   }
 }
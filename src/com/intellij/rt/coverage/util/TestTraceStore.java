@@ -0,0 +1,343 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Append-only storage of per test traces, an alternative to a file per test, see {@link TestTrackingIOUtil#saveTestResults}.
+ * <p>
+ * Traces are appended to segment files <code>traces-N.seg</code> in the traces directory. A new segment is started
+ * when the current one exceeds {@link #SEGMENT_SIZE}, and on each run, so the segments of previous runs are never modified.
+ * The index file <code>traces.idx</code> contains the segment and the offset of each test trace,
+ * so that a single test could be loaded without reading all the segments.
+ * When a test is stored several times, the last trace is used.
+ * <p>
+ * Traces are copied on the test thread and written by a background thread. The queue is bounded,
+ * so the tests are slowed down when the writer cannot keep up.
+ * <p>
+ * Segment format: header, then records <code>[test name][classes count]{[class name][lines count]{[line]}}</code>.
+ * Index format: header, then entries <code>[test name][segment number][offset]</code>.
+ */
+public class TestTraceStore implements Runnable {
+  static final long SEGMENT_SIZE = 64L << 20;
+  private static final String SEGMENT_PREFIX = "traces-";
+  private static final String SEGMENT_EXTENSION = ".seg";
+  private static final String INDEX_FILE_NAME = "traces.idx";
+  private static final int MAGIC = 0x54524143;
+  private static final int VERSION = 0;
+  private static final int HEADER_SIZE = 8;
+  private static final int QUEUE_CAPACITY = 256;
+  private static final Record CLOSE = new Record(null, null, null, 0);
+
+  private final File myDirectory;
+  private final BlockingQueue<Record> myQueue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+  private final Thread myWriter;
+  private volatile boolean myClosed;
+  private volatile boolean myFailed;
+
+  // accessed from the writer thread only
+  private final ByteArrayOutputStream myBuffer = new ByteArrayOutputStream();
+  private DataOutputStream mySegment;
+  private int mySegmentNumber;
+  private long mySegmentSize;
+  private DataOutputStream myIndex;
+
+  public TestTraceStore(File directory) {
+    myDirectory = directory;
+    final List<File> segments = getSegments(directory);
+    mySegmentNumber = segments.isEmpty() ? 0 : getSegmentNumber(segments.get(segments.size() - 1)) + 1;
+    myWriter = new Thread(this, "Coverage test traces writer");
+    myWriter.setDaemon(true);
+    myWriter.start();
+  }
+
+  /**
+   * Copy the trace of a test and schedule it for writing.
+   *
+   * @param trace trace masks of classes, see {@link TraceMaskUtil}
+   */
+  public void add(String testName, Map<Object, long[]> trace) {
+    if (myClosed || myFailed) return;
+    final int size = trace.size();
+    final String[] classes = new String[size];
+    final long[][] masks = new long[size][];
+    int count = 0;
+    for (Map.Entry<Object, long[]> entry : trace.entrySet()) {
+      // the map size may be increased by another thread
+      if (count >= size) break;
+      classes[count] = entry.getKey().toString();
+      // copy lines mask as it can be modified or cleared by another thread
+      masks[count] = entry.getValue().clone();
+      count++;
+    }
+    try {
+      myQueue.put(new Record(testName, classes, masks, count));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Write all the scheduled traces and stop the writer.
+   */
+  public void close() {
+    if (myClosed) return;
+    myClosed = true;
+    try {
+      myQueue.put(CLOSE);
+      myWriter.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        final Record record = myQueue.take();
+        if (record == CLOSE) break;
+        if (myFailed) continue;
+        try {
+          write(record);
+          if (myQueue.isEmpty()) flush();
+        } catch (IOException e) {
+          myFailed = true;
+          ErrorReporter.reportError("Error writing test traces to directory " + myDirectory.getPath(), e);
+        }
+      }
+    } catch (InterruptedException ignored) {
+    } finally {
+      closeStreams();
+    }
+  }
+
+  private void write(Record record) throws IOException {
+    myBuffer.reset();
+    final DataOutputStream out = new DataOutputStream(myBuffer);
+    out.writeUTF(record.myTestName);
+    out.writeInt(record.myCount);
+    for (int i = 0; i < record.myCount; i++) {
+      final long[] lines = record.myMasks[i];
+      out.writeUTF(record.myClasses[i]);
+      out.writeInt(TraceMaskUtil.countLines(lines));
+      for (int line = TraceMaskUtil.nextLine(lines, 1); line >= 0; line = TraceMaskUtil.nextLine(lines, line + 1)) {
+        out.writeInt(line);
+      }
+    }
+    out.flush();
+
+    if (mySegment != null && mySegmentSize + myBuffer.size() > SEGMENT_SIZE && mySegmentSize > HEADER_SIZE) {
+      mySegment.close();
+      mySegment = null;
+      mySegmentNumber++;
+    }
+    if (mySegment == null) {
+      mySegment = openForAppend(new File(myDirectory, SEGMENT_PREFIX + mySegmentNumber + SEGMENT_EXTENSION));
+      mySegmentSize = HEADER_SIZE;
+    }
+    if (myIndex == null) {
+      myIndex = openForAppend(new File(myDirectory, INDEX_FILE_NAME));
+    }
+    final long offset = mySegmentSize;
+    myBuffer.writeTo(mySegment);
+    mySegmentSize += myBuffer.size();
+
+    myIndex.writeUTF(record.myTestName);
+    myIndex.writeInt(mySegmentNumber);
+    myIndex.writeLong(offset);
+  }
+
+  private void flush() throws IOException {
+    if (mySegment != null) mySegment.flush();
+    if (myIndex != null) myIndex.flush();
+  }
+
+  private void closeStreams() {
+    CoverageIOUtil.close(mySegment);
+    CoverageIOUtil.close(myIndex);
+    mySegment = null;
+    myIndex = null;
+  }
+
+  /**
+   * Open a file for appending, and write a header if the file is new.
+   */
+  private static DataOutputStream openForAppend(File file) throws IOException {
+    final boolean exists = file.exists() && file.length() > 0;
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+    if (!exists) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+    return out;
+  }
+
+  /**
+   * Load all the traces from the store.
+   *
+   * @param result map from test name to the map from class name to covered lines
+   */
+  public static void load(File directory, Map<String, Map<String, int[]>> result) throws IOException {
+    for (File segment : getSegments(directory)) {
+      final DataInputStream in = openForRead(segment);
+      if (in == null) continue;
+      try {
+        while (true) {
+          final String testName;
+          try {
+            testName = in.readUTF();
+          } catch (EOFException e) {
+            break;
+          }
+          result.put(testName, readClasses(in));
+        }
+      } catch (EOFException e) {
+        // the last record is incomplete, e.g. if the process has been killed
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Load the trace of a single test with the index.
+   *
+   * @return map from class name to covered lines, or null if the test is not found
+   */
+  public static Map<String, int[]> loadTest(File directory, String testName) throws IOException {
+    final DataInputStream index = openForRead(new File(directory, INDEX_FILE_NAME));
+    if (index == null) return null;
+    int segmentNumber = -1;
+    long offset = -1;
+    try {
+      while (true) {
+        final String name = index.readUTF();
+        final int segment = index.readInt();
+        final long entryOffset = index.readLong();
+        if (name.equals(testName)) {
+          segmentNumber = segment;
+          offset = entryOffset;
+        }
+      }
+    } catch (EOFException ignored) {
+    } finally {
+      index.close();
+    }
+    if (segmentNumber < 0) return null;
+    final DataInputStream in = openForRead(new File(directory, SEGMENT_PREFIX + segmentNumber + SEGMENT_EXTENSION));
+    if (in == null) return null;
+    try {
+      skip(in, offset - HEADER_SIZE);
+      in.readUTF();
+      return readClasses(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void skip(DataInputStream in, long bytes) throws IOException {
+    while (bytes > 0) {
+      final long skipped = in.skip(bytes);
+      if (skipped <= 0) throw new EOFException();
+      bytes -= skipped;
+    }
+  }
+
+  private static Map<String, int[]> readClasses(DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    final Map<String, int[]> classes = new HashMap<String, int[]>();
+    for (int i = 0; i < size; i++) {
+      final String className = in.readUTF();
+      final int[] lines = new int[in.readInt()];
+      for (int j = 0; j < lines.length; j++) {
+        lines[j] = in.readInt();
+      }
+      classes.put(className, lines);
+    }
+    return classes;
+  }
+
+  /**
+   * @return stream positioned after the header, or null if the file does not exist or has an unknown format
+   */
+  private static DataInputStream openForRead(File file) throws IOException {
+    if (!file.isFile()) return null;
+    final DataInputStream in = CoverageIOUtil.openReadFile(file);
+    try {
+      if (in.readInt() == MAGIC && in.readInt() == VERSION) return in;
+      ErrorReporter.reportError("Unknown format of test traces file " + file.getPath());
+    } catch (EOFException ignored) {
+    }
+    in.close();
+    return null;
+  }
+
+  private static List<File> getSegments(File directory) {
+    final List<File> segments = new ArrayList<File>();
+    final File[] files = directory.listFiles();
+    if (files == null) return segments;
+    for (File file : files) {
+      if (getSegmentNumber(file) >= 0) segments.add(file);
+    }
+    Collections.sort(segments, new Comparator<File>() {
+      public int compare(File o1, File o2) {
+        return getSegmentNumber(o1) - getSegmentNumber(o2);
+      }
+    });
+    return segments;
+  }
+
+  private static int getSegmentNumber(File file) {
+    final String name = file.getName();
+    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_EXTENSION)) return -1;
+    try {
+      return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static class Record {
+    private final String myTestName;
+    private final String[] myClasses;
+    private final long[][] myMasks;
+    private final int myCount;
+
+    private Record(String testName, String[] classes, long[][] masks, int count) {
+      myTestName = testName;
+      myClasses = classes;
+      myMasks = masks;
+      myCount = count;
+    }
+  }
+}
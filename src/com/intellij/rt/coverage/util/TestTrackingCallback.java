@@ -20,5 +20,5 @@ import com.intellij.rt.coverage.data.ClassData;
 
 public interface TestTrackingCallback {
   void clearTrace(ClassData classData);
-  boolean[] traceLine(ClassData classData, int line);
+  long[] traceLine(ClassData classData, int line);
 }
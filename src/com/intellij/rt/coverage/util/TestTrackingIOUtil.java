@@ -21,36 +21,32 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class TestTrackingIOUtil {
-  public static void saveTestResults(File tracesDirectory, String name, Map<Object, boolean[]> trace) throws IOException {
+  /**
+   * @param trace trace masks of classes, see {@link TraceMaskUtil}
+   */
+  public static void saveTestResults(File tracesDirectory, String name, Map<Object, long[]> trace) throws IOException {
     final File traceFile = new File(tracesDirectory, name + ".tr");
     if (!traceFile.exists()) {
       traceFile.createNewFile();
     }
     DataOutputStream os = null;
     try {
-      os = new DataOutputStream(new FileOutputStream(traceFile));
+      os = CoverageIOUtil.openWriteFile(traceFile);
       final int size = trace.size();
       os.writeInt(size);
       int entries = 0;
-      for (Map.Entry<Object, boolean[]> entry : trace.entrySet()) {
+      for (Map.Entry<Object, long[]> entry : trace.entrySet()) {
         // check how many classes were already written as the map size may be increased by another thread
         if (entries >= size) break;
         entries++;
         os.writeUTF(entry.getKey().toString());
-        // copy lines array as it can be modified or cleared by another thread
-        final boolean[] oldLines = entry.getValue();
-        final boolean[] lines = new boolean[oldLines.length];
+        // copy lines mask as it can be modified or cleared by another thread
+        final long[] oldLines = entry.getValue();
+        final long[] lines = new long[oldLines.length];
         System.arraycopy(oldLines, 0, lines, 0, lines.length);
-        int numberOfTraces = 0;
-        for (int idx = 1; idx < lines.length; idx++) {
-          if (lines[idx]) numberOfTraces++;
-        }
-        os.writeInt(numberOfTraces);
-        for (int idx = 1; idx < lines.length; idx++) {
-          final boolean incl = lines[idx];
-          if (incl) {
-            os.writeInt(idx);
-          }
+        os.writeInt(TraceMaskUtil.countLines(lines));
+        for (int line = TraceMaskUtil.nextLine(lines, 1); line >= 0; line = TraceMaskUtil.nextLine(lines, line + 1)) {
+          os.writeInt(line);
         }
       }
     } finally {
@@ -60,17 +56,22 @@ public class TestTrackingIOUtil {
     }
   }
 
+  /**
+   * Load traces saved both as a file per test and with {@link TestTraceStore}.
+   */
   public static Map<String, Map<String, int[]>> loadTestTrackingData(File tracesDirectory) throws IOException {
     final File[] traces = tracesDirectory.listFiles();
     final Map<String, Map<String, int[]>> result = new HashMap<String, Map<String, int[]>>();
     if (traces == null) return result;
+    TestTraceStore.load(tracesDirectory, result);
     for (File traceFile : traces) {
       final String fileName = traceFile.getName();
+      if (!fileName.endsWith(".tr")) continue;
       final String name = fileName.substring(0, fileName.length() - ".tr".length());
       final Map<String, int[]> classes = new HashMap<String, int[]>();
       DataInputStream is = null;
       try {
-        is = new DataInputStream(new FileInputStream(traceFile));
+        is = CoverageIOUtil.openReadFile(traceFile);
         int size = is.readInt();
         for (int i = 0; i < size; i++) {
           final String className = is.readUTF();
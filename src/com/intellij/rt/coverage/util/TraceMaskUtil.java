@@ -0,0 +1,125 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Test tracking trace of a class is a bit set of executed line numbers stored in <code>long</code> words.
+ * Word 0 is reserved for the flag of class registration for the current test, and line bits start from word 1.
+ * Line bits are set with a read-modify-write of the whole word, so the flag is kept in a word that is never written
+ * by line tracing. Otherwise, a stale write of a line could set the flag again after it has been cleared at the test end.
+ * <p>
+ * Bits are set without synchronization, so a line executed for the first time in several threads at once
+ * may be lost if another line of the same word is set concurrently.
+ */
+public class TraceMaskUtil {
+  private static final int WORD_SHIFT = 6;
+  private static final int BIT_INDEX_MASK = 63;
+  private static final long REGISTERED_BIT = 1L;
+  /**
+   * Index of the first word of line bits.
+   */
+  private static final int LINES_OFFSET = 1;
+
+  /**
+   * @param size maximal line number + 1, or 0 for the registration flag only
+   */
+  public static long[] create(int size) {
+    return new long[getWordsCount(size)];
+  }
+
+  public static int getWordsCount(int size) {
+    return LINES_OFFSET + ((size + BIT_INDEX_MASK) >> WORD_SHIFT);
+  }
+
+  public static int getWordIndex(int line) {
+    return LINES_OFFSET + (line >> WORD_SHIFT);
+  }
+
+  public static long getBit(int line) {
+    return 1L << (line & BIT_INDEX_MASK);
+  }
+
+  public static void setLine(long[] mask, int line) {
+    final int index = getWordIndex(line);
+    final long bit = getBit(line);
+    final long word = mask[index];
+    // avoid a write when the line is already traced, as lines are traced on every execution
+    if ((word & bit) == 0) {
+      mask[index] = word | bit;
+    }
+  }
+
+  /**
+   * Set the line bit with a CAS, so that lines traced concurrently in the same word are not lost.
+   */
+  public static void setLine(AtomicLongArray mask, int line) {
+    final int index = getWordIndex(line);
+    final long bit = getBit(line);
+    while (true) {
+      final long word = mask.get(index);
+      if ((word & bit) != 0 || mask.compareAndSet(index, word, word | bit)) return;
+    }
+  }
+
+  public static long[] toArray(AtomicLongArray mask) {
+    final long[] result = new long[mask.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = mask.get(i);
+    }
+    return result;
+  }
+
+  public static boolean isRegistered(long[] mask) {
+    return (mask[0] & REGISTERED_BIT) != 0;
+  }
+
+  public static void setRegistered(long[] mask, boolean registered) {
+    if (registered) {
+      mask[0] |= REGISTERED_BIT;
+    } else {
+      mask[0] &= ~REGISTERED_BIT;
+    }
+  }
+
+  /**
+   * @return number of traced lines
+   */
+  public static int countLines(long[] mask) {
+    int count = 0;
+    for (int i = LINES_OFFSET; i < mask.length; i++) {
+      count += Long.bitCount(mask[i]);
+    }
+    return count;
+  }
+
+  /**
+   * @return the first traced line that is not less than <code>fromLine</code>, or -1 if there is no such line
+   */
+  public static int nextLine(long[] mask, int fromLine) {
+    if (fromLine < 1) fromLine = 1;
+    int index = getWordIndex(fromLine);
+    if (index >= mask.length) return -1;
+    long word = mask[index] & (-1L << (fromLine & BIT_INDEX_MASK));
+    while (true) {
+      if (word != 0) return ((index - LINES_OFFSET) << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+      if (++index >= mask.length) return -1;
+      word = mask[index];
+    }
+  }
+}
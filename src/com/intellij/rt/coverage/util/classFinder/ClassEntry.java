@@ -24,15 +24,41 @@ import java.io.InputStream;
  */
 public abstract class ClassEntry {
   private final String myClassName;
+  private final String myClassPathEntry;
+  private final long mySize;
 
   public ClassEntry(final String className) {
+    this(className, null, -1);
+  }
+
+  /**
+   * @param classPathEntry jar or directory that contains the class
+   * @param size           size of the class file in bytes
+   */
+  public ClassEntry(final String className, final String classPathEntry, final long size) {
     myClassName = className;
+    myClassPathEntry = classPathEntry;
+    mySize = size;
   }
 
   public String getClassName() {
     return myClassName;
   }
 
+  /**
+   * @return jar or directory that contains the class, or null if unknown
+   */
+  public String getClassPathEntry() {
+    return myClassPathEntry;
+  }
+
+  /**
+   * @return size of the class file in bytes, or -1 if unknown
+   */
+  public long getSize() {
+    return mySize;
+  }
+
   public abstract InputStream getClassInputStream() throws IOException;
 
   public boolean equals(final Object o) {
@@ -39,7 +39,8 @@ public class ClassFinder {
 
   public ClassFinder(ClassFilter filter) {
     myFilter = filter;
-    myClassloaders = new HashSet<ClassLoader>();
+    // class loaders are added during class loading, while classes may be iterated in another thread
+    myClassloaders = Collections.synchronizedSet(new HashSet<ClassLoader>());
   }
 
   public void addClassLoader(ClassLoader cl) {
@@ -77,7 +78,11 @@ public class ClassFinder {
   }
 
   private void collectClassloaderEntries(final Set<ClassPathEntry> result) {
-    for (Object myClassloader : myClassloaders) {
+    final List<ClassLoader> classLoaders;
+    synchronized (myClassloaders) {
+      classLoaders = new ArrayList<ClassLoader>(myClassloaders);
+    }
+    for (Object myClassloader : classLoaders) {
       URLClassLoader cl = (URLClassLoader) myClassloader;
       // assert cl != null; // see addClassLoader(ClassLoader)
       URL[] urls;
@@ -82,10 +82,10 @@ public class ClassPathEntry {
     public void iterateMatchedClasses(final String classPathEntry, ClassEntry.Consumer consumer) throws IOException {
       File dir = new File(classPathEntry);
       final InputStream[] is = new InputStream[] {null};
-      collectClasses("", dir, consumer, is);
+      collectClasses(classPathEntry, "", dir, consumer, is);
     }
 
-    private void collectClasses(final String curPath, final File parent, final ClassEntry.Consumer consumer, final InputStream[] is) throws IOException {
+    private void collectClasses(final String classPathEntry, final String curPath, final File parent, final ClassEntry.Consumer consumer, final InputStream[] is) throws IOException {
       File[] files = parent.listFiles();
       if (files != null) {
         String prefix = curPath.length() == 0 ? "" : curPath + ".";
@@ -102,7 +102,7 @@ public class ClassPathEntry {
             if (shouldInclude(className)) {
               is[0] = null;
               try {
-                consumer.consume(new ClassEntry(className) {
+                consumer.consume(new ClassEntry(className, classPathEntry, f.length()) {
                   @Override
                   public InputStream getClassInputStream() throws IOException {
                     is[0] = new FileInputStream(f);
@@ -114,7 +114,7 @@ public class ClassPathEntry {
               }
             }
           } else if (f.isDirectory()) {
-            collectClasses(prefix + name, f, consumer, is);
+            collectClasses(classPathEntry, prefix + name, f, consumer, is);
           }
         }
       }
@@ -135,7 +135,7 @@ public class ClassPathEntry {
               is[0] = null;
               try {
                 final ZipEntry zipEntry = ze;
-                consumer.consume(new ClassEntry(className) {
+                consumer.consume(new ClassEntry(className, classPathEntry, zipEntry.getSize()) {
                   public InputStream getClassInputStream() throws IOException {
                     is[0] = zipFile.getInputStream(zipEntry);
                     return is[0];
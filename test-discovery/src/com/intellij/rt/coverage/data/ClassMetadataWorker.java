@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes class metadata in a background thread, so that class loading is not slowed down by it.
+ * The thread is started on the first submitted task.
+ * The queue is bounded, as every task holds the class bytes: when the worker falls behind,
+ * the task is computed in the submitting thread instead.
+ */
+class ClassMetadataWorker implements Runnable {
+  private static final int MAX_QUEUED_TASKS = 256;
+
+  private final TestDiscoveryProjectData myProjectData;
+  private final LinkedList<Callable<ClassMetadata>> myTasks = new LinkedList<Callable<ClassMetadata>>();
+  /**
+   * Number of queued and running tasks.
+   */
+  private int myPending;
+  private Thread myThread;
+
+  ClassMetadataWorker(TestDiscoveryProjectData projectData) {
+    myProjectData = projectData;
+  }
+
+  void submit(Callable<ClassMetadata> task) {
+    synchronized (this) {
+      if (myTasks.size() < MAX_QUEUED_TASKS) {
+        myTasks.add(task);
+        myPending++;
+        if (myThread == null) {
+          myThread = new Thread(this, "Test discovery class metadata worker");
+          myThread.setDaemon(true);
+          myThread.start();
+        }
+        notifyAll();
+        return;
+      }
+    }
+    process(task);
+  }
+
+  /**
+   * Waits until all the submitted tasks are completed and their results are passed to the project data.
+   */
+  synchronized void awaitCompletion() {
+    boolean interrupted = false;
+    while (myPending > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    while (true) {
+      final Callable<ClassMetadata> task;
+      synchronized (this) {
+        while (myTasks.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException ignored) {
+          }
+        }
+        task = myTasks.removeFirst();
+      }
+      try {
+        process(task);
+      } finally {
+        synchronized (this) {
+          if (--myPending == 0) notifyAll();
+        }
+      }
+    }
+  }
+
+  private void process(Callable<ClassMetadata> task) {
+    try {
+      final ClassMetadata metadata = task.call();
+      if (metadata != null) {
+        myProjectData.registerClassMetadata(metadata);
+      }
+    } catch (Throwable e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -16,29 +16,56 @@
 
 package com.intellij.rt.coverage.data;
 
-import com.intellij.rt.coverage.util.CoverageIOUtil;
-
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes test discovery data into a single trace file.
+ * <p>
+ * Test threads only take snapshots of the visited methods and put them into a bounded queue,
+ * while the data is encoded and written by a separate writer thread in the order of submission.
+ * When the queue is full, test threads wait for the writer.
+ */
 @SuppressWarnings("unused")
-public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProtocolDataListener {
+public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProtocolDataListener implements Runnable {
   @SuppressWarnings("WeakerAccess")
   public static final String TRACE_FILE = "org.jetbrains.instrumentation.trace.file";
   @SuppressWarnings("WeakerAccess")
   public static final String BUFFER_SIZE = "org.jetbrains.instrumentation.trace.file.buffer.size";
   @SuppressWarnings("WeakerAccess")
   public static final String FILE_VERSION = "org.jetbrains.instrumentation.trace.file.version";
+  @SuppressWarnings("WeakerAccess")
+  public static final String QUEUE_SIZE = "org.jetbrains.instrumentation.trace.file.queue.size";
 
   public static final byte HEADER_START = 0x49; // "I"
   public static final byte[] HEADER_TAIL = new byte[]{0x4a, 0x54, 0x43}; // "JTC"
 
   private static final int DEFAULT_VERSION = 0x3;
+  private static final int DEFAULT_QUEUE_SIZE = 256;
 
   private final DataOutputStream myStream;
   private final NameEnumerator.Incremental myNameEnumerator;
 
+  private final BlockingQueue<Record> myQueue;
+  private final Record myFinishRecord = new Record() {
+    void write(DataOutput output) throws IOException {
+      writeDictionaryIncrementIfNeeded(output);
+      finish(output);
+    }
+  };
+  private final Thread myWriterThread;
+  private volatile boolean myFinished;
+  private volatile IOException myWriteError;
+  private volatile long myWriteTime;
+  private final AtomicLong myWaitTime = new AtomicLong();
+
 
   public SingleTrFileDiscoveryProtocolDataListener() throws Exception {
     super(Byte.parseByte(System.getProperty(FILE_VERSION, String.valueOf(DEFAULT_VERSION))));
@@ -48,13 +75,9 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
     myTraceFile.getParentFile().mkdirs();
     myStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myTraceFile), bufferSize));
     myNameEnumerator = new NameEnumerator.Incremental();
+    myQueue = new ArrayBlockingQueue<Record>(Integer.parseInt(System.getProperty(QUEUE_SIZE, String.valueOf(DEFAULT_QUEUE_SIZE))));
     start(this.myStream);
-
-    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-      public void run() {
-        System.out.println("Send time: " + 1. * ourSendTime / CoverageIOUtil.GIGA);
-      }
-    }));
+    myWriterThread = startWriter();
   }
 
   // For tests
@@ -62,42 +85,79 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
     super((byte) version);
     myStream = stream;
     myNameEnumerator = new NameEnumerator.Incremental();
+    myQueue = new ArrayBlockingQueue<Record>(DEFAULT_QUEUE_SIZE);
     start(myStream);
+    myWriterThread = startWriter();
   }
 
-  private static Long ourSendTime = 0L;
+  private Thread startWriter() {
+    final Thread thread = new Thread(this, "Test discovery trace writer");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
 
-  public synchronized void testFinished(String className, String methodName, Map<Integer, boolean[]> classToVisitedMethods, Map<Integer, int[]> classToMethodNames, List<int[]> openedFiles) throws IOException {
-    long s = System.nanoTime();
-    try {
-      writeTestFinished(myStream, className, methodName, classToVisitedMethods, classToMethodNames, openedFiles);
-    } finally {
-      Long diff = ourSendTime += System.nanoTime() - s;
+  /**
+   * Visited flags are reset at the next test start, so they are copied here, only for the classes with visited methods.
+   * Method names arrays are never modified after registration, so they are not copied.
+   */
+  public void testFinished(final String className, final String methodName, Map<Integer, boolean[]> classToVisitedMethods, Map<Integer, int[]> classToMethodNames, final List<int[]> openedFiles) throws IOException {
+    final Map<Integer, boolean[]> visitedMethods = new HashMap<Integer, boolean[]>();
+    final Map<Integer, int[]> methodNames = new HashMap<Integer, int[]>();
+    for (Map.Entry<Integer, boolean[]> e : classToVisitedMethods.entrySet()) {
+      final boolean[] used = e.getValue();
+      for (boolean isUsed : used) {
+        if (isUsed) {
+          visitedMethods.put(e.getKey(), used.clone());
+          methodNames.put(e.getKey(), classToMethodNames.get(e.getKey()));
+          break;
+        }
+      }
     }
+    submit(new Record() {
+      void write(DataOutput output) throws IOException {
+        writeTestFinished(output, className, methodName, visitedMethods, methodNames, openedFiles);
+      }
+    });
   }
 
-  public synchronized void testsFinished() throws IOException {
-    long s = System.nanoTime();
-
+  /**
+   * Waits until all the submitted data is written and closes the file.
+   */
+  public void testsFinished() throws IOException {
+    synchronized (this) {
+      if (myFinished) return;
+      submit(myFinishRecord);
+      myFinished = true;
+    }
     try {
-      writeDictionaryIncrementIfNeeded(myStream);
-      finish(myStream);
-    } finally {
-      ourSendTime += System.nanoTime() - s;
-      myStream.close();
+      myWriterThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    checkWriteError();
   }
 
   public NameEnumerator.Incremental getNameEnumerator() {
     return myNameEnumerator;
   }
 
-  public synchronized void addMetadata(Map<String, String> metadata) throws IOException {
-    writeMetadata(myStream, metadata);
+  public void addMetadata(Map<String, String> metadata) throws IOException {
+    final Map<String, String> copy = new LinkedHashMap<String, String>(metadata);
+    submit(new Record() {
+      void write(DataOutput output) throws IOException {
+        writeMetadata(output, copy);
+      }
+    });
   }
 
   public void addClassMetadata(List<ClassMetadata> metadata) throws IOException {
-    writeClassMetadata(myStream, metadata);
+    final List<ClassMetadata> copy = new ArrayList<ClassMetadata>(metadata);
+    submit(new Record() {
+      void write(DataOutput output) throws IOException {
+        writeClassMetadata(output, copy);
+      }
+    });
   }
 
   protected synchronized void start(DataOutput output) throws IOException {
@@ -106,6 +166,73 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
     super.start(output);
   }
 
+  /**
+   * @return total time in nanoseconds spent by the writer thread on encoding and writing the data
+   */
+  public long getWriteTime() {
+    return myWriteTime;
+  }
+
+  /**
+   * @return total time in nanoseconds the test threads waited for free space in the writer queue
+   */
+  public long getWaitTime() {
+    return myWaitTime.get();
+  }
+
+  private synchronized void submit(Record record) throws IOException {
+    checkWriteError();
+    if (myFinished) return;
+    if (!myQueue.offer(record)) {
+      final long s = System.nanoTime();
+      try {
+        myQueue.put(record);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the trace writer");
+      } finally {
+        myWaitTime.addAndGet(System.nanoTime() - s);
+      }
+    }
+  }
+
+  private void checkWriteError() throws IOException {
+    final IOException error = myWriteError;
+    if (error != null) throw error;
+  }
+
+  public void run() {
+    while (true) {
+      final Record record;
+      try {
+        record = myQueue.take();
+      } catch (InterruptedException e) {
+        continue;
+      }
+      final long s = System.nanoTime();
+      try {
+        if (myWriteError == null) {
+          record.write(myStream);
+        }
+      } catch (IOException e) {
+        myWriteError = e;
+      } catch (RuntimeException e) {
+        final IOException error = new IOException("Failed to write test discovery data");
+        error.initCause(e);
+        myWriteError = error;
+      } finally {
+        myWriteTime += System.nanoTime() - s;
+      }
+      if (record == myFinishRecord) {
+        try {
+          myStream.close();
+        } catch (IOException e) {
+          if (myWriteError == null) myWriteError = e;
+        }
+        return;
+      }
+    }
+  }
 
   private static File getCanonicalFile(File file) {
     try {
@@ -114,4 +241,8 @@ public class SingleTrFileDiscoveryProtocolDataListener extends TestDiscoveryProt
       return file.getAbsoluteFile();
     }
   }
+
+  private static abstract class Record {
+    abstract void write(DataOutput output) throws IOException;
+  }
 }
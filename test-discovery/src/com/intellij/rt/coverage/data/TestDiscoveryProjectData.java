@@ -22,7 +22,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.intellij.rt.coverage.util.CoverageIOUtil.GIGA;
 
@@ -74,6 +77,28 @@ public class TestDiscoveryProjectData {
   final ConcurrentMap<Integer, ClassMetadata> classesToMetadata = new ConcurrentHashMap<Integer, ClassMetadata>();
   private final TestDiscoveryDataListener myDataListener;
 
+  /**
+   * Registered method flags arrays. Arrays do not override equals, so the identity is used,
+   * as arrays of different class versions may be equal.
+   */
+  private final ConcurrentMap<boolean[], TracedClass> myTracedClasses = new ConcurrentHashMap<boolean[], TracedClass>();
+  /**
+   * Classes with methods visited since the current test start, so that test boundaries
+   * take time proportional to the number of classes used in a test, not the number of loaded classes.
+   * A class is added once per test by its touched flag, so instrumented code does not take locks.
+   */
+  private final Queue<TracedClass> myTouchedClasses = new ConcurrentLinkedQueue<TracedClass>();
+  /**
+   * Classes used in any of the finished tests, their metadata is passed to the listener as soon as it is computed.
+   */
+  private final Set<Integer> myUsedClasses = new HashSet<Integer>();
+  private final ClassMetadataWorker myMetadataWorker = new ClassMetadataWorker(this);
+  /**
+   * Serializes test boundaries and the listener calls. The project data monitor guards class registration only,
+   * and it is never held during the listener calls, so class initialization is not blocked by the listener.
+   */
+  private final Object myListenerLock = new Object();
+
   // called from instrumented code during class's static init
   public static boolean[] trace(String className, boolean[] methodFlags, String[] methodNames) {
     long s = System.nanoTime();
@@ -84,6 +109,11 @@ public class TestDiscoveryProjectData {
     }
   }
 
+  // called from instrumented code on a method visit when its flag is not set yet
+  public static void touch(boolean[] methodFlags, int methodId) {
+    ourProjectData.touchMethod(methodFlags, methodId);
+  }
+
   private static Long ourTraceTime = 0L;
   private static Long ourCleanupTime = 0L;
 
@@ -101,28 +131,48 @@ public class TestDiscoveryProjectData {
       //override previous data so different loaded classes would work with different arrays 
       //the last loaded class wins but at least no ArrayIndexOutOfBound would be possible due to different class versions
       myClassToVisitedMethods.put(classId, methodFlags);
+      myTracedClasses.remove(previousMethodFlags);
     }
+    myTracedClasses.put(methodFlags, new TracedClass(classId, methodFlags));
 
     myClassToMethodNames.put(classId, NameEnumerator.enumerate(methodNames, myNameEnumerator));
     return methodFlags;
   }
 
-  public synchronized void testDiscoveryEnded(final String className, final String methodName) {
-    try {
-      myDataListener.testFinished(className, methodName, myClassToVisitedMethods, myClassToMethodNames, enumerateFiles(myOpenFilesPerTest));
-      for (Map.Entry<Integer, boolean[]> e : myClassToVisitedMethods.entrySet()) {
-        for (boolean isUsed : e.getValue()) {
-          if (isUsed) {
-            ClassMetadata cm = classesToMetadata.remove(e.getKey());
+  private void touchMethod(boolean[] methodFlags, int methodId) {
+    methodFlags[methodId] = true;
+    final TracedClass tracedClass = myTracedClasses.get(methodFlags);
+    if (tracedClass != null && tracedClass.myTouched.compareAndSet(false, true)) {
+      myTouchedClasses.add(tracedClass);
+    }
+  }
+
+  public void testDiscoveryEnded(final String className, final String methodName) {
+    synchronized (myListenerLock) {
+      try {
+        Map<Integer, boolean[]> touchedClasses = new HashMap<Integer, boolean[]>();
+        for (TracedClass tracedClass : myTouchedClasses) {
+          // skip the flags of a replaced class version
+          if (myClassToVisitedMethods.get(tracedClass.myClassId) != tracedClass.myMethodFlags) continue;
+          touchedClasses.put(tracedClass.myClassId, tracedClass.myMethodFlags);
+        }
+        myDataListener.testFinished(className, methodName, touchedClasses, myClassToMethodNames, enumerateFiles(myOpenFilesPerTest));
+        List<ClassMetadata> metadata = new ArrayList<ClassMetadata>();
+        synchronized (this) {
+          for (Integer classId : touchedClasses.keySet()) {
+            if (!myUsedClasses.add(classId)) continue;
+            ClassMetadata cm = classesToMetadata.remove(classId);
             if (cm != null) {
-              myDataListener.addClassMetadata(Collections.singletonList(cm));
+              metadata.add(cm);
             }
-            break;
           }
         }
+        if (!metadata.isEmpty()) {
+          myDataListener.addClassMetadata(metadata);
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
       }
-    } catch (Exception e) {
-      e.printStackTrace();
     }
   }
 
@@ -143,21 +193,24 @@ public class TestDiscoveryProjectData {
     return result;
   }
 
-  public synchronized void testDiscoveryStarted(final String className, final String methodName) {
-    long s = System.nanoTime();
-    try {
-      cleanup();
-    } finally {
-      ourCleanupTime += System.nanoTime() - s;
+  public void testDiscoveryStarted(final String className, final String methodName) {
+    synchronized (myListenerLock) {
+      long s = System.nanoTime();
+      try {
+        cleanup();
+      } finally {
+        ourCleanupTime += System.nanoTime() - s;
+      }
     }
   }
 
   private void cleanup() {
-    for (Object e : myClassToVisitedMethods.entrySet()) {
-      boolean[] used = (boolean[]) ((Map.Entry) e).getValue();
-      for (int i = 0, len = used.length; i < len; ++i) {
-        if (used[i]) used[i] = false;
-      }
+    TracedClass tracedClass;
+    while ((tracedClass = myTouchedClasses.poll()) != null) {
+      // reset the touched flag first, so that a method entered concurrently queues the class again,
+      // otherwise its flag could stay set while the class is not queued, and the method would not be traced any more
+      tracedClass.myTouched.set(false);
+      Arrays.fill(tracedClass.myMethodFlags, false);
     }
 
     myOpenFilesPerTest.clear();
@@ -165,20 +218,56 @@ public class TestDiscoveryProjectData {
 
   private volatile boolean myFinished;
 
-  public synchronized void testDiscoveryFinished() {
+  /**
+   * Class metadata computation is awaited before the listener is finished, so that the metadata of all the used classes is written.
+   */
+  public void testDiscoveryFinished() {
     if (myFinished) return;
-    myFinished = true;
-    try {
-      myDataListener.testsFinished();
-    } catch (Exception e) {
-      e.printStackTrace();
+    myMetadataWorker.awaitCompletion();
+    synchronized (myListenerLock) {
+      if (myFinished) return;
+      myFinished = true;
+      try {
+        myDataListener.testsFinished();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
     }
   }
 
+  /**
+   * Schedule class metadata computation in background.
+   */
+  public void addClassMetadata(Callable<ClassMetadata> calculator) {
+    myMetadataWorker.submit(calculator);
+  }
+
   public void addClassMetadata(List<ClassMetadata> classMetadata) {
     for (ClassMetadata cm : classMetadata) {
-      classesToMetadata.put(myNameEnumerator.enumerate(cm.getFqn()), cm);
+      registerClassMetadata(cm);
+    }
+  }
+
+  void registerClassMetadata(ClassMetadata cm) {
+    int classId = myNameEnumerator.enumerate(cm.getFqn());
+    synchronized (this) {
+      if (!myUsedClasses.contains(classId)) {
+        classesToMetadata.put(classId, cm);
+        return;
+      }
     }
+    synchronized (myListenerLock) {
+      try {
+        myDataListener.addClassMetadata(Collections.singletonList(cm));
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  //TestOnly
+  void awaitClassMetadata() {
+    myMetadataWorker.awaitCompletion();
   }
 
   //TestOnly
@@ -196,6 +285,15 @@ public class TestDiscoveryProjectData {
     return myClassToVisitedMethods;
   }
 
+  //TestOnly
+  Collection<Integer> getTouchedClasses() {
+    List<Integer> result = new ArrayList<Integer>();
+    for (TracedClass tracedClass : myTouchedClasses) {
+      result.add(tracedClass.myClassId);
+    }
+    return result;
+  }
+
   private static final Map<Object, File> myOpenFilesMap = new WeakHashMap<Object, File>();
   private static final Collection<String> myOpenFilesPerTest = new LinkedHashSet<String>();
 
@@ -273,6 +371,11 @@ public class TestDiscoveryProjectData {
   private static synchronized void logTestInfo() {
     System.out.println("Trace time: " + 1. * ourTraceTime / GIGA);
     System.out.println("Cleanup time: " + 1. * ourCleanupTime / GIGA);
+    if (ourProjectData.myDataListener instanceof SingleTrFileDiscoveryProtocolDataListener) {
+      SingleTrFileDiscoveryProtocolDataListener listener = (SingleTrFileDiscoveryProtocolDataListener) ourProjectData.myDataListener;
+      System.out.println("Send time: " + 1. * listener.getWriteTime() / GIGA);
+      System.out.println("Send wait time: " + 1. * listener.getWaitTime() / GIGA);
+    }
 
     System.out.println("Leaked files: " + myOpenFilesMap.size());
     for (File value : new ArrayList<File>(myOpenFilesMap.values())) {
@@ -305,6 +408,17 @@ public class TestDiscoveryProjectData {
     }
   }
 
+  private static class TracedClass {
+    private final int myClassId;
+    private final boolean[] myMethodFlags;
+    private final AtomicBoolean myTouched = new AtomicBoolean();
+
+    private TracedClass(int classId, boolean[] methodFlags) {
+      myClassId = classId;
+      myMethodFlags = methodFlags;
+    }
+  }
+
   private static Object getJavaLangAccess() throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
     Class<?> sharedSecrets;
     try {
@@ -16,68 +16,273 @@
 
 package com.intellij.rt.coverage.testDiscovery.instrumentation;
 
-import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
-import org.jetbrains.coverage.org.objectweb.asm.Label;
-import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
-import org.jetbrains.coverage.org.objectweb.asm.util.Printer;
-import org.jetbrains.coverage.org.objectweb.asm.util.Textifier;
-import org.jetbrains.coverage.org.objectweb.asm.util.TraceClassVisitor;
-
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import org.jetbrains.coverage.org.objectweb.asm.*;
+
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
+/**
+ * Calculates checksums of a class declaration and its methods while passing all events to the next visitor,
+ * so that checksums are collected in the same pass as the instrumentation.
+ * <p>
+ * Visitor events are hashed directly with {@link ChecksumHasher}: opcodes, operands and constant values are hashed
+ * along with the event kind. Labels are hashed by their order in a method.
+ * Line numbers are ignored, so that moving a method does not change its checksum.
+ * Frames are ignored too, as they are derived from the code, and their representation depends on the class reader flags.
+ * The class declaration checksum includes all the class events before the first relevant method.
+ */
 public class CheckSumCalculator extends ClassVisitor {
+  // event kinds
+  private static final int CLASS = 1;
+  private static final int SOURCE = 2;
+  private static final int OUTER_CLASS = 3;
+  private static final int NEST_HOST = 4;
+  private static final int NEST_MEMBER = 5;
+  private static final int PERMITTED_SUBCLASS = 6;
+  private static final int INNER_CLASS = 7;
+  private static final int RECORD_COMPONENT = 8;
+  private static final int FIELD = 9;
+  private static final int METHOD = 10;
+  private static final int ANNOTATION = 11;
+  private static final int TYPE_ANNOTATION = 12;
+  private static final int PARAMETER_ANNOTATION = 13;
+  private static final int ANNOTATION_DEFAULT = 14;
+  private static final int ANNOTABLE_PARAMETER_COUNT = 15;
+  private static final int ATTRIBUTE = 16;
+  private static final int PARAMETER = 17;
+  private static final int INSN = 18;
+  private static final int INT_INSN = 19;
+  private static final int VAR_INSN = 20;
+  private static final int TYPE_INSN = 21;
+  private static final int FIELD_INSN = 22;
+  private static final int METHOD_INSN = 23;
+  private static final int INVOKE_DYNAMIC_INSN = 24;
+  private static final int JUMP_INSN = 25;
+  private static final int LABEL = 26;
+  private static final int LDC_INSN = 27;
+  private static final int IINC_INSN = 28;
+  private static final int TABLE_SWITCH_INSN = 29;
+  private static final int LOOKUP_SWITCH_INSN = 30;
+  private static final int MULTI_ANEW_ARRAY_INSN = 31;
+  private static final int TRY_CATCH_BLOCK = 32;
+  private static final int LOCAL_VARIABLE = 33;
+  private static final int LOCAL_VARIABLE_ANNOTATION = 34;
+  private static final int MAXS = 35;
+  private static final int END = 36;
+  // annotation value events
+  private static final int VALUE = 37;
+  private static final int ENUM = 38;
+  private static final int ARRAY = 39;
+  // constant kinds
+  private static final int INTEGER_CONSTANT = 1;
+  private static final int LONG_CONSTANT = 2;
+  private static final int FLOAT_CONSTANT = 3;
+  private static final int DOUBLE_CONSTANT = 4;
+  private static final int STRING_CONSTANT = 5;
+  private static final int TYPE_CONSTANT = 6;
+  private static final int HANDLE_CONSTANT = 7;
+  private static final int DYNAMIC_CONSTANT = 8;
+  private static final int BYTE_CONSTANT = 9;
+  private static final int BOOLEAN_CONSTANT = 10;
+  private static final int CHAR_CONSTANT = 11;
+  private static final int SHORT_CONSTANT = 12;
+  private static final int ARRAY_CONSTANT = 13;
+  private static final int NULL_CONSTANT = 14;
+
   private final Map<String, byte[]> checksums = new HashMap<String, byte[]>();
-  private final MessageDigest messageDigest;
+  private final ChecksumHasher hasher = new ChecksumHasher();
   private final String className;
+  private final ClassVisitor next;
+  private final InstrumentedMethodsFilter methodsFilter;
 
-  public CheckSumCalculator(int api, String className) {
-    super(api, new TraceClassVisitor(null, new ChecksumPrinter(api), null));
+  public CheckSumCalculator(int api, ClassVisitor cv, String className) {
+    super(api, cv);
     this.className = className;
-    try {
-      this.messageDigest = MessageDigest.getInstance("MD5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
+    this.next = cv;
+    this.methodsFilter = new InstrumentedMethodsFilter(className);
   }
 
   public Map<String, byte[]> getChecksums() {
     return checksums;
   }
 
-  private Printer getPrinter() {
-    return ((TraceClassVisitor) cv).p;
+  private void saveChecksum(String name) {
+    checksums.put(name, hasher.digest());
   }
 
-  private void saveChecksum(String name) {
-    PrintWriter pw = null;
-    try {
-      StringWriter sw = new StringWriter();
-      pw = new PrintWriter(sw);
-      getPrinter().print(pw);
-      checksums.put(name, messageDigest.digest(sw.toString().getBytes()));
-    } finally {
-      getPrinter().getText().clear();
-      if (pw != null) pw.close();
-    }
+  @Override
+  public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+    methodsFilter.visit(version, access, name, signature, superName, interfaces);
+    hasher.putByte(CLASS);
+    hasher.putInt(version);
+    hasher.putInt(access);
+    hasher.putString(name);
+    hasher.putString(signature);
+    hasher.putString(superName);
+    hasher.putStrings(interfaces);
+    super.visit(version, access, name, signature, superName, interfaces);
+  }
+
+  @Override
+  public void visitSource(String source, String debug) {
+    hasher.putByte(SOURCE);
+    hasher.putString(source);
+    hasher.putString(debug);
+    super.visitSource(source, debug);
+  }
+
+  @Override
+  public void visitOuterClass(String owner, String name, String descriptor) {
+    hasher.putByte(OUTER_CLASS);
+    hasher.putString(owner);
+    hasher.putString(name);
+    hasher.putString(descriptor);
+    super.visitOuterClass(owner, name, descriptor);
+  }
+
+  @Override
+  public void visitNestHost(String nestHost) {
+    hasher.putByte(NEST_HOST);
+    hasher.putString(nestHost);
+    super.visitNestHost(nestHost);
+  }
+
+  @Override
+  public void visitNestMember(String nestMember) {
+    hasher.putByte(NEST_MEMBER);
+    hasher.putString(nestMember);
+    super.visitNestMember(nestMember);
+  }
+
+  @Override
+  public void visitPermittedSubclass(String permittedSubclass) {
+    hasher.putByte(PERMITTED_SUBCLASS);
+    hasher.putString(permittedSubclass);
+    super.visitPermittedSubclass(permittedSubclass);
+  }
+
+  @Override
+  public void visitInnerClass(String name, String outerName, String innerName, int access) {
+    hasher.putByte(INNER_CLASS);
+    hasher.putString(name);
+    hasher.putString(outerName);
+    hasher.putString(innerName);
+    hasher.putInt(access);
+    super.visitInnerClass(name, outerName, innerName, access);
+  }
+
+  @Override
+  public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+    hashAnnotation(ANNOTATION, descriptor, visible);
+    return new AnnotationHasher(super.visitAnnotation(descriptor, visible));
+  }
+
+  @Override
+  public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+    hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+    return new AnnotationHasher(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+  }
+
+  @Override
+  public void visitAttribute(Attribute attribute) {
+    hasher.putByte(ATTRIBUTE);
+    hasher.putString(attribute.type);
+    super.visitAttribute(attribute);
+  }
+
+  @Override
+  public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+    hasher.putByte(RECORD_COMPONENT);
+    hasher.putString(name);
+    hasher.putString(descriptor);
+    hasher.putString(signature);
+    return new RecordComponentVisitor(api, super.visitRecordComponent(name, descriptor, signature)) {
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        hashAnnotation(ANNOTATION, descriptor, visible);
+        return new AnnotationHasher(super.visitAnnotation(descriptor, visible));
+      }
+
+      @Override
+      public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+        return new AnnotationHasher(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+      }
+
+      @Override
+      public void visitAttribute(Attribute attribute) {
+        hasher.putByte(ATTRIBUTE);
+        hasher.putString(attribute.type);
+        super.visitAttribute(attribute);
+      }
+
+      @Override
+      public void visitEnd() {
+        hasher.putByte(END);
+        super.visitEnd();
+      }
+    };
+  }
+
+  @Override
+  public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+    hasher.putByte(FIELD);
+    hasher.putInt(access);
+    hasher.putString(name);
+    hasher.putString(descriptor);
+    hasher.putString(signature);
+    hashConstant(value);
+    return new FieldVisitor(api, super.visitField(access, name, descriptor, signature, value)) {
+      @Override
+      public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        hashAnnotation(ANNOTATION, descriptor, visible);
+        return new AnnotationHasher(super.visitAnnotation(descriptor, visible));
+      }
+
+      @Override
+      public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+        return new AnnotationHasher(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+      }
+
+      @Override
+      public void visitAttribute(Attribute attribute) {
+        hasher.putByte(ATTRIBUTE);
+        hasher.putString(attribute.type);
+        super.visitAttribute(attribute);
+      }
+
+      @Override
+      public void visitEnd() {
+        hasher.putByte(END);
+        super.visitEnd();
+      }
+    };
   }
 
   /**
-   * visiting only relevant methods, see {@link InstrumentedMethodsCollector}
+   * Checksums are calculated only for relevant methods, see {@link InstrumentedMethodsFilter}.
+   * Default constructor is also included, even if it is not instrumented.
    */
   @Override
   public MethodVisitor visitMethod(int access, final String name,
                                    final String desc, String signature,
                                    String[] exceptions) {
+    if (methodsFilter.shouldVisitMethod(access, name, desc, signature, exceptions, false) == InstrumentedMethodsFilter.Decision.NO) {
+      return next == null ? null : next.visitMethod(access, name, desc, signature, exceptions);
+    }
     if (!checksums.containsKey(className)) {
       // class declaration checksum
       saveChecksum(className);
     }
-    return new MethodVisitor(api, super.visitMethod(access, name, desc, signature, exceptions)) {
+    hasher.putByte(METHOD);
+    hasher.putInt(access);
+    hasher.putString(name);
+    hasher.putString(desc);
+    hasher.putString(signature);
+    hasher.putStrings(exceptions);
+    return new MethodHasher(super.visitMethod(access, name, desc, signature, exceptions)) {
       @Override
       public void visitEnd() {
         super.visitEnd();
@@ -87,20 +292,382 @@ public class CheckSumCalculator extends ClassVisitor {
     };
   }
 
-  // TODO: directly extend asm Printer instead of Textifier to avoid string building overhead
-  private static class ChecksumPrinter extends Textifier {
-    ChecksumPrinter(int api) {
-      super(api);
+  private void hashAnnotation(int kind, String descriptor, boolean visible) {
+    hasher.putByte(kind);
+    hasher.putString(descriptor);
+    hasher.putBoolean(visible);
+  }
+
+  private void hashTypeAnnotation(int kind, int typeRef, TypePath typePath, String descriptor, boolean visible) {
+    hashAnnotation(kind, descriptor, visible);
+    hasher.putInt(typeRef);
+    hasher.putString(typePath == null ? null : typePath.toString());
+  }
+
+  private void hashHandle(Handle handle) {
+    hasher.putInt(handle.getTag());
+    hasher.putString(handle.getOwner());
+    hasher.putString(handle.getName());
+    hasher.putString(handle.getDesc());
+    hasher.putBoolean(handle.isInterface());
+  }
+
+  /**
+   * Hash a constant pool value or an annotation value.
+   */
+  private void hashConstant(Object value) {
+    if (value == null) {
+      hasher.putByte(NULL_CONSTANT);
+    } else if (value instanceof Integer) {
+      hasher.putByte(INTEGER_CONSTANT);
+      hasher.putInt((Integer) value);
+    } else if (value instanceof Long) {
+      hasher.putByte(LONG_CONSTANT);
+      hasher.putLong((Long) value);
+    } else if (value instanceof Float) {
+      hasher.putByte(FLOAT_CONSTANT);
+      hasher.putInt(Float.floatToRawIntBits((Float) value));
+    } else if (value instanceof Double) {
+      hasher.putByte(DOUBLE_CONSTANT);
+      hasher.putLong(Double.doubleToRawLongBits((Double) value));
+    } else if (value instanceof String) {
+      hasher.putByte(STRING_CONSTANT);
+      hasher.putString((String) value);
+    } else if (value instanceof Type) {
+      hasher.putByte(TYPE_CONSTANT);
+      hasher.putString(((Type) value).getDescriptor());
+    } else if (value instanceof Handle) {
+      hasher.putByte(HANDLE_CONSTANT);
+      hashHandle((Handle) value);
+    } else if (value instanceof ConstantDynamic) {
+      final ConstantDynamic constant = (ConstantDynamic) value;
+      hasher.putByte(DYNAMIC_CONSTANT);
+      hasher.putString(constant.getName());
+      hasher.putString(constant.getDescriptor());
+      hashHandle(constant.getBootstrapMethod());
+      final int count = constant.getBootstrapMethodArgumentCount();
+      hasher.putInt(count);
+      for (int i = 0; i < count; i++) {
+        hashConstant(constant.getBootstrapMethodArgument(i));
+      }
+    } else if (value instanceof Byte) {
+      hasher.putByte(BYTE_CONSTANT);
+      hasher.putByte((Byte) value);
+    } else if (value instanceof Boolean) {
+      hasher.putByte(BOOLEAN_CONSTANT);
+      hasher.putBoolean((Boolean) value);
+    } else if (value instanceof Character) {
+      hasher.putByte(CHAR_CONSTANT);
+      hasher.putInt((Character) value);
+    } else if (value instanceof Short) {
+      hasher.putByte(SHORT_CONSTANT);
+      hasher.putInt((Short) value);
+    } else if (value.getClass().isArray()) {
+      // primitive arrays in annotation values
+      final int length = java.lang.reflect.Array.getLength(value);
+      hasher.putByte(ARRAY_CONSTANT);
+      hasher.putInt(length);
+      for (int i = 0; i < length; i++) {
+        hashConstant(java.lang.reflect.Array.get(value, i));
+      }
+    } else {
+      hasher.putByte(STRING_CONSTANT);
+      hasher.putString(value.toString());
+    }
+  }
+
+  private class AnnotationHasher extends AnnotationVisitor {
+    AnnotationHasher(AnnotationVisitor av) {
+      super(CheckSumCalculator.this.api, av);
+    }
+
+    @Override
+    public void visit(String name, Object value) {
+      hasher.putByte(VALUE);
+      hasher.putString(name);
+      hashConstant(value);
+      super.visit(name, value);
+    }
+
+    @Override
+    public void visitEnum(String name, String descriptor, String value) {
+      hasher.putByte(ENUM);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      hasher.putString(value);
+      super.visitEnum(name, descriptor, value);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+      hasher.putByte(ANNOTATION);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      return new AnnotationHasher(super.visitAnnotation(name, descriptor));
+    }
+
+    @Override
+    public AnnotationVisitor visitArray(String name) {
+      hasher.putByte(ARRAY);
+      hasher.putString(name);
+      return new AnnotationHasher(super.visitArray(name));
+    }
+
+    @Override
+    public void visitEnd() {
+      hasher.putByte(END);
+      super.visitEnd();
+    }
+  }
+
+  private class MethodHasher extends MethodVisitor {
+    private final Map<Label, Integer> myLabels = new IdentityHashMap<Label, Integer>();
+
+    MethodHasher(MethodVisitor mv) {
+      super(CheckSumCalculator.this.api, mv);
+    }
+
+    private void hashLabel(Label label) {
+      Integer index = myLabels.get(label);
+      if (index == null) {
+        index = myLabels.size();
+        myLabels.put(label, index);
+      }
+      hasher.putInt(index);
+    }
+
+    private void hashLabels(Label[] labels) {
+      hasher.putInt(labels.length);
+      for (Label label : labels) {
+        hashLabel(label);
+      }
+    }
+
+    @Override
+    public void visitParameter(String name, int access) {
+      hasher.putByte(PARAMETER);
+      hasher.putString(name);
+      hasher.putInt(access);
+      super.visitParameter(name, access);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotationDefault() {
+      hasher.putByte(ANNOTATION_DEFAULT);
+      return new AnnotationHasher(super.visitAnnotationDefault());
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      hashAnnotation(ANNOTATION, descriptor, visible);
+      return new AnnotationHasher(super.visitAnnotation(descriptor, visible));
     }
 
     @Override
-    public void visitLineNumber(int line, Label start) {
-      // no-op
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+      return new AnnotationHasher(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+      hasher.putByte(ANNOTABLE_PARAMETER_COUNT);
+      hasher.putInt(parameterCount);
+      hasher.putBoolean(visible);
+      super.visitAnnotableParameterCount(parameterCount, visible);
+    }
+
+    @Override
+    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+      hashAnnotation(PARAMETER_ANNOTATION, descriptor, visible);
+      hasher.putInt(parameter);
+      return new AnnotationHasher(super.visitParameterAnnotation(parameter, descriptor, visible));
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+      hasher.putByte(ATTRIBUTE);
+      hasher.putString(attribute.type);
+      super.visitAttribute(attribute);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      hasher.putByte(INSN);
+      hasher.putInt(opcode);
+      super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      hasher.putByte(INT_INSN);
+      hasher.putInt(opcode);
+      hasher.putInt(operand);
+      super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+      hasher.putByte(VAR_INSN);
+      hasher.putInt(opcode);
+      hasher.putInt(var);
+      super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      hasher.putByte(TYPE_INSN);
+      hasher.putInt(opcode);
+      hasher.putString(type);
+      super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+      hasher.putByte(FIELD_INSN);
+      hasher.putInt(opcode);
+      hasher.putString(owner);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+      hasher.putByte(METHOD_INSN);
+      hasher.putInt(opcode);
+      hasher.putString(owner);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      hasher.putBoolean(isInterface);
+      super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+      hasher.putByte(INVOKE_DYNAMIC_INSN);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      hashHandle(bootstrapMethodHandle);
+      hasher.putInt(bootstrapMethodArguments.length);
+      for (Object argument : bootstrapMethodArguments) {
+        hashConstant(argument);
+      }
+      super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      hasher.putByte(JUMP_INSN);
+      hasher.putInt(opcode);
+      hashLabel(label);
+      super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      hasher.putByte(LABEL);
+      hashLabel(label);
+      super.visitLabel(label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+      hasher.putByte(LDC_INSN);
+      hashConstant(value);
+      super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+      hasher.putByte(IINC_INSN);
+      hasher.putInt(var);
+      hasher.putInt(increment);
+      super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      hasher.putByte(TABLE_SWITCH_INSN);
+      hasher.putInt(min);
+      hasher.putInt(max);
+      hashLabel(dflt);
+      hashLabels(labels);
+      super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      hasher.putByte(LOOKUP_SWITCH_INSN);
+      hashLabel(dflt);
+      hasher.putInt(keys.length);
+      for (int key : keys) {
+        hasher.putInt(key);
+      }
+      hashLabels(labels);
+      super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+      hasher.putByte(MULTI_ANEW_ARRAY_INSN);
+      hasher.putString(descriptor);
+      hasher.putInt(numDimensions);
+      super.visitMultiANewArrayInsn(descriptor, numDimensions);
+    }
+
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+      return new AnnotationHasher(super.visitInsnAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+      hasher.putByte(TRY_CATCH_BLOCK);
+      hashLabel(start);
+      hashLabel(end);
+      hashLabel(handler);
+      hasher.putString(type);
+      super.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+      hashTypeAnnotation(TYPE_ANNOTATION, typeRef, typePath, descriptor, visible);
+      return new AnnotationHasher(super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+      hasher.putByte(LOCAL_VARIABLE);
+      hasher.putString(name);
+      hasher.putString(descriptor);
+      hasher.putString(signature);
+      hashLabel(start);
+      hashLabel(end);
+      hasher.putInt(index);
+      super.visitLocalVariable(name, descriptor, signature, start, end, index);
+    }
+
+    @Override
+    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+      hashTypeAnnotation(LOCAL_VARIABLE_ANNOTATION, typeRef, typePath, descriptor, visible);
+      hashLabels(start);
+      hashLabels(end);
+      hasher.putInt(index.length);
+      for (int i : index) {
+        hasher.putInt(i);
+      }
+      return new AnnotationHasher(super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
     }
 
     @Override
-    protected Textifier createTextifier() {
-      return new ChecksumPrinter(api);
+    public void visitMaxs(int maxStack, int maxLocals) {
+      hasher.putByte(MAXS);
+      hasher.putInt(maxStack);
+      hasher.putInt(maxLocals);
+      super.visitMaxs(maxStack, maxLocals);
     }
   }
 }
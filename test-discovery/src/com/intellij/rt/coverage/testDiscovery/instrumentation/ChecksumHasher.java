@@ -0,0 +1,184 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+/**
+ * Accumulates primitive values and computes their 128-bit MurmurHash3 (x64 variant, zero seed).
+ * The hash is not cryptographic, but it is stable across runs and JVMs, as it does not depend on object identity or default charset.
+ */
+final class ChecksumHasher {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private byte[] myBuffer = new byte[1024];
+  private int mySize;
+
+  void putByte(int value) {
+    ensureCapacity(1);
+    myBuffer[mySize++] = (byte) value;
+  }
+
+  void putBoolean(boolean value) {
+    putByte(value ? 1 : 0);
+  }
+
+  void putInt(int value) {
+    ensureCapacity(4);
+    final byte[] buffer = myBuffer;
+    int size = mySize;
+    buffer[size++] = (byte) value;
+    buffer[size++] = (byte) (value >>> 8);
+    buffer[size++] = (byte) (value >>> 16);
+    buffer[size++] = (byte) (value >>> 24);
+    mySize = size;
+  }
+
+  void putLong(long value) {
+    putInt((int) value);
+    putInt((int) (value >>> 32));
+  }
+
+  /**
+   * String length is hashed as well, so that sequences of strings are not ambiguous.
+   */
+  void putString(String value) {
+    if (value == null) {
+      putInt(-1);
+      return;
+    }
+    final int length = value.length();
+    putInt(length);
+    ensureCapacity(2 * length);
+    final byte[] buffer = myBuffer;
+    int size = mySize;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      buffer[size++] = (byte) c;
+      buffer[size++] = (byte) (c >>> 8);
+    }
+    mySize = size;
+  }
+
+  void putStrings(String[] values) {
+    if (values == null) {
+      putInt(-1);
+      return;
+    }
+    putInt(values.length);
+    for (String value : values) {
+      putString(value);
+    }
+  }
+
+  /**
+   * Compute the hash of all the values put since the previous call and reset the state.
+   *
+   * @return 16 bytes of hash
+   */
+  byte[] digest() {
+    final byte[] data = myBuffer;
+    final int length = mySize;
+    mySize = 0;
+
+    long h1 = 0;
+    long h2 = 0;
+    final int blocksEnd = length & ~15;
+    for (int i = 0; i < blocksEnd; i += 16) {
+      long k1 = getLong(data, i);
+      long k2 = getLong(data, i + 8);
+
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    final int tail = length - blocksEnd;
+    if (tail > 8) {
+      long k2 = 0;
+      for (int i = tail - 1; i >= 8; i--) {
+        k2 ^= (data[blocksEnd + i] & 0xffL) << ((i - 8) * 8);
+      }
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+    }
+    if (tail > 0) {
+      long k1 = 0;
+      for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+        k1 ^= (data[blocksEnd + i] & 0xffL) << (i * 8);
+      }
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = mix(h1);
+    h2 = mix(h2);
+    h1 += h2;
+    h2 += h1;
+
+    final byte[] result = new byte[16];
+    for (int i = 0; i < 8; i++) {
+      result[i] = (byte) (h1 >>> (i * 8));
+      result[i + 8] = (byte) (h2 >>> (i * 8));
+    }
+    return result;
+  }
+
+  private void ensureCapacity(int extra) {
+    final int required = mySize + extra;
+    if (required <= myBuffer.length) return;
+    final byte[] buffer = new byte[Math.max(required, 2 * myBuffer.length)];
+    System.arraycopy(myBuffer, 0, buffer, 0, mySize);
+    myBuffer = buffer;
+  }
+
+  private static long getLong(byte[] data, int offset) {
+    long result = 0;
+    for (int i = 7; i >= 0; i--) {
+      result = (result << 8) | (data[offset + i] & 0xffL);
+    }
+    return result;
+  }
+
+  private static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+import com.intellij.rt.coverage.data.ClassMetadata;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Computes class checksums and source files from the original class bytes.
+ * Frames are skipped, as they are not included into checksums.
+ * The bytes are released once the metadata is computed, as the calculator may be referenced by the worker queue.
+ */
+class ClassMetadataCalculator implements Callable<ClassMetadata> {
+  private final String myClassName;
+  private byte[] myClassBytes;
+
+  ClassMetadataCalculator(String className, byte[] classBytes) {
+    myClassName = className;
+    myClassBytes = classBytes;
+  }
+
+  public ClassMetadata call() {
+    final CheckSumCalculator checksumCalculator = new CheckSumCalculator(Opcodes.API_VERSION, null, myClassName);
+    final SourceFilesCollector sourceFilesCollector = new SourceFilesCollector(Opcodes.API_VERSION, checksumCalculator, myClassName);
+    final ClassReader cr = new ClassReader(myClassBytes);
+    myClassBytes = null;
+    cr.accept(sourceFilesCollector, ClassReader.SKIP_FRAMES);
+    return new ClassMetadata(myClassName, sourceFilesCollector.getSources(), checksumCalculator.getChecksums());
+  }
+}
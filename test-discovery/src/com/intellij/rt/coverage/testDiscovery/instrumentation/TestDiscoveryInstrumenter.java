@@ -16,13 +16,10 @@
 
 package com.intellij.rt.coverage.testDiscovery.instrumentation;
 
-import com.intellij.rt.coverage.data.ClassMetadata;
 import com.intellij.rt.coverage.data.TestDiscoveryProjectData;
 import com.intellij.rt.coverage.instrumentation.ExtraFieldInstrumenter;
 import org.jetbrains.coverage.org.objectweb.asm.*;
 
-import java.util.Collections;
-
 public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
   private final String myClassName;
   int myClassVersion;
@@ -34,29 +31,35 @@ public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
   static final String METHODS_VISITED_CLASS = "[Z";
   private final String[] myMethodNames;
 
+  private byte[] myClassBytes;
+
   public TestDiscoveryInstrumenter(ClassVisitor cw, ClassReader cr, String className) {
     super(cr, cw, className, METHODS_VISITED, METHODS_VISITED_CLASS, false);
     myMethodFilter = new InstrumentedMethodsFilter(className);
     myClassName = className;
-    myMethodNames = inspectClass(cr);
+    myMethodNames = collectMethods(cr);
   }
 
-  private String[] inspectClass(ClassReader cr) {
-    // calculate checksums for class
-    CheckSumCalculator checksumCalculator = new CheckSumCalculator(api, myClassName);
-    // collect source files of class
-    SourceFilesCollector sourceFilesCollector = new SourceFilesCollector(api, checksumCalculator, myClassName);
-    // collect methods to instrument (and calculate checksums for them, see CheckSumCalculator)
-    InstrumentedMethodsCollector methodCollector = new InstrumentedMethodsCollector(api, sourceFilesCollector, this, myClassName);
-    cr.accept(methodCollector, 0);
-    TestDiscoveryProjectData.getProjectData()
-        .addClassMetadata(Collections.singletonList(
-            new ClassMetadata(myClassName,
-                sourceFilesCollector.getSources(),
-                checksumCalculator.getChecksums())));
+  /**
+   * Methods to instrument must be known before the instrumentation, as the method names are generated in the field initializer.
+   * Only method headers are read here, except for the default constructor code, which is checked to be trivial.
+   */
+  private String[] collectMethods(ClassReader cr) {
+    InstrumentedMethodsCollector methodCollector = new InstrumentedMethodsCollector(api, null, this, myClassName);
+    cr.accept(methodCollector, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
     return methodCollector.instrumentedMethods();
   }
 
+  /**
+   * Request class metadata (checksums and source files) collection. The original class bytes are passed
+   * to a background worker in the end of the class, so the metadata is not computed on the class loading thread.
+   *
+   * @param classBytes the bytes the class reader of this instrumenter was created from
+   */
+  public void collectMetadata(byte[] classBytes) {
+    myClassBytes = classBytes;
+  }
+
   @Override
   public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
     myMethodFilter.visit(version, access, name, signature, superName, interfaces);
@@ -84,12 +87,22 @@ public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
     MethodVisitor newMv = new MethodVisitor(Opcodes.API_VERSION, mv) {
       final int myMethodId = myCurrentMethodCount++;
 
+      /**
+       * Registers the method visit only when its flag is not set yet, so that the class is added to the
+       * touched classes of the current test, see {@link TestDiscoveryProjectData#touch(boolean[], int)}.
+       */
       @Override
       public void visitCode() {
         mv.visitFieldInsn(Opcodes.GETSTATIC, getInternalClassName(), METHODS_VISITED, METHODS_VISITED_CLASS);
         pushInstruction(this, myMethodId);
-        visitInsn(Opcodes.ICONST_1);
-        visitInsn(Opcodes.BASTORE);
+        visitInsn(Opcodes.BALOAD);
+        final Label alreadyVisited = new Label();
+        visitJumpInsn(Opcodes.IFNE, alreadyVisited);
+
+        mv.visitFieldInsn(Opcodes.GETSTATIC, getInternalClassName(), METHODS_VISITED, METHODS_VISITED_CLASS);
+        pushInstruction(this, myMethodId);
+        visitMethodInsn(Opcodes.INVOKESTATIC, TestDiscoveryProjectData.PROJECT_DATA_OWNER, "touch", "([ZI)V", false);
+        visitLabel(alreadyVisited);
 
         super.visitCode();
       }
@@ -103,6 +116,10 @@ public class TestDiscoveryInstrumenter extends ExtraFieldInstrumenter {
       generateMembers();
     }
     super.visitEnd();
+    if (myClassBytes != null) {
+      TestDiscoveryProjectData.getProjectData().addClassMetadata(new ClassMetadataCalculator(myClassName, myClassBytes));
+      myClassBytes = null;
+    }
   }
 
   /**
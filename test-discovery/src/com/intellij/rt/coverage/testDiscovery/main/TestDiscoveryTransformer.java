@@ -38,9 +38,18 @@ public class TestDiscoveryTransformer extends AbstractIntellijClassfileTransform
 
   @Override
   protected ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw) {
-    return COUNTERS_IN_INNER_CLASS
+    return createClassVisitor(className, loader, null, cr, cw);
+  }
+
+  @Override
+  protected ClassVisitor createClassVisitor(String className, ClassLoader loader, byte[] classfileBuffer, ClassReader cr, ClassVisitor cw) {
+    final TestDiscoveryInstrumenter instrumenter = COUNTERS_IN_INNER_CLASS
         ? new TestDiscoveryInnerClassInstrumenter(cw, cr, className, loader)
         : new TestDiscoveryInstrumenter(cw, cr, className);
+    if (classfileBuffer != null) {
+      instrumenter.collectMetadata(classfileBuffer);
+    }
+    return instrumenter;
   }
 
   @Override
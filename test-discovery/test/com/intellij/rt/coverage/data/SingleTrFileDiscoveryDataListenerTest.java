@@ -135,6 +135,30 @@ public class SingleTrFileDiscoveryDataListenerTest {
     assertThat(baos.toByteArray()).isEqualTo(BinaryResponses.singleTestSingleMethod(version));
   }
 
+  @Test
+  public void testVisitedMethodsAreCopiedOnTestFinish() throws Exception {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final DataOutputStream dos = new DataOutputStream(baos);
+    final SingleTrFileDiscoveryProtocolDataListener listener = new SingleTrFileDiscoveryProtocolDataListener(dos, version);
+
+    listener.getNameEnumerator().enumerate("A");
+    listener.getNameEnumerator().enumerate("B");
+    listener.getNameEnumerator().enumerate("C");
+
+    final Map<Integer, boolean[]> classes = new HashMap<Integer, boolean[]>();
+    final Map<Integer, int[]> methods = new HashMap<Integer, int[]>();
+    final boolean[] visited = {true};
+    classes.put(1, new boolean[]{false});
+    classes.put(2, visited);
+    methods.put(1, new int[]{1});
+    methods.put(2, new int[]{3});
+    listener.testFinished("A", "B", classes, methods, Collections.<int[]>emptyList());
+    // next test start resets the flags while the data may be not written yet
+    visited[0] = false;
+    listener.testsFinished();
+    assertThat(baos.toByteArray()).isEqualTo(BinaryResponses.singleTestSingleMethod(version));
+  }
+
   @Test
   public void testV2TwoTestsIncrementalDict() throws Exception {
     BinaryResponseBuilder builder = new BinaryResponseBuilder()
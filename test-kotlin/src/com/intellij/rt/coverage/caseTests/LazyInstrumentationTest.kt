@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.caseTests
+
+import com.intellij.rt.coverage.Coverage
+import com.intellij.rt.coverage.CoverageTest
+import com.intellij.rt.coverage.TestConfiguration
+import com.intellij.rt.coverage.assertEqualsLines
+import com.intellij.rt.coverage.data.ProjectData
+import org.junit.Test
+import java.io.File
+
+internal abstract class AbstractLazyInstrumentationTest(override val coverage: Coverage) : CoverageTest() {
+    override fun verifyResults(projectData: ProjectData, configuration: TestConfiguration, testFile: File) {
+        assertEqualsLines(projectData, configuration.coverageData, configuration.classes)
+    }
+
+    @Test
+    fun testLazyInstrumentation() = test("custom.lazyInstrumentation")
+}
+
+internal class LazyBranchInstrumentationTest : AbstractLazyInstrumentationTest(Coverage.BRANCH)
+internal class LazyNewBranchInstrumentationTest : AbstractLazyInstrumentationTest(Coverage.NEW_BRANCH)
+internal class LazyCondyBranchInstrumentationTest : AbstractLazyInstrumentationTest(Coverage.CONDY_BRANCH)
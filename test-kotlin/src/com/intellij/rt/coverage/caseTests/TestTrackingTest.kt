@@ -82,6 +82,50 @@ internal class ClassDataTestTrackingTest : AbstractTestTrackingTest(Coverage.NEW
     }
 }
 
+internal class HitsDiffTestTrackingTest : AbstractTestTrackingTest(Coverage.NEW_BRANCH) {
+    init {
+        commonExtraArgs.add("-Dcoverage.test.tracking.hits.diff=true")
+    }
+}
+
+internal class ClassTestTrackingTest : CoverageTest() {
+    override val coverage = Coverage.NEW_BRANCH
+    override val testTracking = true
+
+    init {
+        commonExtraArgs.add("-Dcoverage.test.tracking.classes=true")
+    }
+
+    override fun verifyResults(projectData: ProjectData, configuration: TestConfiguration, testFile: File) {
+        val classes = configuration.classes.toSet()
+        Assert.assertEquals(mapOf("OneTest" to classes, "TwoTest" to classes), testTrackingClasses(myDataFile, configuration.classes))
+        assertEqualsLines(projectData, configuration.coverageData, configuration.classes)
+    }
+
+    @Test
+    fun testTwoTests() = test("custom.testTracking.twoTests")
+}
+
+internal class ParallelTestTrackingTest : AbstractTestTrackingTest(Coverage.NEW_BRANCH) {
+    init {
+        commonExtraArgs.add("-Dcoverage.test.tracking.parallel=true")
+    }
+
+    @Test
+    fun testParallelTests() {
+        val test = getTestFile("custom.testTracking.parallelTests")
+        test(
+            test.testName,
+            configuration = extractTestConfiguration(test.file).copy(extraArgs = mutableListOf("-Dthreads=4"))
+        ) { projectData, configuration, _ ->
+            val lines = testTrackingLines(myDataFile, configuration.classes)
+            Assert.assertEquals(5, lines.size)
+            lines.values.forEach { Assert.assertEquals(CALLS_PER_LINE, it.size) }
+            assertEqualsLines(projectData, configuration.coverageData, configuration.classes)
+        }
+    }
+}
+
 internal abstract class TestTrackingVerifyInstrumentationTest(override val coverage: Coverage) : CoverageTest() {
     override val testTracking = true
     override fun verifyResults(projectData: ProjectData, configuration: TestConfiguration, testFile: File) {
@@ -105,3 +149,8 @@ internal class ClassDataTestTrackingInstrumentationTest : TestTrackingVerifyInst
         commonExtraArgs.add("-Didea.new.test.tracking.coverage=false")
     }
 }
+internal class HitsDiffTestTrackingInstrumentationTest : TestTrackingVerifyInstrumentationTest(Coverage.NEW_BRANCH) {
+    init {
+        commonExtraArgs.add("-Dcoverage.test.tracking.hits.diff=true")
+    }
+}
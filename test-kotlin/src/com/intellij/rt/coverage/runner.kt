@@ -135,6 +135,11 @@ internal fun testTrackingLines(coverageDataFile: File, classNames: List<String>)
     return result
 }
 
+internal fun testTrackingClasses(coverageDataFile: File, classNames: List<String>): Map<String, Set<String>> =
+    loadTestTrackingData(coverageDataFile).mapValues { (_, testData) ->
+        testData.keys.filter { all in classNames || it in classNames }.toSet()
+    }
+
 private fun loadTestTrackingData(coverageDataFile: File): Map<String, Map<String, IntArray>> {
     val tracesDir = ProjectData.createTracesDir(coverageDataFile)
     return try {
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package testData.custom.lazyInstrumentation
+
+import com.intellij.rt.coverage.data.ProjectData
+
+// classes: Worker
+// extra args: -Dcoverage.lazy.instrumentation.enable=true
+
+class Worker {             // coverage: FULL
+    fun work(x: Int): Int {
+        return if (x > 0) { // coverage: PARTIAL
+            x               // coverage: FULL
+        } else {
+            -x              // coverage: NONE
+        }
+    }
+
+    fun unused() {
+        println()           // coverage: NONE
+    }
+}
+
+fun main() {
+    val worker = Worker()
+    // the first call requests the upgrade to the full instrumentation in background
+    worker.work(1)
+    awaitUpgrade(Worker::class.java.name)
+    worker.work(1)
+}
+
+/**
+ * Lines are registered by the full instrumentation, and the upgrade thread waits for the next request
+ * once the re-transformation is completed.
+ */
+private fun awaitUpgrade(className: String) {
+    val deadline = System.currentTimeMillis() + 60_000
+    while (ProjectData.getProjectData().getClassData(className)?.lines == null || !isUpgradeThreadIdle()) {
+        if (System.currentTimeMillis() > deadline) throw IllegalStateException("Class $className has not been upgraded")
+        Thread.sleep(10)
+    }
+}
+
+private fun isUpgradeThreadIdle() = Thread.getAllStackTraces().keys
+    .filter { it.name == "coverage-lazy-instrumentation" }
+    .all { it.state == Thread.State.WAITING }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.instrumentation.cds.AgentCdsArchive;
+import com.intellij.rt.coverage.util.ResourceUtil;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.jar.JarFile;
+
+public class AgentCdsArchiveTest {
+  private static final String TRANSFORMER_CLASS = "com/intellij/rt/coverage/instrumentation/CoverageTransformer";
+
+  @Rule
+  public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testClassListIsNotEmptyForAgentJar() throws Exception {
+    Assume.assumeFalse("CDS archive requires Java 11+", System.getProperty("java.specification.version").startsWith("1."));
+    final File agentJar = new File(ResourceUtil.getAgentPath("intellij-coverage-agent"));
+    final File cdsJar = new File(tmpDir.getRoot(), "agent-cds.jar");
+    final File classList = new File(tmpDir.getRoot(), "agent.classlist");
+
+    AgentCdsArchive.createCdsJar(agentJar, cdsJar);
+    Assert.assertTrue(getClassVersion(cdsJar, TRANSFORMER_CLASS) >= 50);
+
+    final int classes = AgentCdsArchive.createClassList(cdsJar, classList);
+    Assert.assertTrue("No agent classes in the class list", classes > 0);
+    Assert.assertTrue(readClassList(classList).contains(TRANSFORMER_CLASS + "\n"));
+  }
+
+  private static int getClassVersion(File jarFile, String className) throws Exception {
+    final JarFile jar = new JarFile(jarFile);
+    try {
+      final DataInputStream is = new DataInputStream(jar.getInputStream(jar.getEntry(className + ".class")));
+      try {
+        is.readInt();
+        is.readUnsignedShort();
+        return is.readUnsignedShort();
+      } finally {
+        is.close();
+      }
+    } finally {
+      jar.close();
+    }
+  }
+
+  private static String readClassList(File classList) throws Exception {
+    final StringBuilder result = new StringBuilder();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(classList), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        result.append(line.split("\\s", 2)[0]).append('\n');
+      }
+    } finally {
+      reader.close();
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
+import com.intellij.rt.coverage.instrumentation.filters.classes.ChangedClassesFilter;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+public class ChangedClassesFilterTest {
+  @Test
+  public void testClassName() throws IOException {
+    final ChangedClassesFilter filter = createFilter(Changed.class.getName());
+    Assert.assertTrue(filter.isChanged(read(Changed.class)));
+    Assert.assertTrue(filter.isChanged(read(Changed.Inner.class)));
+    Assert.assertFalse(filter.isChanged(read(ChangedClassesFilterTest.class)));
+    Assert.assertFalse(filter.isChanged(read(Unchanged.class)));
+  }
+
+  @Test
+  public void testClassFile() throws IOException {
+    final ChangedClassesFilter filter = createFilter(Changed.class.getName().replace('.', '/') + ".class");
+    Assert.assertTrue(filter.isChanged(read(Changed.class)));
+    Assert.assertFalse(filter.isChanged(read(Unchanged.class)));
+  }
+
+  @Test
+  public void testSourceFile() throws IOException {
+    final ChangedClassesFilter filter = createFilter("# changed files", "", "tests\\src\\com\\intellij\\rt\\coverage\\ChangedClassesFilterTest.java");
+    Assert.assertTrue(filter.isChanged(read(ChangedClassesFilterTest.class)));
+    Assert.assertTrue(filter.isChanged(read(Changed.class)));
+    Assert.assertTrue(filter.isChanged(read(Changed.Inner.class)));
+    Assert.assertTrue(filter.isChanged(read(Unchanged.class)));
+    Assert.assertFalse(filter.isChanged(read(TransformedClassCacheTest.class)));
+  }
+
+  @Test
+  public void testSourceFileInOtherPackage() throws IOException {
+    final ChangedClassesFilter filter = createFilter("src/org/example/ChangedClassesFilterTest.java", "ChangedClassesFilterTest.java");
+    Assert.assertFalse(filter.isChanged(read(ChangedClassesFilterTest.class)));
+  }
+
+  @Test
+  public void testUnchangedClassIsNotInstrumented() throws IOException {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final CoverageTransformer transformer = new CoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList());
+    transformer.setChangedClassesFilter(createFilter(Changed.class.getName()));
+
+    Assert.assertNotNull(transformer.instrument(read(Changed.class).b, Changed.class.getName(), Changed.class.getClassLoader(), true));
+    Assert.assertNull(transformer.instrument(read(Unchanged.class).b, Unchanged.class.getName(), Unchanged.class.getClassLoader(), true));
+    Assert.assertNotNull(projectData.getClassData(Changed.class.getName()));
+    Assert.assertNull(projectData.getClassData(Unchanged.class.getName()));
+  }
+
+  private static ChangedClassesFilter createFilter(String... entries) throws IOException {
+    final File file = File.createTempFile("changed", ".txt");
+    try {
+      final FileOutputStream os = new FileOutputStream(file);
+      try {
+        for (String entry : entries) {
+          os.write((entry + "\n").getBytes("UTF-8"));
+        }
+      } finally {
+        os.close();
+      }
+      return ChangedClassesFilter.load(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static ClassReader read(Class<?> clazz) throws IOException {
+    final String resource = clazz.getName().replace('.', '/') + ".class";
+    return new ClassReader(TransformedClassLoader.readBytes(clazz.getClassLoader().getResourceAsStream(resource)));
+  }
+
+  static class Changed {
+    int foo(int x) {
+      return x > 0 ? x : -x;
+    }
+
+    static class Inner {
+      int bar() {
+        return 42;
+      }
+    }
+  }
+}
+
+class Unchanged {
+  int foo() {
+    return 1;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.util.CoverageReport;
+import com.intellij.rt.coverage.util.FileUtil;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import com.intellij.rt.coverage.util.classFinder.ClassPathEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClassPathUsageReportTest {
+  @Test
+  public void testWithUnloadedClasses() throws IOException {
+    doTest(true);
+  }
+
+  @Test
+  public void testWithoutUnloadedClasses() throws IOException {
+    doTest(false);
+  }
+
+  private static void doTest(boolean appendUnloaded) throws IOException {
+    final File root = File.createTempFile("classpath", "");
+    Assert.assertTrue(root.delete() && root.mkdir());
+    try {
+      final File directory = new File(root, "classes");
+      final byte[] usedBytes = getBytes(Used.class);
+      final byte[] unusedBytes = getBytes(Unused.class);
+      // any class from another package
+      final byte[] unusedPackageBytes = getBytes(FileUtil.class);
+      writeFile(new File(directory, getPath(Used.class)), usedBytes);
+      writeFile(new File(directory, getPath(FileUtil.class)), unusedPackageBytes);
+      final File jar = new File(root, "lib.jar");
+      final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+      try {
+        zip.putNextEntry(new ZipEntry(getPath(Unused.class)));
+        zip.write(unusedBytes);
+        zip.closeEntry();
+      } finally {
+        zip.close();
+      }
+
+      final ProjectData projectData = ProjectData.createProjectData(true);
+      final ClassData used = projectData.getOrCreateClassData(Used.class.getName());
+      final LineData line = new LineData(1, "foo()V");
+      line.setHits(1);
+      used.setLines(new LineData[]{null, line});
+
+      final ClassFinder classFinder = new ClassFinder(Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList()) {
+        @Override
+        protected Collection<ClassPathEntry> getClassPathEntries() {
+          return Arrays.asList(new ClassPathEntry(directory.getPath()), new ClassPathEntry(jar.getPath()));
+        }
+      };
+      final File report = new File(root, "report.ic");
+      final File usage = new File(root, "usage.tsv");
+      final CoverageReport coverageReport = new CoverageReport(report, appendUnloaded, classFinder, false);
+      coverageReport.setClassPathUsageFile(usage);
+      coverageReport.save(projectData);
+
+      Assert.assertEquals(Arrays.asList(
+          "kind\tstatus\tclasses\texecutedClasses\tbytes\texecutedBytes\tentry\tpackage",
+          "entry\tUNUSED\t1\t0\t" + unusedBytes.length + "\t0\t" + jar.getPath() + "\t",
+          "entry\tUSED\t2\t1\t" + (usedBytes.length + unusedPackageBytes.length) + "\t" + usedBytes.length + "\t" + directory.getPath() + "\t",
+          "package\tUNUSED\t1\t0\t" + unusedPackageBytes.length + "\t0\t" + directory.getPath() + "\t" + FileUtil.class.getPackage().getName()
+      ), Arrays.asList(new String(TransformedClassLoader.readBytes(new FileInputStream(usage)), "UTF-8").split("\n")));
+    } finally {
+      delete(root);
+    }
+  }
+
+  private static String getPath(Class<?> clazz) {
+    return clazz.getName().replace('.', '/') + ".class";
+  }
+
+  private static byte[] getBytes(Class<?> clazz) throws IOException {
+    return TransformedClassLoader.readBytes(clazz.getClassLoader().getResourceAsStream(getPath(clazz)));
+  }
+
+  private static void writeFile(File file, byte[] bytes) throws IOException {
+    file.getParentFile().mkdirs();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  static class Used {
+  }
+
+  static class Unused {
+  }
+}
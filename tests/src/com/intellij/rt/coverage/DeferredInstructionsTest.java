@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.BranchData;
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.data.instructions.ClassInstructions;
+import com.intellij.rt.coverage.data.instructions.LineInstructions;
+import com.intellij.rt.coverage.instrumentation.DeferredInstructions;
+import com.intellij.rt.coverage.instrumentation.UnloadedUtil;
+import com.intellij.rt.coverage.util.FinalizationExecutor;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import com.intellij.rt.coverage.util.classFinder.ClassPathEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+public class DeferredInstructionsTest {
+  @Test
+  public void testDeferredInstructionsMatchInstrumentation() throws Exception {
+    final ProjectData expected = ProjectData.createProjectData(true);
+    expected.setInstructionsCoverage(true);
+    UnloadedUtil.appendUnloaded(expected, createClassFinder(), false, true);
+
+    final ProjectData deferred = ProjectData.createProjectData(true);
+    UnloadedUtil.appendUnloaded(deferred, createClassFinder(), false, true);
+    Assert.assertTrue(deferred.getInstructions().isEmpty());
+    deferred.setInstructionsCoverage(true);
+    final FinalizationExecutor executor = new FinalizationExecutor(4, 0);
+    try {
+      DeferredInstructions.appendInstructions(deferred, createClassFinder(), executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    final Map<String, String> expectedInstructions = collectInstructions(expected);
+    Assert.assertTrue(expectedInstructions.size() > 10);
+    Assert.assertEquals(expectedInstructions, collectInstructions(deferred));
+  }
+
+  private static ClassFinder createClassFinder() throws Exception {
+    final File root = new File(ProjectData.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    final List<Pattern> includes = Collections.singletonList(Pattern.compile("com\\.intellij\\.rt\\.coverage\\.data\\..*"));
+    return new ClassFinder(includes, Collections.<Pattern>emptyList()) {
+      @Override
+      protected Collection<ClassPathEntry> getClassPathEntries() {
+        return Collections.singletonList(new ClassPathEntry(root.getPath()));
+      }
+    };
+  }
+
+  private static Map<String, String> collectInstructions(ProjectData projectData) {
+    final Map<String, String> result = new TreeMap<String, String>();
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final Object[] lines = classData.getLines();
+      if (lines == null) continue;
+      final ClassInstructions classInstructions = projectData.getInstructions().get(classData.getName());
+      Assert.assertNotNull(classData.getName(), classInstructions);
+      final StringBuilder builder = new StringBuilder();
+      for (Object line : lines) {
+        if (line == null) continue;
+        final LineData lineData = (LineData) line;
+        final LineInstructions lineInstructions = classInstructions.getlines()[lineData.getLineNumber()];
+        final BranchData instructions = lineInstructions.getInstructionsData(lineData);
+        builder.append(lineData.getLineNumber()).append(':').append(instructions.getTotalBranches()).append(' ');
+      }
+      result.put(classData.getName(), builder.toString());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.SpeculativeUnloadedAnalysis;
+import com.intellij.rt.coverage.instrumentation.UnloadedUtil;
+import com.intellij.rt.coverage.util.FinalizationExecutor;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import com.intellij.rt.coverage.util.classFinder.ClassPathEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+public class FinalizationExecutorTest {
+  @Test
+  public void testAllTasksAreCompleted() {
+    final FinalizationExecutor executor = new FinalizationExecutor(4, 0);
+    try {
+      final List<Integer> items = new ArrayList<Integer>();
+      for (int i = 0; i < 1000; i++) {
+        items.add(i);
+      }
+      final AtomicInteger sum = new AtomicInteger();
+      executor.forEach("test", items, new FinalizationExecutor.Task<Integer>() {
+        public void run(Integer item) {
+          sum.addAndGet(item);
+        }
+      }, true);
+      Assert.assertEquals(999 * 1000 / 2, sum.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testTimeBudget() {
+    final FinalizationExecutor executor = new FinalizationExecutor(1, 50);
+    final AtomicInteger processed = new AtomicInteger();
+    executor.forEach("test", Collections.nCopies(100, 10L), new FinalizationExecutor.Task<Long>() {
+      public void run(Long sleepMs) {
+        try {
+          Thread.sleep(sleepMs);
+        } catch (InterruptedException ignored) {
+        }
+        processed.incrementAndGet();
+      }
+    }, true);
+    Assert.assertTrue(executor.isBudgetExceeded());
+    Assert.assertTrue(processed.get() > 0);
+    Assert.assertTrue(processed.get() < 100);
+  }
+
+  @Test
+  public void testParallelUnloadedAnalysis() throws Exception {
+    final Map<String, String> sequential = analyseUnloaded(1);
+    final Map<String, String> parallel = analyseUnloaded(4);
+    Assert.assertTrue(sequential.size() > 10);
+    Assert.assertEquals(sequential, parallel);
+  }
+
+  static ClassFinder createClassFinder() throws Exception {
+    final File root = new File(ProjectData.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    final List<Pattern> includes = Collections.singletonList(Pattern.compile("com\\.intellij\\.rt\\.coverage\\.data\\..*"));
+    return new ClassFinder(includes, Collections.<Pattern>emptyList()) {
+      @Override
+      protected Collection<ClassPathEntry> getClassPathEntries() {
+        return Collections.singletonList(new ClassPathEntry(root.getPath()));
+      }
+    };
+  }
+
+  private static Map<String, String> analyseUnloaded(int threads) throws Exception {
+    return analyseUnloaded(ProjectData.createProjectData(true), createClassFinder(), threads, null);
+  }
+
+  static Map<String, String> analyseUnloaded(ProjectData projectData, ClassFinder classFinder, int threads,
+                                             SpeculativeUnloadedAnalysis speculativeAnalysis) {
+    final FinalizationExecutor executor = new FinalizationExecutor(threads, 0);
+    try {
+      UnloadedUtil.appendUnloaded(projectData, classFinder, false, true, null, null, executor, speculativeAnalysis);
+    } finally {
+      executor.shutdown();
+    }
+    final Map<String, String> result = new TreeMap<String, String>();
+    for (ClassData classData : projectData.getClassesCollection()) {
+      final StringBuilder builder = new StringBuilder();
+      final Object[] lines = classData.getLines();
+      if (lines == null) continue;
+      for (Object line : lines) {
+        if (line == null) continue;
+        final LineData lineData = (LineData) line;
+        builder.append(lineData.getLineNumber()).append(':').append(lineData.getMethodSignature())
+            .append(':').append(lineData.jumpsCount()).append(':').append(lineData.switchesCount()).append(' ');
+      }
+      result.put(classData.getName(), builder.toString());
+    }
+    return result;
+  }
+}
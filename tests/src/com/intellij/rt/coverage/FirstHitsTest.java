@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.MethodFirstHit;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
+import com.intellij.rt.coverage.util.CoverageReport;
+import com.intellij.rt.coverage.util.ProjectDataLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class FirstHitsTest {
+  @Test
+  public void testLineCoverage() throws Exception {
+    doTest(false);
+  }
+
+  @Test
+  public void testBranchCoverage() throws Exception {
+    doTest(true);
+  }
+
+  private static void doTest(boolean branchCoverage) throws Exception {
+    final ProjectData projectData = ProjectData.createProjectData(null, null, false, branchCoverage,
+        Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList(), null);
+    projectData.setFirstHitsEnabled(true);
+    final CoverageTransformer transformer = new CoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList());
+
+    final String name = Sample.class.getName();
+    final ClassLoader parent = Sample.class.getClassLoader();
+    final byte[] bytes = TransformedClassLoader.readBytes(parent.getResourceAsStream(name.replace('.', '/') + ".class"));
+    final byte[] instrumented = transformer.instrument(bytes, name, parent, true);
+    Assert.assertNotNull(instrumented);
+
+    final Class<?> sample = new TransformedClassLoader(parent, name, instrumented).loadClass(name);
+    for (int i = 0; i < 3; i++) {
+      sample.getMethod("second", int.class).invoke(null, i - 1);
+      sample.getMethod("first").invoke(null);
+    }
+
+    checkFirstHits(projectData.getClassData(name));
+    projectData.applyHits();
+
+    final File report = File.createTempFile("firstHits", ".ic");
+    try {
+      CoverageReport.save(projectData, report, null);
+      final ClassData loaded = ProjectDataLoader.load(report).getClassData(name);
+      checkFirstHits(loaded);
+      checkLinesCovered(loaded);
+    } finally {
+      report.delete();
+    }
+  }
+
+  private static void checkFirstHits(ClassData classData) {
+    final Map<String, MethodFirstHit> firstHits = classData.getFirstHits();
+    Assert.assertNotNull(firstHits);
+    Assert.assertEquals(2, firstHits.size());
+    final MethodFirstHit second = firstHits.get("second(I)I");
+    final MethodFirstHit first = firstHits.get("first()V");
+    Assert.assertNotNull(second);
+    Assert.assertNotNull(first);
+    Assert.assertTrue(second.getOrder() < first.getOrder());
+    Assert.assertTrue(second.getTimeNs() <= first.getTimeNs());
+    Assert.assertEquals(Thread.currentThread().getName(), first.getThreadName());
+  }
+
+  private static void checkLinesCovered(ClassData classData) {
+    for (Object line : classData.getLines()) {
+      if (line == null) continue;
+      final LineData lineData = (LineData) line;
+      if (lineData.getMethodSignature().equals("first()V") || lineData.getMethodSignature().equals("second(I)I")) {
+        Assert.assertTrue(lineData.getHits() > 0);
+      }
+    }
+  }
+
+  public static class Sample {
+    public static void first() {
+      System.getProperty("first");
+    }
+
+    public static int second(int x) {
+      if (x > 0) {
+        return x;
+      }
+      return -x;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.offline.OfflineCoverageTransformer;
+import com.intellij.rt.coverage.offline.RawClassData;
+import com.intellij.rt.coverage.offline.RawProjectData;
+import com.intellij.rt.coverage.offline.RawProjectInit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+public class OfflineCoverageTransformerTest {
+  @After
+  public void tearDown() {
+    RawProjectInit.ourProjectData = null;
+  }
+
+  /**
+   * The sample class contains the length placeholder constant itself, so another placeholder must be patched.
+   */
+  @Test
+  public void testPatchedLengthIsExact() throws Exception {
+    final String name = Sample.class.getName();
+    final ClassLoader loader = Sample.class.getClassLoader();
+    final byte[] bytes = TransformedClassLoader.readBytes(loader.getResourceAsStream(name.replace('.', '/') + ".class"));
+    final ProjectData projectData = ProjectData.createProjectData(false);
+    final OfflineCoverageTransformer transformer = new OfflineCoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList());
+
+    final byte[] result = transformer.instrument(bytes, name, loader, true);
+    Assert.assertNotNull(result);
+    final ClassData classData = projectData.getClassData(name);
+    final int length = classData.getHitsMask().length;
+    Assert.assertTrue(length > 0);
+
+    final RawProjectData rawProjectData = new RawProjectData();
+    RawProjectInit.ourProjectData = rawProjectData;
+    final Class<?> instrumented = new TransformedClassLoader(loader, name, result).loadClass(name);
+    Assert.assertEquals(Sample.PLACEHOLDER, instrumented.getMethod("placeholder").invoke(null));
+
+    Assert.assertEquals(1, rawProjectData.getClasses().size());
+    final RawClassData rawClassData = rawProjectData.getClasses().iterator().next();
+    Assert.assertEquals(name, rawClassData.name);
+    Assert.assertEquals(length, rawClassData.hits.length);
+  }
+
+  public static class Sample {
+    public static final int PLACEHOLDER = 0x7EC0DE00;
+
+    public static int placeholder() {
+      return PLACEHOLDER;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
+import com.intellij.rt.coverage.instrumentation.OverheadGuard;
+import com.intellij.rt.coverage.util.CoverageReport;
+import com.intellij.rt.coverage.util.ProjectDataLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+public class OverheadGuardTest {
+  @Test
+  public void testProbesBudget() {
+    final OverheadGuard guard = new OverheadGuard(0, 10);
+    guard.classTransformed("A", 1000000000L, 10);
+    Assert.assertFalse(guard.isExceeded());
+    guard.classTransformed("B", 0, 1);
+    Assert.assertTrue(guard.isExceeded());
+  }
+
+  @Test
+  public void testTimeBudget() {
+    final OverheadGuard guard = new OverheadGuard(5, 0);
+    guard.classTransformed("A", 5000000L, 1000);
+    Assert.assertFalse(guard.isExceeded());
+    guard.classTransformed("B", 1, 0);
+    Assert.assertTrue(guard.isExceeded());
+  }
+
+  @Test
+  public void testClassesAreDegradedToLineCoverage() throws IOException {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final CoverageTransformer transformer = new CoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList());
+    transformer.setOverheadGuard(new OverheadGuard(0, 1));
+
+    instrument(transformer, First.class);
+    instrument(transformer, Second.class);
+
+    final ClassData first = projectData.getClassData(First.class.getName());
+    Assert.assertFalse(first.isDegraded());
+    Assert.assertTrue(hasJumps(first));
+    final ClassData second = projectData.getClassData(Second.class.getName());
+    Assert.assertTrue(second.isDegraded());
+    Assert.assertFalse(hasJumps(second));
+
+    final File report = File.createTempFile("degraded", ".ic");
+    try {
+      CoverageReport.save(projectData, report, null);
+      final ProjectData loaded = ProjectDataLoader.load(report);
+      Assert.assertFalse(loaded.getClassData(First.class.getName()).isDegraded());
+      Assert.assertTrue(loaded.getClassData(Second.class.getName()).isDegraded());
+    } finally {
+      report.delete();
+    }
+  }
+
+  private static void instrument(CoverageTransformer transformer, Class<?> clazz) throws IOException {
+    final String name = clazz.getName();
+    final ClassLoader loader = clazz.getClassLoader();
+    final byte[] bytes = TransformedClassLoader.readBytes(loader.getResourceAsStream(name.replace('.', '/') + ".class"));
+    Assert.assertNotNull(transformer.instrument(bytes, name, loader, true));
+  }
+
+  private static boolean hasJumps(ClassData classData) {
+    for (Object line : classData.getLines()) {
+      if (line != null && ((LineData) line).jumpsCount() > 0) return true;
+    }
+    return false;
+  }
+
+  static class First {
+    int foo(int x) {
+      if (x > 0) {
+        return x;
+      }
+      return -x;
+    }
+  }
+
+  static class Second {
+    int foo(int x) {
+      if (x > 0) {
+        return x;
+      }
+      return -x;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
+import com.intellij.rt.coverage.util.StringsPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Instrumentation-time shared state is accessed from parallel-capable class loaders without external synchronization.
+ */
+public class ParallelInstrumentationStressTest {
+  private static final int THREADS = 8;
+  private static final int ITERATIONS = 2000;
+  private static final int INSTRUMENTATION_ITERATIONS = 50;
+  private static final Class<?>[] CLASSES = {First.class, Second.class, Third.class};
+
+  @Test
+  public void testParallelInstrumentation() throws Exception {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final CoverageTransformer transformer = new CoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList()) {
+      @Override
+      protected boolean isClassCacheEnabled() {
+        return false;
+      }
+    };
+    final List<byte[]> bytes = new ArrayList<byte[]>();
+    for (Class<?> clazz : CLASSES) {
+      bytes.add(TransformedClassLoader.readBytes(clazz.getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class")));
+    }
+
+    final List<List<ClassData>> results = runInParallel(INSTRUMENTATION_ITERATIONS, new Task<List<ClassData>>() {
+      public List<ClassData> run(int thread, int iteration) {
+        final List<ClassData> result = new ArrayList<ClassData>();
+        final ClassLoader loader = new ClassLoader(ParallelInstrumentationStressTest.class.getClassLoader()) {};
+        for (int i = 0; i < CLASSES.length; i++) {
+          final String name = CLASSES[i].getName();
+          Assert.assertNotNull(transformer.instrument(bytes.get(i), name, loader, true));
+          result.add(projectData.getClassData(name));
+        }
+        return result;
+      }
+    });
+
+    for (int i = 0; i < CLASSES.length; i++) {
+      final ClassData classData = projectData.getClassData(CLASSES[i].getName());
+      Assert.assertNotNull(classData);
+      Assert.assertNotNull(classData.getLines());
+      for (List<ClassData> result : results) {
+        Assert.assertSame(classData, result.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testClassDataIsCreatedOnce() throws Exception {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final List<ClassData> results = runInParallel(ITERATIONS, new Task<ClassData>() {
+      public ClassData run(int thread, int iteration) {
+        final ClassData classData = projectData.getOrCreateClassData("Class" + iteration);
+        Assert.assertSame(classData, projectData.getClassData("Class" + iteration));
+        return classData;
+      }
+    });
+    for (int i = 0; i < results.size(); i++) {
+      Assert.assertSame(projectData.getClassData("Class" + i % ITERATIONS), results.get(i));
+    }
+    Assert.assertEquals(ITERATIONS, projectData.getClassesNumber());
+  }
+
+  @Test
+  public void testStringsPool() throws Exception {
+    final List<String> results = runInParallel(ITERATIONS, new Task<String>() {
+      public String run(int thread, int iteration) {
+        return StringsPool.getFromPool(new String("stress.pool.String" + iteration));
+      }
+    });
+    for (int i = 0; i < results.size(); i++) {
+      Assert.assertSame(StringsPool.getFromPool("stress.pool.String" + i % ITERATIONS), results.get(i));
+    }
+  }
+
+  @Test
+  public void testIgnoredMethods() throws Exception {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    runInParallel(ITERATIONS, new Task<Object>() {
+      public Object run(int thread, int iteration) {
+        if (thread % 2 == 0) {
+          projectData.addIgnoredMethod("Owner" + iteration, "foo", "()V");
+        } else {
+          projectData.isMethodIgnored("Owner" + iteration, "foo", "()V");
+        }
+        return null;
+      }
+    });
+    for (int i = 0; i < ITERATIONS; i++) {
+      Assert.assertTrue(projectData.isMethodIgnored("Owner" + i, "foo", "()V"));
+      Assert.assertFalse(projectData.isMethodIgnored("Owner" + i, "foo", "(I)V"));
+    }
+  }
+
+  private interface Task<T> {
+    T run(int thread, int iteration);
+  }
+
+  /**
+   * Run task in several threads simultaneously.
+   *
+   * @return results ordered by thread, then by iteration
+   */
+  private static <T> List<T> runInParallel(final int iterations, final Task<T> task) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+      final List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        futures.add(executor.submit(new Callable<List<T>>() {
+          public List<T> call() throws Exception {
+            final List<T> result = new ArrayList<T>();
+            barrier.await();
+            for (int i = 0; i < iterations; i++) {
+              result.add(task.run(thread, i));
+            }
+            return result;
+          }
+        }));
+      }
+      final List<T> result = new ArrayList<T>();
+      for (Future<List<T>> future : futures) {
+        result.addAll(future.get());
+      }
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  static class First {
+    int foo(int x) {
+      return x > 0 ? x : -x;
+    }
+  }
+
+  static class Second {
+    Object pick(boolean b) {
+      return b ? new ArrayList<Object>() : new LinkedList<Object>();
+    }
+  }
+
+  static class Third {
+    String name(int x) {
+      switch (x) {
+        case 1:
+          return "one";
+        case 2:
+          return "two";
+        default:
+          return "many";
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.LineData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.SpeculativeUnloadedAnalysis;
+import com.intellij.rt.coverage.util.classFinder.ClassFinder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static com.intellij.rt.coverage.FinalizationExecutorTest.analyseUnloaded;
+import static com.intellij.rt.coverage.FinalizationExecutorTest.createClassFinder;
+
+public class SpeculativeUnloadedAnalysisTest {
+  @Test
+  public void testSpeculativeUnloadedAnalysis() throws Exception {
+    final Map<String, String> sequential = analyseUnloaded(ProjectData.createProjectData(true), createClassFinder(), 1, null);
+
+    final ClassFinder classFinder = createClassFinder();
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final SpeculativeUnloadedAnalysis speculativeAnalysis = new SpeculativeUnloadedAnalysis(projectData, classFinder, false, null, 0);
+    // analyse synchronously, so that all the classes are transferred
+    speculativeAnalysis.run();
+    final Map<String, String> speculative = analyseUnloaded(projectData, classFinder, 1, speculativeAnalysis);
+
+    Assert.assertTrue(sequential.size() > 10);
+    Assert.assertEquals(sequential, speculative);
+  }
+
+  @Test
+  public void testSpeculativeResultsOfLoadedClassAreDiscarded() throws Exception {
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final SpeculativeUnloadedAnalysis speculative = new SpeculativeUnloadedAnalysis(projectData, createClassFinder(), false, null, 0);
+    speculative.run();
+    final String className = LineData.class.getName();
+    projectData.getOrCreateClassData(className);
+    Assert.assertFalse(speculative.transfer(projectData, className));
+    Assert.assertTrue(speculative.transfer(projectData, ClassData.class.getName()));
+    Assert.assertNotNull(projectData.getClassData(ClassData.class.getName()).getLines());
+  }
+}
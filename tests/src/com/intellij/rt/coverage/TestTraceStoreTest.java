@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.util.TestTraceStore;
+import com.intellij.rt.coverage.util.TestTrackingIOUtil;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestTraceStoreTest {
+  private File myDir;
+
+  @Before
+  public void setUp() throws Exception {
+    myDir = File.createTempFile("traces", "");
+    myDir.delete();
+    myDir.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : myDir.listFiles()) {
+      file.delete();
+    }
+    myDir.delete();
+  }
+
+  @Test
+  public void testLoadAll() throws Exception {
+    final TestTraceStore store = new TestTraceStore(myDir);
+    for (int i = 0; i < 1000; i++) {
+      store.add("test" + i, createTrace(i));
+    }
+    store.close();
+
+    final Map<String, Map<String, int[]>> data = TestTrackingIOUtil.loadTestTrackingData(myDir);
+    Assert.assertEquals(1000, data.size());
+    for (int i = 0; i < 1000; i++) {
+      assertTrace(i, data.get("test" + i));
+    }
+  }
+
+  @Test
+  public void testLoadSingleTest() throws Exception {
+    TestTraceStore store = new TestTraceStore(myDir);
+    store.add("a", createTrace(1));
+    store.add("b", createTrace(2));
+    store.close();
+    // next run appends a new segment, the last trace of a test is used
+    store = new TestTraceStore(myDir);
+    store.add("a", createTrace(3));
+    store.close();
+
+    assertTrace(3, TestTraceStore.loadTest(myDir, "a"));
+    assertTrace(2, TestTraceStore.loadTest(myDir, "b"));
+    Assert.assertNull(TestTraceStore.loadTest(myDir, "c"));
+    assertTrace(3, TestTrackingIOUtil.loadTestTrackingData(myDir).get("a"));
+  }
+
+  @Test
+  public void testMixedWithTraceFiles() throws Exception {
+    final TestTraceStore store = new TestTraceStore(myDir);
+    store.add("a", createTrace(1));
+    store.close();
+    TestTrackingIOUtil.saveTestResults(myDir, "b", createTrace(2));
+
+    final Map<String, Map<String, int[]>> data = TestTrackingIOUtil.loadTestTrackingData(myDir);
+    Assert.assertEquals(2, data.size());
+    assertTrace(1, data.get("a"));
+    assertTrace(2, data.get("b"));
+  }
+
+  @Test
+  public void testIncompleteRecordIgnored() throws Exception {
+    final TestTraceStore store = new TestTraceStore(myDir);
+    store.add("a", createTrace(1));
+    store.add("b", createTrace(2));
+    store.close();
+    final RandomAccessFile segment = new RandomAccessFile(new File(myDir, "traces-0.seg"), "rw");
+    try {
+      segment.setLength(segment.length() - 3);
+    } finally {
+      segment.close();
+    }
+
+    final Map<String, Map<String, int[]>> data = TestTrackingIOUtil.loadTestTrackingData(myDir);
+    Assert.assertEquals(1, data.size());
+    assertTrace(1, data.get("a"));
+  }
+
+  private static Map<Object, long[]> createTrace(int seed) {
+    final Map<Object, long[]> trace = new HashMap<Object, long[]>();
+    for (int c = 0; c < 3; c++) {
+      final long[] mask = TraceMaskUtil.create(100);
+      TraceMaskUtil.setRegistered(mask, true);
+      for (int line : getLines(seed, c)) {
+        TraceMaskUtil.setLine(mask, line);
+      }
+      trace.put("Class" + c, mask);
+    }
+    return trace;
+  }
+
+  private static int[] getLines(int seed, int c) {
+    return new int[]{1 + c, 10 + seed % 50, 64 + c, 99};
+  }
+
+  private static void assertTrace(int seed, Map<String, int[]> classes) {
+    Assert.assertNotNull(classes);
+    Assert.assertEquals(3, classes.size());
+    for (int c = 0; c < 3; c++) {
+      final int[] expected = getLines(seed, c);
+      Arrays.sort(expected);
+      Assert.assertEquals(Arrays.toString(expected), Arrays.toString(classes.get("Class" + c)));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.util.TestTrackingIOUtil;
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TraceMaskTest {
+  private static final int[] LINES = {1, 2, 63, 64, 65, 127, 128, 200};
+
+  @Test
+  public void testLinesIteration() {
+    final long[] mask = TraceMaskUtil.create(201);
+    Assert.assertEquals(5, mask.length);
+    TraceMaskUtil.setRegistered(mask, true);
+    for (int line : LINES) {
+      TraceMaskUtil.setLine(mask, line);
+    }
+    Assert.assertTrue(TraceMaskUtil.isRegistered(mask));
+    Assert.assertEquals(LINES.length, TraceMaskUtil.countLines(mask));
+    int i = 0;
+    for (int line = TraceMaskUtil.nextLine(mask, 1); line >= 0; line = TraceMaskUtil.nextLine(mask, line + 1)) {
+      Assert.assertEquals(LINES[i++], line);
+    }
+    Assert.assertEquals(LINES.length, i);
+
+    TraceMaskUtil.setRegistered(mask, false);
+    Assert.assertFalse(TraceMaskUtil.isRegistered(mask));
+    Assert.assertEquals(1, TraceMaskUtil.nextLine(mask, 0));
+  }
+
+  @Test
+  public void testLinesDoNotShareWordWithRegistrationFlag() {
+    Assert.assertEquals(1, TraceMaskUtil.create(0).length);
+    final long[] mask = TraceMaskUtil.create(64);
+    for (int line = 0; line < 64; line++) {
+      TraceMaskUtil.setLine(mask, line);
+      Assert.assertTrue(TraceMaskUtil.getWordIndex(line) > 0);
+    }
+    Assert.assertFalse(TraceMaskUtil.isRegistered(mask));
+    Assert.assertEquals(0, mask[0]);
+  }
+
+  @Test
+  public void testSaveTestResults() throws Exception {
+    final File dir = File.createTempFile("traces", "");
+    dir.delete();
+    dir.mkdirs();
+    try {
+      final long[] mask = TraceMaskUtil.create(201);
+      TraceMaskUtil.setRegistered(mask, true);
+      for (int line : LINES) {
+        TraceMaskUtil.setLine(mask, line);
+      }
+      final Map<Object, long[]> trace = new HashMap<Object, long[]>();
+      trace.put("A", mask);
+      trace.put("B", TraceMaskUtil.create(10));
+      TestTrackingIOUtil.saveTestResults(dir, "test", trace);
+
+      final Map<String, int[]> classes = TestTrackingIOUtil.loadTestTrackingData(dir).get("test");
+      Assert.assertEquals(Arrays.toString(LINES), Arrays.toString(classes.get("A")));
+      Assert.assertEquals(0, classes.get("B").length);
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+}
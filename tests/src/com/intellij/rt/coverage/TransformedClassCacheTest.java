@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage;
+
+import com.intellij.rt.coverage.data.ClassData;
+import com.intellij.rt.coverage.data.ProjectData;
+import com.intellij.rt.coverage.instrumentation.CoverageTransformer;
+import com.intellij.rt.coverage.instrumentation.TransformedClassCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+public class TransformedClassCacheTest {
+  @Test
+  public void testSameBytesShareEntry() {
+    final TransformedClassCache cache = new TransformedClassCache();
+    final byte[] bytes = {1, 2, 3};
+    final TransformedClassCache.Entry entry = cache.getEntry("A", bytes);
+    entry.setResult(new byte[]{4, 5});
+
+    final TransformedClassCache.Entry sameEntry = cache.getEntry("A", bytes.clone());
+    Assert.assertSame(entry, sameEntry);
+    Assert.assertTrue(sameEntry.isComputed());
+    Assert.assertArrayEquals(new byte[]{4, 5}, sameEntry.getResult());
+  }
+
+  @Test
+  public void testNotTransformedResultIsCached() {
+    final TransformedClassCache cache = new TransformedClassCache();
+    final TransformedClassCache.Entry entry = cache.getEntry("A", new byte[]{1, 2, 3});
+    Assert.assertFalse(entry.isNotTransformed());
+    entry.setResult(null);
+    Assert.assertTrue(entry.isComputed());
+    Assert.assertTrue(entry.isNotTransformed());
+    Assert.assertNull(entry.getResult());
+  }
+
+  @Test
+  public void testNewClassVersionReplacesEntry() {
+    final TransformedClassCache cache = new TransformedClassCache();
+    final TransformedClassCache.Entry entry = cache.getEntry("A", new byte[]{1, 2, 3});
+    entry.setResult(new byte[]{4, 5});
+
+    final TransformedClassCache.Entry newEntry = cache.getEntry("A", new byte[]{1, 2, 4});
+    Assert.assertNotSame(entry, newEntry);
+    Assert.assertFalse(newEntry.isComputed());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testLoaderDependentEntryIsNotShared() {
+    final TransformedClassCache cache = new TransformedClassCache();
+    final byte[] bytes = {1, 2, 3};
+    final ClassLoader loader = TransformedClassCacheTest.class.getClassLoader();
+    final TransformedClassCache.Entry entry = cache.getEntry("A", bytes, loader);
+    entry.setResult(new byte[]{4, 5});
+    Assert.assertSame(entry, cache.getEntry("A", bytes.clone(), loader));
+
+    final TransformedClassCache.Entry otherLoaderEntry = cache.getEntry("A", bytes, new ClassLoader(loader) {});
+    Assert.assertNotSame(entry, otherLoaderEntry);
+    Assert.assertFalse(otherLoaderEntry.isComputed());
+    Assert.assertNotSame(otherLoaderEntry, cache.getEntry("A", bytes));
+  }
+
+  @Test
+  public void testClassIsInstrumentedOnce() throws Exception {
+    final String name = Sample.class.getName();
+    final ClassLoader loader = Sample.class.getClassLoader();
+    final byte[] bytes = TransformedClassLoader.readBytes(loader.getResourceAsStream(name.replace('.', '/') + ".class"));
+    final ProjectData projectData = ProjectData.createProjectData(true);
+    final CoverageTransformer transformer = new CoverageTransformer(projectData, false, Collections.<Pattern>emptyList(), Collections.<Pattern>emptyList()) {
+      @Override
+      protected boolean isClassCacheEnabled() {
+        return true;
+      }
+    };
+
+    final byte[] first = transformer.instrument(bytes, name, loader, false);
+    final ClassData classData = projectData.getClassData(name);
+    final Object[] lines = classData.getLines().clone();
+
+    final byte[] second = transformer.instrument(bytes, name, new ClassLoader(loader) {}, false);
+    Assert.assertArrayEquals(first, second);
+    Assert.assertSame(classData, projectData.getClassData(name));
+    for (int i = 0; i < lines.length; i++) {
+      Assert.assertSame(lines[i], classData.getLineData(i));
+    }
+  }
+
+  static class Sample {
+    int foo(int x) {
+      if (x > 0) {
+        return x;
+      }
+      return -x;
+    }
+  }
+}
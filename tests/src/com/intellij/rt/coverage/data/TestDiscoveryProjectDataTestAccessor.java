@@ -23,11 +23,14 @@ import org.jetbrains.coverage.gnu.trove.TObjectIntProcedure;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
 public class TestDiscoveryProjectDataTestAccessor {
   public static Collection<ClassMetadata> getClassMetaData() {
+    TestDiscoveryProjectData.getProjectData().awaitClassMetadata();
     return TestDiscoveryProjectData.getProjectData().classesToMetadata.values();
   }
 
@@ -63,6 +66,18 @@ public class TestDiscoveryProjectDataTestAccessor {
     return result;
   }
 
+  @NotNull
+  public static Set<String> getTouchedClassNames() {
+    TestDiscoveryProjectData projectData = TestDiscoveryProjectData.getProjectData();
+    TIntObjectHashMap<String> namesMap = reverse(projectData.getMyNameEnumerator().getNamesMap());
+
+    Set<String> result = new HashSet<String>();
+    for (Integer classId : projectData.getTouchedClasses()) {
+      result.add(namesMap.get(classId));
+    }
+    return result;
+  }
+
   private static TIntObjectHashMap<String> reverse(TObjectIntHashMap<String> names) {
     final TIntObjectHashMap<String> result = new TIntObjectHashMap<String>();
     names.forEachEntry(new TObjectIntProcedure<String>() {
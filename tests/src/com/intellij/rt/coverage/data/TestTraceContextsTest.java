@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.data;
+
+import com.intellij.rt.coverage.util.TraceMaskUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class TestTraceContextsTest {
+  private static final int THREADS = 8;
+  private static final int LINES = 128;
+
+  @Test
+  public void testLinesTracedConcurrentlyAreNotLost() throws Exception {
+    final ClassData classData = new ClassData("A");
+    classData.setLines(new LineData[LINES + 1]);
+    for (int iteration = 0; iteration < 100; iteration++) {
+      final TestTraceContexts contexts = new TestTraceContexts();
+      contexts.start("test");
+      final CountDownLatch start = new CountDownLatch(1);
+      final Thread[] threads = new Thread[THREADS];
+      for (int i = 0; i < THREADS; i++) {
+        final int thread = i;
+        // threads created during the test inherit its trace
+        threads[i] = new Thread(new Runnable() {
+          public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException ignored) {
+            }
+            for (int line = 1 + thread; line <= LINES; line += THREADS) {
+              contexts.traceLine(classData, line);
+            }
+          }
+        });
+        threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      final Map<Object, long[]> trace = contexts.end("test");
+      Assert.assertEquals(LINES, TraceMaskUtil.countLines(trace.get(classData)));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery;
+
+import com.intellij.rt.coverage.testDiscovery.instrumentation.CheckSumCalculator;
+import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
+import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
+import org.jetbrains.coverage.org.objectweb.asm.Label;
+import org.jetbrains.coverage.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CheckSumCalculatorTest {
+  private static final String FOO = "foo/()I";
+  private static final String BAR = "bar/()Ljava/lang/String;";
+
+  @Test
+  public void testChecksumsAreStable() {
+    final Map<String, byte[]> checksums = checksums(generateClass(1, "bar", 10));
+    assertEquals(3, checksums.size());
+    for (byte[] checksum : checksums.values()) {
+      assertEquals(16, checksum.length);
+    }
+    assertChecksumsEqual(checksums, checksums(generateClass(1, "bar", 10)));
+  }
+
+  @Test
+  public void testLineNumbersAreIgnored() {
+    assertChecksumsEqual(checksums(generateClass(1, "bar", 10)), checksums(generateClass(1, "bar", 20)));
+  }
+
+  @Test
+  public void testOnlyChangedMethodChecksumChanges() {
+    final Map<String, byte[]> before = checksums(generateClass(1, "bar", 10));
+    final Map<String, byte[]> intChanged = checksums(generateClass(2, "bar", 10));
+    assertFalse(Arrays.equals(before.get(FOO), intChanged.get(FOO)));
+    assertArrayEquals(before.get(BAR), intChanged.get(BAR));
+    assertArrayEquals(before.get("Foo"), intChanged.get("Foo"));
+
+    final Map<String, byte[]> stringChanged = checksums(generateClass(1, "baz", 10));
+    assertArrayEquals(before.get(FOO), stringChanged.get(FOO));
+    assertFalse(Arrays.equals(before.get(BAR), stringChanged.get(BAR)));
+  }
+
+  private static void assertChecksumsEqual(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+  private static Map<String, byte[]> checksums(byte[] bytes) {
+    final CheckSumCalculator calculator = new CheckSumCalculator(Opcodes.API_VERSION, null, "Foo");
+    new ClassReader(bytes).accept(calculator, 0);
+    return calculator.getChecksums();
+  }
+
+  /**
+   * <pre>
+   * public class Foo {
+   *   public static int foo() { return intConstant; }
+   *   public static String bar() { return stringConstant; }
+   * }
+   * </pre>
+   */
+  private static byte[] generateClass(int intConstant, String stringConstant, int firstLine) {
+    final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "Foo", null, "java/lang/Object", null);
+    cw.visitSource("Foo.java", null);
+
+    final MethodVisitor foo = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "foo", "()I", null, null);
+    foo.visitCode();
+    final Label fooStart = new Label();
+    foo.visitLabel(fooStart);
+    foo.visitLineNumber(firstLine, fooStart);
+    foo.visitIntInsn(Opcodes.BIPUSH, intConstant);
+    foo.visitInsn(Opcodes.IRETURN);
+    foo.visitMaxs(0, 0);
+    foo.visitEnd();
+
+    final MethodVisitor bar = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "bar", "()Ljava/lang/String;", null, null);
+    bar.visitCode();
+    final Label barStart = new Label();
+    bar.visitLabel(barStart);
+    bar.visitLineNumber(firstLine + 1, barStart);
+    bar.visitLdcInsn(stringConstant);
+    bar.visitInsn(Opcodes.ARETURN);
+    bar.visitMaxs(0, 0);
+    bar.visitEnd();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+}
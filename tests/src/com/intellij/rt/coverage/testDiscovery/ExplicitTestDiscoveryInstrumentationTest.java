@@ -142,12 +142,47 @@ public class ExplicitTestDiscoveryInstrumentationTest {
     l2.loadClass("Foo").getDeclaredMethod("baz2").invoke(null);
   }
 
+  @Test
+  public void testTouchedClassesAreResetOnTestStart() throws Exception {
+    final byte[] barBytes = generateClass("Bar", "bar1", "bar2");
+    ClassLoader loader = new ClassLoader(ClassLoader.getSystemClassLoader()) {{
+      byte[] bytes = doTransform("Bar", barBytes, this);
+      defineClass("Bar", bytes, 0, bytes.length);
+    }};
+    Class<?> bar = loader.loadClass("Bar");
+    TestDiscoveryProjectData projectData = TestDiscoveryProjectData.getProjectData();
+
+    projectData.testDiscoveryStarted("BarTest", "test1");
+    assertFalse(TestDiscoveryProjectDataTestAccessor.getTouchedClassNames().contains("Bar"));
+    bar.getDeclaredMethod("bar1").invoke(null);
+    bar.getDeclaredMethod("bar1").invoke(null);
+    assertTrue(TestDiscoveryProjectDataTestAccessor.getTouchedClassNames().contains("Bar"));
+    boolean[] barUsedMethods = TestDiscoveryProjectDataTestAccessor.getClass2UsedMethodsMap().get("Bar");
+    assertTrue(barUsedMethods[0]);
+    assertFalse(barUsedMethods[1]);
+    projectData.testDiscoveryEnded("BarTest", "test1");
+
+    projectData.testDiscoveryStarted("BarTest", "test2");
+    assertFalse(TestDiscoveryProjectDataTestAccessor.getTouchedClassNames().contains("Bar"));
+    assertFalse(barUsedMethods[0]);
+    bar.getDeclaredMethod("bar2").invoke(null);
+    assertTrue(TestDiscoveryProjectDataTestAccessor.getTouchedClassNames().contains("Bar"));
+    assertFalse(barUsedMethods[0]);
+    assertTrue(barUsedMethods[1]);
+    projectData.testDiscoveryEnded("BarTest", "test2");
+  }
+
   @Nullable
   private byte[] generateClassWithSingleStaticMethods(String... methodNames) {
+    return generateClass("Foo", methodNames);
+  }
+
+  @Nullable
+  private byte[] generateClass(String className, String... methodNames) {
     ClassWriter cw = new ClassWriter(0);
     cw.visit(Opcodes.V1_5,
         Opcodes.ACC_PUBLIC,
-        "Foo",
+        className,
         null,
         "java/lang/Object",
         null);
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2000-2023 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.rt.coverage.testDiscovery.instrumentation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checksums are persisted between runs, so the hash must match the reference MurmurHash3 x64_128 implementation.
+ */
+public class ChecksumHasherTest {
+  @Test
+  public void testEmptyInput() {
+    assertEquals("00000000000000000000000000000000", digest(""));
+  }
+
+  @Test
+  public void testTailOnly() {
+    assertEquals("029bbd41b3a7d8cb191dae486a901e5b", digest("hello"));
+  }
+
+  @Test
+  public void testBlocksAndLongTail() {
+    assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", digest("The quick brown fox jumps over the lazy dog"));
+  }
+
+  @Test
+  public void testDigestResetsState() {
+    final ChecksumHasher hasher = new ChecksumHasher();
+    put(hasher, "The quick brown fox jumps over the lazy dog");
+    hasher.digest();
+    put(hasher, "hello");
+    assertEquals("029bbd41b3a7d8cb191dae486a901e5b", toHex(hasher.digest()));
+  }
+
+  private static String digest(String value) {
+    final ChecksumHasher hasher = new ChecksumHasher();
+    put(hasher, value);
+    return toHex(hasher.digest());
+  }
+
+  private static void put(ChecksumHasher hasher, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hasher.putByte(value.charAt(i));
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    final StringBuilder result = new StringBuilder();
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+}
@@ -35,7 +35,8 @@ public class ResourceUtil {
     File dist = new File("../dist");
     File[] jars = dist.listFiles(new FilenameFilter() {
       public boolean accept(File dir, String name) {
-        return name.startsWith(agentName);
+        // CDS archive and agent jar copy may be created next to the agent
+        return name.startsWith(agentName) && name.endsWith(".jar") && !name.endsWith("-cds.jar");
       }
     });
 
@@ -19,6 +19,7 @@ package com.intellij.rt.coverage.instrumentation;
 import com.intellij.rt.coverage.util.ClassNameUtil;
 import com.intellij.rt.coverage.util.CoverageIOUtil;
 import com.intellij.rt.coverage.util.ErrorReporter;
+import com.intellij.rt.coverage.util.JfrEvents;
 import org.jetbrains.coverage.org.objectweb.asm.ClassReader;
 import org.jetbrains.coverage.org.objectweb.asm.ClassVisitor;
 import org.jetbrains.coverage.org.objectweb.asm.ClassWriter;
@@ -53,11 +54,18 @@ public abstract class AbstractIntellijClassfileTransformer implements ClassFileT
 
   public final byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classFileBuffer) {
     long s = System.nanoTime();
+    final Object event = JfrEvents.CLASS_TRANSFORMATION.begin();
+    byte[] result = null;
     try {
-      return transformInner(loader, className, classFileBuffer);
+      result = transformInner(loader, className, classFileBuffer);
+      return result;
     } finally {
       ourClassCount++;
       ourTime += System.nanoTime() - s;
+      if (event != null && result != null) {
+        final String fqName = ClassNameUtil.convertToFQName(className);
+        JfrEvents.CLASS_TRANSFORMATION.commit(event, fqName, (long) classFileBuffer.length, (long) result.length, countProbes(fqName));
+      }
     }
   }
 
@@ -116,7 +124,7 @@ public abstract class AbstractIntellijClassfileTransformer implements ClassFileT
       cw = new ClassWriterImpl(ClassWriter.COMPUTE_MAXS, loader, classReaders);
     }
 
-    final ClassVisitor cv = createClassVisitor(className, loader, cr, cw);
+    final ClassVisitor cv = createClassVisitor(className, loader, classfileBuffer, cr, cw);
     if (cv == null) return null;
     cr.accept(cv, ClassReader.EXPAND_FRAMES);
     return cw.toByteArray();
@@ -124,6 +132,14 @@ public abstract class AbstractIntellijClassfileTransformer implements ClassFileT
 
   protected abstract ClassVisitor createClassVisitor(String className, ClassLoader loader, ClassReader cr, ClassVisitor cw);
 
+  /**
+   * Override to access the original class bytes, e.g. to process them after the class is transformed.
+   * The bytes must not be modified.
+   */
+  protected ClassVisitor createClassVisitor(String className, ClassLoader loader, byte[] classfileBuffer, ClassReader cr, ClassVisitor cw) {
+    return createClassVisitor(className, loader, cr, cw);
+  }
+
   protected abstract boolean shouldExclude(String className);
 
   protected InclusionPattern getInclusionPattern() {
@@ -138,6 +154,13 @@ public abstract class AbstractIntellijClassfileTransformer implements ClassFileT
     return false;
   }
 
+  /**
+   * Number of coverage probes inserted into a class, reported in JFR events.
+   */
+  protected int countProbes(String className) {
+    return 0;
+  }
+
   private boolean computeFrames() {
     return System.getProperty("idea.coverage.no.frames") == null;
   }
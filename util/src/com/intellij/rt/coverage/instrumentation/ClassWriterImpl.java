@@ -22,13 +22,14 @@ import org.jetbrains.coverage.org.objectweb.asm.Opcodes;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class ClassWriterImpl extends ClassWriter {
   private static final String JAVA_LANG_OBJECT = "java/lang/Object";
   private final ClassLoader myClassLoader;
   private final Map<ClassLoader, Map<String, ClassReader>> myClassReaders;
+  private Map<String, ClassReader> myLoaderClassReaders;
 
   ClassWriterImpl(int flags, ClassLoader classLoader, Map<ClassLoader, Map<String, ClassReader>> classReaders) {
     super(flags);
@@ -113,11 +114,13 @@ class ClassWriterImpl extends ClassWriter {
     return false;
   }
 
-  private synchronized ClassReader getOrLoadClassReader(String className) throws IOException {
-    Map<String, ClassReader> loaderClassReaders = myClassReaders.get(myClassLoader);
-    if (loaderClassReaders == null) {
-      myClassReaders.put(myClassLoader, loaderClassReaders = new HashMap<String, ClassReader>());
-    }
+  /**
+   * Class readers cache is shared between all the writers of a transformer, while a writer is used by a single thread.
+   * Only the access to the per class loader cache is synchronized, and classes are loaded without a lock,
+   * so parallel class loading is not serialised. A class may be rarely loaded twice, which is harmless.
+   */
+  private ClassReader getOrLoadClassReader(String className) throws IOException {
+    final Map<String, ClassReader> loaderClassReaders = getLoaderClassReaders();
     ClassReader classReader = loaderClassReaders.get(className);
     if (classReader == null) {
       InputStream is = null;
@@ -138,4 +141,16 @@ class ClassWriterImpl extends ClassWriter {
     }
     return classReader;
   }
+
+  private Map<String, ClassReader> getLoaderClassReaders() {
+    if (myLoaderClassReaders != null) return myLoaderClassReaders;
+    synchronized (myClassReaders) {
+      Map<String, ClassReader> loaderClassReaders = myClassReaders.get(myClassLoader);
+      if (loaderClassReaders == null) {
+        myClassReaders.put(myClassLoader, loaderClassReaders = new ConcurrentHashMap<String, ClassReader>());
+      }
+      myLoaderClassReaders = loaderClassReaders;
+      return loaderClassReaders;
+    }
+  }
 }